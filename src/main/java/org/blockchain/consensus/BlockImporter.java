@@ -0,0 +1,89 @@
+package org.blockchain.consensus;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.blockchain.model.Block;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Initial sync of a known chain. Blocks are decoded and given their context-free checks (block signature,
+// transaction root, transaction signatures) on worker threads, at most window blocks ahead of the one being
+// connected. Connecting stays serial, on the calling thread: each block needs the utxo set its parent left
+public class BlockImporter implements AutoCloseable {
+    public static final int DEFAULT_WINDOW = 64;
+
+    private record Checked(Block block, boolean wellFormed) {
+    }
+
+    private final Engine engine;
+    private final ExecutorService workers;
+    private final int window;
+
+    public BlockImporter(Engine engine) {
+        this(engine, Runtime.getRuntime().availableProcessors(), DEFAULT_WINDOW);
+    }
+
+    public BlockImporter(Engine engine, int threads, int window) {
+        this.engine = engine;
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "block-importer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.window = window;
+    }
+
+    // raw blocks in chain order, parents first. Stops at the first bad block with an IllegalArgumentException,
+    // everything before it stays connected. Returns the number of blocks connected
+    public long importBlocks(Iterator<Bytes> rawBlocks) throws IOException {
+        ArrayDeque<Future<Checked>> inFlight = new ArrayDeque<>();
+        long imported = 0;
+        try {
+            while (true) {
+                // the window is the back pressure: a slow connect stops the reading too
+                while (inFlight.size() < this.window && rawBlocks.hasNext()) {
+                    Bytes raw = rawBlocks.next();
+                    inFlight.add(this.workers.submit(() -> this.check(raw)));
+                }
+                Future<Checked> next = inFlight.poll();
+                if (next == null) return imported;
+                Checked checked = take(next);
+                if (!checked.wellFormed())
+                    throw new IllegalArgumentException("Invalid block " + checked.block().getHash(false));
+                this.engine.submitBlock(checked.block(), true);
+                imported++;
+            }
+        } finally {
+            for (Future<Checked> future : inFlight) future.cancel(true);
+        }
+    }
+
+    private Checked check(Bytes raw) {
+        Block block = Block.fromBytes(raw);
+        return new Checked(block, this.engine.isWellFormed(block));
+    }
+
+    private static Checked take(Future<Checked> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // the checks return false rather than throw, only decoding gets here
+            throw new IllegalArgumentException("Malformed block", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        this.workers.shutdownNow();
+        this.workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
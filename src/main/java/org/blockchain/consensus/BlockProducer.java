@@ -0,0 +1,125 @@
+package org.blockchain.consensus;
+
+import org.blockchain.Parameters;
+import org.blockchain.model.Block;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// Produces a block every interval. Blocks are assembled and signed ahead of their tick on a thread of their own:
+// as soon as a tick takes its block, the next one is prepared on top of it while it is being committed. Halfway
+// to the next tick the waiting block is rebuilt if the mempool grew, so the tick itself only ever commits
+public class BlockProducer implements AutoCloseable {
+    private final Engine engine;
+    private final Duration interval;
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService assembler;
+    // touched by the ticker thread only, once started
+    private Future<Engine.PreparedBlock> next;
+    private long preparedAtAdditions;
+    private Logger logger = Logger.getLogger(BlockProducer.class.getName());
+
+    public BlockProducer(Engine engine) {
+        this(engine, Duration.ofSeconds(Parameters.TARGET_BLOCK_TIME_SECONDS));
+    }
+
+    public BlockProducer(Engine engine, Duration interval) {
+        this.engine = engine;
+        this.interval = interval;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "block-producer"));
+        this.assembler = Executors.newSingleThreadExecutor(r -> new Thread(r, "block-assembler"));
+    }
+
+    public void start() {
+        long millis = this.interval.toMillis();
+        this.ticker.execute(() -> this.next = this.prepare(null));
+        this.ticker.scheduleAtFixedRate(this::tick, millis, millis, TimeUnit.MILLISECONDS);
+        this.ticker.scheduleAtFixedRate(this::refresh, millis / 2, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // one tick by hand, for callers driving production themselves. Not to be mixed with start
+    public Block produce() throws IOException {
+        if (this.next == null) this.next = this.prepare(null);
+        Engine.PreparedBlock block = this.take();
+        // the following block is assembled on top of this one while it is written
+        this.next = this.prepare(block);
+        if (this.engine.commitBlock(block)) return block.getBlock();
+        // the chain moved on without us: the child first, it may still be reading the stale block's trie
+        this.take().discard();
+        block.discard();
+        this.next = this.prepare(null);
+        return null;
+    }
+
+    private void tick() {
+        try {
+            Block block = this.produce();
+            if (block == null) this.logger.info("Tip moved before the prepared block was committed, skipped a tick");
+        } catch (IOException | RuntimeException e) {
+            // a throwing task would cancel the schedule
+            this.logger.warning("Block production failed: " + e.getMessage());
+            this.next = this.prepare(null);
+        }
+    }
+
+    // keeps the waiting block from falling behind the mempool, away from the tick
+    void refresh() {
+        try {
+            if (this.next == null || this.engine.getMempoolAdditions() == this.preparedAtAdditions) return;
+            Engine.PreparedBlock stale = this.take();
+            this.next = this.assembler.submit(() -> {
+                // discarded first: the rebuilt block may stage some of the same nodes
+                stale.discard();
+                return this.engine.prepareBlock(null);
+            });
+            this.preparedAtAdditions = this.engine.getMempoolAdditions();
+        } catch (RuntimeException e) {
+            this.logger.warning("Block refresh failed: " + e.getMessage());
+            this.next = this.prepare(null);
+        }
+    }
+
+    // blocks until the waiting block is assembled
+    void awaitPrepared() {
+        if (this.next != null) this.take();
+    }
+
+    private Future<Engine.PreparedBlock> prepare(Engine.PreparedBlock parent) {
+        this.preparedAtAdditions = this.engine.getMempoolAdditions();
+        return this.assembler.submit(() -> this.engine.prepareBlock(parent));
+    }
+
+    private Engine.PreparedBlock take() {
+        try {
+            return this.next.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        this.ticker.shutdown();
+        this.ticker.awaitTermination(1, TimeUnit.MINUTES);
+        this.assembler.shutdown();
+        this.assembler.awaitTermination(1, TimeUnit.MINUTES);
+        if (this.next != null && this.next.isDone() && !this.next.isCancelled()) {
+            try {
+                this.next.get().discard();
+            } catch (ExecutionException e) {
+                // nothing was staged
+            }
+        }
+    }
+}
@@ -4,9 +4,9 @@ import org.apache.tuweni.bytes.Bytes32;
 import org.blockchain.crypto.ECPrivateKey;
 import org.blockchain.model.Block;
 import org.blockchain.model.Transaction;
+import org.blockchain.storage.GlobalState;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 public class BlockProposer {
@@ -17,12 +17,19 @@ public class BlockProposer {
         this.privKey = proposerKey;
     }
 
-    public Block proposeBlock(Bytes32 latestHash, List<Transaction> txs) throws IOException {
+    public BlockTemplateBuilder newTemplate(Bytes32 latestHash, long maxSize) {
         Bytes32 target = this.privKey.getPublicKey().getHash();
         Transaction coinbase = Transaction.payCoinbaseTo(target);
-        txs = new ArrayList<>(txs);
-        txs.addFirst(coinbase);
-        Block unsignedBlock = Block.buildUnsignedFromTxList(latestHash, Bytes32.ZERO, txs);
-        return unsignedBlock.signed(this.privKey);
+        return new BlockTemplateBuilder(latestHash, GlobalState.EMPTY_ROOT, coinbase, maxSize);
+    }
+
+    public Block proposeBlock(BlockTemplateBuilder template) throws IOException {
+        return template.build(this.privKey);
+    }
+
+    public Block proposeBlock(Bytes32 latestHash, List<Transaction> txs) throws IOException {
+        BlockTemplateBuilder template = this.newTemplate(latestHash, Long.MAX_VALUE);
+        for (Transaction tx : txs) template.add(tx);
+        return this.proposeBlock(template);
     }
 }
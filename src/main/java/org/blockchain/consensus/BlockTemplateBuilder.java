@@ -0,0 +1,56 @@
+package org.blockchain.consensus;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockTemplateBuilder {
+    private final Bytes32 previousHash;
+    private Bytes32 globalStateRootHash;
+    private final long maxSize;
+    private final List<Transaction> txs;
+    private long size;
+
+    public BlockTemplateBuilder(
+            Bytes32 previousHash, Bytes32 globalStateRootHash, Transaction coinbase, long maxSize) {
+        this.previousHash = previousHash;
+        this.globalStateRootHash = globalStateRootHash;
+        this.maxSize = maxSize;
+        this.txs = new ArrayList<>();
+        // room for the signature is reserved up front, so signing can't push the block over the limit
+        this.size = Block.HEADER_SIZE + Block.MAX_SIGNATURE_SIZE;
+        this.txs.add(coinbase);
+        this.size += Block.encodedTransactionSize(coinbase);
+    }
+
+    public boolean add(Transaction tx) {
+        long txSize = Block.encodedTransactionSize(tx);
+        if (this.size + txSize > this.maxSize) return false;
+        this.txs.add(tx);
+        this.size += txSize;
+        return true;
+    }
+
+    // the state root depends on the final tx list, so it is usually set once assembly is done
+    public void setGlobalStateRootHash(Bytes32 globalStateRootHash) {
+        this.globalStateRootHash = globalStateRootHash;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public List<Transaction> getTransactions() {
+        return List.copyOf(this.txs);
+    }
+
+    public Block build(ECPrivateKey signer) throws IOException {
+        // the tx root and the signature are only computed once, for the final tx list
+        return Block.buildUnsignedFromTxList(this.previousHash, this.globalStateRootHash, this.txs).signed(signer);
+    }
+}
@@ -1,5 +1,7 @@
 package org.blockchain.consensus;
 
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
 import org.blockchain.crypto.ECPublicKey;
 import org.blockchain.model.Block;
 import org.blockchain.model.Transaction;
@@ -8,14 +10,26 @@ import org.blockchain.model.TransactionOutput;
 import org.blockchain.storage.KVStore;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class BlockValidator {
     private final KVStore<Block> blockStore;
-    private final KVStore<Transaction> txStore;
+    private final KVStore<TransactionOutput> utxoStore;
+    private final SignatureVerifier verifier;
 
-    public BlockValidator(KVStore<Block> blockStore, KVStore<Transaction> txStore) {
+    public BlockValidator(KVStore<Block> blockStore, KVStore<TransactionOutput> utxoStore) {
+        this(blockStore, utxoStore, new SignatureVerifier());
+    }
+
+    public BlockValidator(
+            KVStore<Block> blockStore, KVStore<TransactionOutput> utxoStore, SignatureVerifier verifier) {
         this.blockStore = blockStore;
-        this.txStore = txStore;
+        this.utxoStore = utxoStore;
+        this.verifier = verifier;
     }
 
     public boolean isValid(Block block) throws IOException {
@@ -26,34 +40,59 @@ public class BlockValidator {
         if (!force && this.blockStore.get(block.getHash()) != null) {
             return true; // we assume stored blocks were checked
         }
-        if (block.isSignatureValid()) {
-            for (Transaction tx : block.getTxs()) {
-                if (!force && this.txStore.get(tx.getTransactionHash()) != null) {
-                    return true;
-                }
-                if (tx.isCoinbase()) {
-                    if (tx.getTotalValue() == 10 && tx.getInputs().length == 1) {
-                        continue;
-                    } else {
+        // signatures don't depend on each other and may be checked concurrently,
+        // everything that depends on the utxo set runs afterwards, in block order
+        return this.isWellFormed(block) && this.isContextValid(block.getTxs());
+    }
+
+    // the checks that don't depend on the parent state, so blocks on side branches can be checked on arrival
+    public boolean isWellFormed(Block block) {
+        // blocks from other nodes may be garbage: a bad key or truncated transaction makes it invalid, not fatal
+        try {
+            if (!block.isSignatureValid()) return false;
+            if (!block.hasValidTransactionsRoot()) return false;
+            return this.verifier.verify(block.getTxs());
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // against the utxo set as it is now, which has to be the state of the block's parent
+    public boolean isContextValid(List<Transaction> txs) throws IOException {
+        Map<Bytes, TransactionOutput> created = new HashMap<>();
+        Set<Bytes> spent = new HashSet<>();
+        for (Transaction tx : txs) {
+            Bytes32 txHash = tx.getTransactionHash();
+            if (tx.isCoinbase()) {
+                if (tx.getTotalValue() != 10 || tx.getInputList().size() != 1) return false;
+            } else {
+                long totalInputValue = 0;
+                for (TransactionInput txIn : tx.getInputList()) {
+                    Bytes outpoint = Engine.spentKey(txIn.getTxHash(), txIn.getTxOutIdx());
+                    if (!spent.add(outpoint)) return false;
+                    TransactionOutput out = created.get(outpoint);
+                    if (out == null) out = this.utxoStore.get(outpoint);
+                    if (out == null) return false;
+                    try {
+                        if (!out.getTargetHash().equals(new ECPublicKey(txIn.getPublicKeyBytes()).getHash()))
+                            return false;
+                    } catch (IllegalArgumentException e) {
                         return false;
                     }
-                }
-                long totalInputValue = 0;
-                for (TransactionInput txIn : tx.getInputs()) {
-                    Transaction referenced = this.txStore.get(txIn.getTxHash());
-                    if (referenced == null) return false;
-                    if (txIn.getTxOutIdx() >= referenced.getOutputs().length) return false;
-                    TransactionOutput out = referenced.getOutputs()[txIn.getTxOutIdx()];
-                    if (out.getTargetHash() != new ECPublicKey(txIn.getPublicKeyBytes()).getHash()) return false;
                     totalInputValue += out.getAmount();
                 }
-                for (TransactionOutput out : tx.getOutputs()) {
+                for (TransactionOutput out : tx.getOutputList()) {
                     if (out.getAmount() < 0) return false;
                 }
-                if (totalInputValue > tx.getTotalValue()) return false;
+                if (totalInputValue < tx.getTotalValue()) return false;
+            }
+            List<TransactionOutput> outputs = tx.getOutputList();
+            for (int i = 0; i < outputs.size(); i++) {
+                Bytes outpoint = Engine.spentKey(txHash, i);
+                created.put(outpoint, outputs.get(i));
+                spent.remove(outpoint);
             }
-            return true;
         }
-        return false;
+        return true;
     }
 }
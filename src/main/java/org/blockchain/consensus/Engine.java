@@ -6,149 +6,921 @@ import org.blockchain.Parameters;
 import org.blockchain.crypto.ECPrivateKey;
 import org.blockchain.crypto.ECPublicKey;
 import org.blockchain.model.Block;
+import org.blockchain.model.BlockFilter;
 import org.blockchain.model.Transaction;
 import org.blockchain.model.TransactionInput;
 import org.blockchain.model.TransactionOutput;
+import org.blockchain.storage.AddressIndex;
+import org.blockchain.storage.ChainIndex;
+import org.blockchain.storage.FilterIndex;
+import org.blockchain.storage.GlobalState;
+import org.blockchain.storage.KVBatch;
 import org.blockchain.storage.KVStore;
+import org.blockchain.storage.MemoryTreeKVStore;
+import org.blockchain.storage.UndoIndex;
+import org.blockchain.storage.UtxoCache;
+import org.blockchain.storage.UtxoSnapshot;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 public class Engine {
+    // error is null for an accepted transaction
+    public record SubmitResult(Bytes32 hash, String error) {
+        public boolean isAccepted() {
+            return this.error == null;
+        }
+    }
+
+    // a signed block and its staged state trie, waiting for commitBlock
+    public static final class PreparedBlock {
+        private final Block block;
+        private final GlobalState.Update state;
+        private final KVBatch batch;
+        private final Set<Bytes32> txHashes;
+
+        private PreparedBlock(Block block, GlobalState.Update state, KVBatch batch, Set<Bytes32> txHashes) {
+            this.block = block;
+            this.state = state;
+            this.batch = batch;
+            this.txHashes = txHashes;
+        }
+
+        public Block getBlock() {
+            return this.block;
+        }
+
+        // for a block that won't be committed; nothing may be prepared on top of it anymore
+        public void discard() {
+            this.state.discard();
+        }
+    }
+
+    // what readers see of the chain, replaced whole once a block's batch has committed. tip is null while empty
+    public record ChainState(Bytes32 tip, long height, Bytes32 stateRoot) {
+    }
+
+    // hash of the last block whose utxo changes reached the utxo store
+    private static final Bytes UTXO_FLUSHED_KEY = Bytes.of((byte) 'c');
     private final BlockValidator validator;
+    private final SignatureVerifier verifier;
     private final KVStore<Block> blockStore;
     private final BlockProposer proposer;
     private final KVStore<Transaction> txStore;
     private final KVStore<TransactionOutput> utxoStore;
-    private final List<Transaction> mempool;
-    private Block latest;
-    private long maxBlockSize;
+    private final UtxoCache utxos;
+    private final KVStore<Bytes> chainStore;
+    private final ChainIndex chainIndex;
+    private final AddressIndex addressIndex;
+    private final FilterIndex filterIndex;
+    private final UndoIndex undoIndex;
+    private final GlobalState globalState;
+    // one writer at a time: blocks, transactions and snapshots. Readers never take it, they start from the
+    // published state, and utxo reads go to the state trie under its root, whose nodes are never changed
+    private final Object writeLock = new Object();
+    private volatile ChainState state;
+    // the address index has no per-state versions, so writers hold this across a block, a whole reorganization or
+    // a snapshot import. Readers read optimistically and only wait when a write overlapped
+    private final StampedLock indexLock = new StampedLock();
+    private long indexStamp;
+    private final Mempool mempool;
+    private volatile long maxBlockSize;
+    private volatile int utxoFlushInterval;
+    private int blocksSinceFlush;
+    private boolean chainStoreRebuilt;
     private Logger logger = Logger.getLogger(Engine.class.getName());
 
+    // The chain store lives in memory and is rebuilt from the blocks on every start, so it never has to agree
+    // with the other stores after a crash and being outside their batch domain is fine. The utxo store has to be
+    // written along with every block though, there is no flush marker to replay from
     public Engine(
             KVStore<Block> blockStore, KVStore<Transaction> txStore,
             KVStore<TransactionOutput> utxoStore, ECPrivateKey proposerKey) {
+        this(blockStore, txStore, utxoStore, new MemoryTreeKVStore<>(Function.identity(), Function.identity()),
+                proposerKey);
+        this.chainStoreRebuilt = true;
+    }
+
+    public Engine(
+            KVStore<Block> blockStore, KVStore<Transaction> txStore, KVStore<TransactionOutput> utxoStore,
+            KVStore<Bytes> chainStore, ECPrivateKey proposerKey) {
         this.blockStore = blockStore;
         this.proposer = new BlockProposer(proposerKey);
-        this.validator = new BlockValidator(blockStore, txStore);
-        this.txStore = txStore;
-        this.mempool = new LinkedList<>();
+        this.verifier = new SignatureVerifier();
         this.utxoStore = utxoStore;
+        this.utxos = new UtxoCache(utxoStore);
+        this.validator = new BlockValidator(blockStore, this.utxos, this.verifier);
+        this.txStore = txStore;
+        this.mempool = new Mempool();
         this.maxBlockSize = Parameters.MAX_BLOCK_SIZE_BYTES;
+        this.utxoFlushInterval = 1;
+        this.chainStore = chainStore;
+        this.chainIndex = new ChainIndex(chainStore);
+        this.globalState = new GlobalState(chainStore);
+        this.addressIndex = new AddressIndex(chainStore);
+        this.filterIndex = new FilterIndex(chainStore);
+        this.undoIndex = new UndoIndex(chainStore);
+        if (this.chainIndex.isEmpty()) this.rebuildChainIndex();
+        Bytes32 tip = this.chainIndex.getTip();
+        this.publish(tip != null ? stateRootOf(this.blockStore.get(tip)) : GlobalState.EMPTY_ROOT);
+        // without a marker the utxo store predates it and was written along with every block
+        Bytes flushed = chainStore.get(UTXO_FLUSHED_KEY);
+        if (tip != null && flushed != null && !flushed.equals(tip)) this.replayUtxos(Bytes32.wrap(flushed));
+    }
+
+    public ChainState getChainState() {
+        return this.state;
     }
 
     public Bytes32 getLatestBlockHash() {
+        return this.state.tip();
+    }
+
+    public Bytes32 getStateRoot() {
+        return this.state.stateRoot();
+    }
+
+    // confirmed coins only, read from the address index rather than a utxo scan, as of a published state
+    public long getBalance(Bytes32 owner) {
+        return this.readIndex(() -> this.addressIndex.getBalance(owner));
+    }
+
+    public List<AddressIndex.Coin> getUnspentOutputs(Bytes32 owner) {
+        return this.readIndex(() -> this.addressIndex.getCoins(owner));
+    }
+
+    private <T> T readIndex(Supplier<T> read) {
+        long stamp = this.indexLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = read.get();
+                if (this.indexLock.validate(stamp)) return result;
+            } catch (RuntimeException e) {
+                // torn by a writer, read again under the lock
+            }
+        }
+        stamp = this.indexLock.readLock();
         try {
-            return latest.getHash();
-        } catch (IOException e) {
-            return null;
+            return read.get();
+        } finally {
+            this.indexLock.unlockRead(stamp);
+        }
+    }
+
+    // under the write lock only. Returns 0 when an outer write, a reorganization, holds it already
+    private long lockIndex() {
+        if (this.indexStamp != 0) return 0;
+        this.indexStamp = this.indexLock.writeLock();
+        return this.indexStamp;
+    }
+
+    private void unlockIndex(long stamp) {
+        if (stamp == 0) return;
+        this.indexStamp = 0;
+        this.indexLock.unlockWrite(stamp);
+    }
+
+    // stored encodings, for callers that pass them on rather than decode them
+    public Bytes getRawBlock(Bytes32 hash) {
+        return this.blockStore.getRaw(hash);
+    }
+
+    public Bytes getRawTransaction(Bytes32 hash) {
+        return this.txStore.getRaw(hash);
+    }
+
+    // the cache runs ahead of the published state while a block is applied, the trie at its root doesn't
+    public Bytes getRawUtxo(Bytes32 txHash, int index) {
+        return this.globalState.get(this.state.stateRoot(), spentKey(txHash, index)).orElse(null);
+    }
+
+    public List<Transaction> getMempoolTransactions() {
+        return this.mempool.getTransactions();
+    }
+
+    // grows with every admission, so a waiting block template can tell it fell behind
+    public long getMempoolAdditions() {
+        return this.mempool.getAdditions();
+    }
+
+    public long getHeight() {
+        return this.state.height();
+    }
+
+    public Bytes32 getBlockHashAtHeight(long height) {
+        return height <= this.state.height() ? this.chainIndex.getHashAtHeight(height) : null;
+    }
+
+    public BlockFilter getBlockFilter(long height) {
+        Bytes32 hash = this.getBlockHashAtHeight(height);
+        if (hash == null) return null;
+        return this.getBlockFilter(hash);
+    }
+
+    private BlockFilter getBlockFilter(Bytes32 hash) {
+        BlockFilter filter = this.filterIndex.get(hash);
+        // blocks accepted before filters existed get theirs computed on demand
+        return filter != null ? filter : BlockFilter.build(this.blockStore.get(hash));
+    }
+
+    // wallet rescan: only blocks whose filter matches one of the items (target hashes or outpoints) are read.
+    // Filters have false positives, so callers still check the transactions they get back
+    public List<Block> findBlocks(long fromHeight, long toHeight, Collection<? extends Bytes> items) {
+        // the chain of one published state: entries never change, so walking back from its tip can't see a
+        // reorganization that happens meanwhile, unlike the height records
+        ChainState state = this.state;
+        List<Bytes32> hashes = new ArrayList<>();
+        long height = state.height();
+        for (Bytes32 hash = state.tip(); hash != null && height >= Math.max(fromHeight, 0); height--) {
+            if (height <= toHeight) hashes.addFirst(hash);
+            ChainIndex.Entry entry = this.chainIndex.getEntry(hash);
+            // the base of a node bootstrapped from a snapshot has no parent here
+            hash = entry.parent().equals(Bytes32.ZERO) || this.chainIndex.getEntry(entry.parent()) == null
+                    ? null : entry.parent();
+        }
+        List<Block> blocks = new ArrayList<>();
+        for (Bytes32 hash : hashes) {
+            if (this.getBlockFilter(hash).matchAny(items)) blocks.add(this.blockStore.get(hash));
         }
+        return blocks;
     }
 
     public void setMaxBlockSize(long maxBlockSize) {
         this.maxBlockSize = maxBlockSize;
     }
 
+    // flushing every n blocks lets outputs spent within that window skip the utxo store entirely.
+    // Unflushed blocks are replayed on startup, which needs a persistent chain store
+    public void setUtxoFlushInterval(int blocks) {
+        if (blocks != 1 && this.chainStoreRebuilt)
+            throw new IllegalStateException("Deferred utxo flushes need a persistent chain store");
+        this.utxoFlushInterval = blocks;
+    }
+
+    public void setUtxoCacheBudget(long bytes) {
+        this.utxos.setMemoryBudget(bytes);
+    }
+
+    public void flushUtxos() {
+        synchronized (this.writeLock) {
+            Bytes32 tip = this.chainIndex.getTip();
+            if (tip == null) return;
+            KVBatch batch = new KVBatch();
+            this.utxos.flush(batch);
+            batch.put(this.chainStore, UTXO_FLUSHED_KEY, tip);
+            batch.commit();
+            this.blocksSinceFlush = 0;
+        }
+    }
+
+    public void setVerificationExecutor(ExecutorService executor) {
+        this.verifier.setExecutor(executor);
+    }
+
     public void advance() throws IOException {
-        this.ensureLatest();
-        logger.info("Advancing to the next block. Current: "
-                + (this.latest != null ? this.latest.getHash().toShortHexString() : "NO BLOCK"));
-        if (this.latest == null) {
-            this.acceptBlock(this.proposer.proposeBlock(Bytes32.ZERO, List.of()));
-        } else {
-            Block block = this.proposer.proposeBlock(this.latest.getHash(), mempool);
-            int size = this.mempool.size();
-            while (block.asBytes().size() > this.maxBlockSize) {
-                size -= 1;
-                block = this.proposer.proposeBlock(this.latest.getHash(), mempool.subList(0, size));
+        synchronized (this.writeLock) {
+            Bytes32 tip = this.chainIndex.getTip();
+            logger.info("Advancing to the next block. Current: "
+                    + (tip != null ? tip.toShortHexString() : "NO BLOCK"));
+            this.commitBlock(this.prepareBlock(null));
+        }
+    }
+
+    // assembles and signs a block without the write lock, on top of the published tip or of parent, a prepared
+    // block that may still be on its way in. Mempool transactions are taken in order, skipping parent's
+    public PreparedBlock prepareBlock(PreparedBlock parent) throws IOException {
+        ChainState state = this.state;
+        Bytes32 previous = parent != null ? parent.block.getHash() : state.tip() != null ? state.tip() : Bytes32.ZERO;
+        Bytes32 parentRoot = parent != null ? parent.state.getRootHash() : state.stateRoot();
+        BlockTemplateBuilder template = this.proposer.newTemplate(previous, this.maxBlockSize);
+        if (!previous.equals(Bytes32.ZERO)) {
+            for (Mempool.Entry entry : this.mempool.entries()) {
+                if (parent != null && parent.txHashes.contains(entry.hash())) continue;
+                // stop at the first misfit rather than skipping it, so no child is picked without its parent
+                if (!template.add(entry.tx())) break;
+            }
+        }
+        List<Transaction> txs = template.getTransactions();
+        GlobalState.Update update = this.applyState(parentRoot, txs);
+        template.setGlobalStateRootHash(update.getRootHash());
+        Block block = this.proposer.proposeBlock(template);
+        // staged right away, so a block prepared on top of this one can read its trie
+        KVBatch batch = new KVBatch();
+        update.commit(batch, block.getHash(false));
+        Set<Bytes32> txHashes = new HashSet<>();
+        for (Transaction tx : txs) txHashes.add(tx.getTransactionHash());
+        return new PreparedBlock(block, update, batch, txHashes);
+    }
+
+    // false when the tip is no longer its parent, the caller discards it then
+    public boolean commitBlock(PreparedBlock prepared) throws IOException {
+        synchronized (this.writeLock) {
+            Bytes32 tip = this.chainIndex.getTip();
+            if (!prepared.block.getPreviousHash().equals(tip != null ? tip : Bytes32.ZERO)) return false;
+            this.acceptBlock(prepared.block, prepared.state, prepared.batch);
+            this.mempool.removeConfirmed(prepared.block.getTxs());
+            return true;
+        }
+    }
+
+    // blocks from other proposers. Any known branch may be extended; the main chain follows the branch
+    // with the most work, the first one seen wins a tie. Returns whether the block is on the main chain
+    public boolean submitBlock(Block block) throws IOException {
+        return this.submitBlock(block, false);
+    }
+
+    // wellFormed says the context-free checks passed already, the importer runs them ahead, off the write lock
+    boolean submitBlock(Block block, boolean wellFormed) throws IOException {
+        synchronized (this.writeLock) {
+            Bytes32 blockHash = block.getHash(false);
+            // descendants are marked as they come, so the parent is enough to tell
+            if (this.chainIndex.isInvalid(blockHash) || this.chainIndex.isInvalid(block.getPreviousHash())) {
+                KVBatch batch = new KVBatch();
+                this.chainIndex.markInvalid(batch, blockHash);
+                batch.commit();
+                throw new IllegalArgumentException("Block " + blockHash + " is on an invalid branch");
             }
-            if (size >= 0) {
-                this.mempool.subList(0, size).clear();
+            if (this.chainIndex.getEntry(blockHash) != null) return this.chainIndex.isOnMainChain(blockHash);
+            if (!wellFormed && !this.validator.isWellFormed(block)) throw new IllegalArgumentException("Invalid block " + blockHash);
+            Bytes32 tip = this.chainIndex.getTip();
+            if (block.getPreviousHash().equals(tip != null ? tip : Bytes32.ZERO)) {
+                this.connectBlock(block);
+                return true;
             }
-            this.acceptBlock(block);
+            // a side branch: kept in the tree until it gets heavier than the main chain
+            KVBatch batch = new KVBatch();
+            ChainIndex.Entry entry = this.chainIndex.add(batch, blockHash, block.getPreviousHash());
+            batch.put(this.blockStore, blockHash, block);
+            this.filterIndex.put(batch, blockHash, BlockFilter.build(block));
+            batch.commit();
+            if (entry.work() <= this.chainIndex.getTipWork()) return false;
+            this.reorganize(blockHash);
+            return true;
         }
     }
 
-    public void submitTransaction(Transaction tx) throws Exception {
-        if (!tx.verifySignatures()) throw new Exception("Invalid tx signature");
-        if (this.txStore.get(tx.getTransactionHash()) != null) throw new Exception("Transaction already confirmed");
-        long totalInputValue = 0;
-        for (Transaction mempoolTx : this.mempool) {
-            if (mempoolTx.getTransactionHash().equals(tx.getTransactionHash()))
-                throw new Exception("Transaction already in mempool");
-        }
-
-        for (TransactionInput input : tx.getInputs()) {
-            Transaction referencedTx = this.txStore.get(input.getTxHash());
-            boolean onMempool = false;
-            if (referencedTx == null) {
-                for (Transaction mempoolTx : this.mempool) {
-                    if (mempoolTx.getTransactionHash().equals(input.getTxHash())) {
-                        referencedTx = mempoolTx;
-                        onMempool = true;
+    // needs no lock: the block signature, transaction root and transaction signatures
+    boolean isWellFormed(Block block) {
+        return this.validator.isWellFormed(block);
+    }
+
+    // streams the utxo set as of a main chain block out of the state trie at its root, in key order. Trie nodes
+    // never change once written, so this needs no lock: blocks keep being accepted while the file is written
+    public void exportSnapshot(Bytes32 blockHash, Path file) throws IOException {
+        ChainIndex.Entry entry = this.chainIndex.getEntry(blockHash);
+        if (entry == null || !this.chainIndex.isOnMainChain(blockHash))
+            throw new IllegalArgumentException("Block " + blockHash + " is not on the main chain");
+        Block block = this.blockStore.get(blockHash);
+        if (block.getGlobalStateRootHash().equals(Bytes32.ZERO))
+            throw new IllegalArgumentException("Block " + blockHash + " predates the state trie");
+        try (UtxoSnapshot.Writer writer = new UtxoSnapshot.Writer(file, block, entry.height(), UtxoSnapshot.DEFAULT_CHUNK_SIZE)) {
+            this.globalState.forEach(block.getGlobalStateRootHash(), (outpoint, output) -> {
+                try {
+                    writer.add(outpoint, output);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+    public void importSnapshot(Path file, Bytes32 trustedBlockHash) throws IOException {
+        this.importSnapshot(file, trustedBlockHash, ForkJoinPool.commonPool());
+    }
+
+    // bootstraps an empty node: chunks are hashed and decoded on the executor while the file is still being read,
+    // then written in order. Trust comes from the block hash, the block's state root has to match the loaded set.
+    // Validation continues from the snapshot block, the blocks before it are never fetched
+    public void importSnapshot(Path file, Bytes32 trustedBlockHash, ExecutorService executor) throws IOException {
+        synchronized (this.writeLock) {
+            if (!this.chainIndex.isEmpty()) throw new IllegalStateException("Snapshots can only be loaded by an empty node");
+            long stamp = this.lockIndex();
+            try (UtxoSnapshot.Reader reader = new UtxoSnapshot.Reader(file)) {
+                UtxoSnapshot.Header header = reader.getHeader();
+                Block block = header.block();
+                if (!block.getHash(false).equals(trustedBlockHash) || !block.isSignatureValid())
+                    throw new IllegalArgumentException("Snapshot is not for block " + trustedBlockHash);
+                int window = 2 * Runtime.getRuntime().availableProcessors();
+                Deque<Future<List<Map.Entry<Bytes, TransactionOutput>>>> pending = new ArrayDeque<>();
+                Bytes32 root = GlobalState.EMPTY_ROOT;
+                long loaded = 0;
+                try {
+                    for (UtxoSnapshot.Chunk chunk = reader.next(); chunk != null; chunk = reader.next()) {
+                        pending.add(executor.submit(chunk::decode));
+                        if (pending.size() >= window) {
+                            List<Map.Entry<Bytes, TransactionOutput>> entries = takeChunk(pending.poll());
+                            root = this.loadSnapshotChunk(entries, root, trustedBlockHash);
+                            loaded += entries.size();
+                        }
+                    }
+                    while (!pending.isEmpty()) {
+                        List<Map.Entry<Bytes, TransactionOutput>> entries = takeChunk(pending.poll());
+                        root = this.loadSnapshotChunk(entries, root, trustedBlockHash);
+                        loaded += entries.size();
                     }
+                    if (loaded != header.entryCount() || !root.equals(stateRootOf(block)))
+                        throw new IllegalArgumentException("Snapshot does not match the state root of " + trustedBlockHash);
+                } catch (RuntimeException | IOException e) {
+                    for (Future<?> future : pending) future.cancel(true);
+                    this.clearUtxos();
+                    throw e;
+                }
+                KVBatch batch = new KVBatch();
+                batch.put(this.blockStore, trustedBlockHash, block);
+                this.filterIndex.put(batch, trustedBlockHash, BlockFilter.build(block));
+                this.chainIndex.setBase(batch, trustedBlockHash, block.getPreviousHash(), header.height());
+                batch.put(this.chainStore, UTXO_FLUSHED_KEY, trustedBlockHash);
+                Bytes32 stateRoot = root;
+                batch.onCommit(() -> this.publish(stateRoot));
+                batch.commit();
+                this.logger.info(String.format("Loaded %d utxos at height %d from snapshot", loaded, header.height()));
+            } finally {
+                this.unlockIndex(stamp);
+            }
+        }
+    }
+
+    private static List<Map.Entry<Bytes, TransactionOutput>> takeChunk(
+            Future<List<Map.Entry<Bytes, TransactionOutput>>> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    // the chunk goes straight to the utxo store, past the cache, together with its address and state trie records
+    private Bytes32 loadSnapshotChunk(List<Map.Entry<Bytes, TransactionOutput>> entries, Bytes32 root, Bytes32 blockHash) {
+        KVBatch batch = new KVBatch();
+        GlobalState.Update state = this.globalState.update(root);
+        for (Map.Entry<Bytes, TransactionOutput> entry : entries) {
+            TransactionOutput output = entry.getValue();
+            batch.put(this.utxoStore, entry.getKey(), output);
+            this.addressIndex.add(batch, output.getTargetHash(), entry.getKey(), output.getAmount());
+            state.put(entry.getKey(), output.asBytes());
+        }
+        state.commit(batch, blockHash);
+        batch.commit();
+        return state.getRootHash();
+    }
+
+    // undoes a rejected snapshot; state trie nodes are content addressed and simply left behind
+    private void clearUtxos() {
+        KVBatch batch = new KVBatch();
+        for (Map.Entry<Bytes, TransactionOutput> entry : this.utxoStore.entries(Bytes.of()).entrySet()) {
+            batch.remove(this.utxoStore, entry.getKey());
+            this.addressIndex.remove(batch, entry.getValue().getTargetHash(), entry.getKey());
+        }
+        batch.commit();
+    }
+
+    public void submitTransaction(Transaction tx) throws TransactionRejectedException {
+        SubmitResult result = this.submitTransactions(List.of(tx)).getFirst();
+        if (!result.isAccepted()) throw new TransactionRejectedException(result.error());
+    }
+
+    // admits what it can and reports on every transaction rather than throwing, malformed ones included.
+    // Signatures are checked in parallel and every output the batch spends is read from the utxo set at once.
+    // Transactions go in list order, except that a child listed before its parent waits and goes right after it.
+    // Of two conflicting spends the one admitted first wins: the one listed first, unless it is such a child and
+    // the other is listed between it and its parent
+    public List<SubmitResult> submitTransactions(List<Transaction> txs) {
+        synchronized (this.writeLock) {
+            boolean[] signed = this.verifier.verifyEach(txs);
+            Bytes32[] hashes = new Bytes32[txs.size()];
+            // set for the transactions turned away before any ordering, everything else is decoded by then
+            String[] rejected = new String[txs.size()];
+            Map<Bytes32, Integer> positions = new HashMap<>();
+            Set<Bytes> outpoints = new LinkedHashSet<>();
+            for (int i = 0; i < txs.size(); i++) {
+                hashes[i] = hashOf(txs.get(i));
+                positions.putIfAbsent(hashes[i], i);
+                if (!signed[i]) {
+                    rejected[i] = "Invalid tx signature";
+                    continue;
+                }
+                try {
+                    List<Bytes> spent = new ArrayList<>();
+                    for (TransactionInput input : txs.get(i).getInputList())
+                        spent.add(spentKey(input.getTxHash(), input.getTxOutIdx()));
+                    outpoints.addAll(spent);
+                } catch (RuntimeException | AssertionError e) {
+                    rejected[i] = malformed(e);
                 }
-                if (referencedTx == null) throw new Exception("Input not found");
             }
-            for (Transaction mempoolTx : this.mempool) {
-                for (TransactionInput mempoolInput : mempoolTx.getInputs()) {
-                    if (mempoolInput.getTxHash().equals(input.getTxHash())
-                            && mempoolInput.getTxOutIdx() == input.getTxOutIdx()) {
-                        throw new Exception("Mempool Input already spent");
+            List<Bytes> keys = new ArrayList<>(outpoints);
+            List<TransactionOutput> outputs = this.utxos.getAll(keys);
+            Map<Bytes, TransactionOutput> confirmed = new HashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                if (outputs.get(i) != null) confirmed.put(keys.get(i), outputs.get(i));
+            }
+
+            SubmitResult[] results = new SubmitResult[txs.size()];
+            // children listed before their parent wait for it
+            Map<Integer, List<Integer>> waiting = new HashMap<>();
+            Deque<Integer> ready = new ArrayDeque<>();
+            for (int i = 0; i < txs.size(); i++) {
+                ready.push(i);
+                while (!ready.isEmpty()) {
+                    int k = ready.pop();
+                    if (results[k] != null) continue;
+                    int parent = -1;
+                    boolean orphaned = false;
+                    for (TransactionInput input : rejected[k] == null ? txs.get(k).getInputList() : List.<TransactionInput>of()) {
+                        Integer position = positions.get(input.getTxHash());
+                        if (position == null || position == k) continue;
+                        if (results[position] == null) {
+                            parent = position;
+                            break;
+                        }
+                        if (!results[position].isAccepted()) orphaned = true;
+                    }
+                    if (parent >= 0) {
+                        waiting.computeIfAbsent(parent, p -> new ArrayList<>()).add(k);
+                        continue;
                     }
+                    String error;
+                    if (rejected[k] != null) {
+                        error = rejected[k];
+                    } else if (orphaned) {
+                        error = "Parent transaction rejected";
+                    } else {
+                        try {
+                            this.admit(txs.get(k), hashes[k], confirmed);
+                            error = null;
+                        } catch (TransactionRejectedException e) {
+                            error = e.getMessage();
+                        } catch (RuntimeException | AssertionError e) {
+                            error = malformed(e);
+                        }
+                    }
+                    results[k] = new SubmitResult(hashes[k], error);
+                    List<Integer> children = waiting.remove(k);
+                    if (children != null) {
+                        for (int child : children.reversed()) ready.push(child);
+                    }
+                }
+            }
+            // only a cycle is left waiting, and hashes make those impossible
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) results[i] = new SubmitResult(hashes[i], "Input not found");
+            }
+            return Arrays.asList(results);
+        }
+    }
+
+    private static String malformed(Throwable e) {
+        return "Malformed transaction: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+    }
+
+    // confirmed holds the utxo set's answer for the outpoints spent; anything else has to be in the mempool
+    private void admit(Transaction tx, Bytes32 txHash, Map<Bytes, TransactionOutput> confirmed)
+            throws TransactionRejectedException {
+        if (this.txStore.getRaw(txHash) != null) throw new TransactionRejectedException("Transaction already confirmed");
+        if (this.mempool.contains(txHash)) throw new TransactionRejectedException("Transaction already in mempool");
+        long totalInputValue = 0;
+        HashSet<Bytes> spent = new HashSet<>();
+
+        for (TransactionInput input : tx.getInputList()) {
+            Bytes outpoint = spentKey(input.getTxHash(), input.getTxOutIdx());
+            if (!spent.add(outpoint)) throw new TransactionRejectedException("Input spent twice");
+            // confirmed outputs come straight from the utxo set, only unconfirmed parents need decoding
+            TransactionOutput referencedOut = confirmed.get(outpoint);
+            if (referencedOut == null) {
+                Transaction referencedTx = this.mempool.get(input.getTxHash());
+                if (referencedTx == null) {
+                    if (this.txStore.getRaw(input.getTxHash()) != null)
+                        throw new TransactionRejectedException("Input already spent");
+                    throw new TransactionRejectedException("Input not found");
                 }
+                if (input.getTxOutIdx() >= referencedTx.getOutputList().size())
+                    throw new TransactionRejectedException("Input not found");
+                referencedOut = referencedTx.getOutputList().get(input.getTxOutIdx());
+            }
+            if (this.mempool.getSpender(input.getTxHash(), input.getTxOutIdx()) != null) {
+                throw new TransactionRejectedException("Mempool Input already spent");
             }
-            TransactionOutput referencedOut = referencedTx.getOutputs()[input.getTxOutIdx()];
-            if (!onMempool && this.utxoStore.get(this.spentKey(referencedTx.getTransactionHash(), input.getTxOutIdx())) == null) {
-                throw new Exception("Input already spent");
+            try {
+                if (!referencedOut.getTargetHash().equals(new ECPublicKey(input.getPublicKeyBytes()).getHash()))
+                    throw new TransactionRejectedException("Key mismatch");
+            } catch (IllegalArgumentException e) {
+                throw new TransactionRejectedException("Key mismatch");
             }
-            if (!referencedOut.getTargetHash().equals(new ECPublicKey(input.getPublicKeyBytes()).getHash()))
-                throw new Exception("Key mismatch");
             totalInputValue += referencedOut.getAmount();
         }
-        for (TransactionOutput out : tx.getOutputs()) {
-            if (out.getAmount() < 0) throw new Exception("negative amount");
+        for (TransactionOutput out : tx.getOutputList()) {
+            if (out.getAmount() < 0) throw new TransactionRejectedException("negative amount");
         }
-        if (totalInputValue < tx.getTotalValue()) throw new Exception("Amount spent greater than inputs");
+        if (totalInputValue < tx.getTotalValue())
+            throw new TransactionRejectedException("Amount spent greater than inputs");
         this.logger.info(String.format("New transaction added to mempool: %s", tx));
-        this.mempool.add(tx);
+        this.mempool.add(tx, txHash);
+    }
+
+    // blocks from elsewhere are checked against the tip's utxo set before anything changes
+    private void connectBlock(Block block) throws IOException {
+        if (!this.validator.isContextValid(block.getTxs()))
+            throw new IllegalArgumentException("Invalid block " + block.getHash(false));
+        this.acceptBlock(block, this.applyState(this.state.stateRoot(), block.getTxs()), new KVBatch());
+        this.mempool.removeConfirmed(block.getTxs());
     }
 
-    private void acceptBlock(Block block) throws IOException {
-        // todo: verify everything again, so that we can accept blocks from other nodes
+    private void acceptBlock(Block block, GlobalState.Update state, KVBatch batch) throws IOException {
         assert this.validator.isValid(block);
-        this.blockStore.put(block.getHash(), block);
-        for (Transaction tx : block.getTxs()) {
-            this.txStore.put(tx.getTransactionHash(), tx);
-            for (TransactionInput input : tx.getInputs()) {
+        Bytes32 stateRoot = state.getRootHash();
+        if (!stateRoot.equals(block.getGlobalStateRootHash()))
+            throw new IllegalArgumentException("Global state root mismatch for block " + block.getHash());
+        // the whole block lands in one grouped write, so a crash can't leave it half applied
+        Bytes32 blockHash = block.getHash();
+        // blocks coming back from a side branch are stored already, filter included
+        if (this.chainIndex.getEntry(blockHash) == null) {
+            batch.put(this.blockStore, blockHash, block);
+            this.filterIndex.put(batch, blockHash, BlockFilter.build(block));
+        }
+        this.chainIndex.connect(batch, blockHash, block.getPreviousHash());
+        state.commit(batch, blockHash);
+        batch.onCommit(() -> this.publish(stateRoot));
+        for (Transaction tx : block.getTxs()) batch.put(this.txStore, tx.getTransactionHash(), tx);
+        this.undoIndex.put(batch, blockHash, this.applyUtxos(block.getTxs(), batch));
+        if (++this.blocksSinceFlush >= this.utxoFlushInterval || this.utxos.isOverBudget()) {
+            this.utxos.flush(batch);
+            batch.put(this.chainStore, UTXO_FLUSHED_KEY, blockHash);
+            this.blocksSinceFlush = 0;
+        }
+        long stamp = this.lockIndex();
+        try {
+            batch.commit();
+        } finally {
+            this.unlockIndex(stamp);
+        }
+        assert blockHash.equals(this.chainIndex.getTip());
+        logger.info(String.format("New block! Current %s previous %s, %d transactions", blockHash.toHexString(), block.getPreviousHash().toHexString(), block.getTxs().size()));
+    }
+
+    // address records are staged into batch; replayed blocks pass null, theirs were written with the block.
+    // Returns the undo data: every output that existed before the block and is gone or replaced after it
+    private List<UndoIndex.Spent> applyUtxos(List<Transaction> txs, KVBatch batch) throws IOException {
+        List<UndoIndex.Spent> undo = new ArrayList<>();
+        Set<Bytes> created = new HashSet<>();
+        for (Transaction tx : txs) {
+            Bytes32 txHash = tx.getTransactionHash();
+            for (TransactionInput input : tx.getInputList()) {
+                if (input.getTxHash().equals(Bytes32.ZERO)) continue;
+                Bytes outpoint = spentKey(input.getTxHash(), input.getTxOutIdx());
+                TransactionOutput spent = this.utxos.spend(outpoint);
+                if (spent == null) continue;
+                if (batch != null) this.addressIndex.remove(batch, spent.getTargetHash(), outpoint);
+                if (!created.contains(outpoint)) undo.add(new UndoIndex.Spent(outpoint, spent));
+            }
+            // coinbase txs paying the same key share a hash, any other output is new
+            List<TransactionOutput> outputs = tx.getOutputList();
+            for (int i = 0; i < outputs.size(); i++) {
+                Bytes outpoint = spentKey(txHash, i);
+                TransactionOutput output = outputs.get(i);
+                if (tx.isCoinbase() && !created.contains(outpoint)) {
+                    TransactionOutput replaced = this.utxos.get(outpoint);
+                    if (replaced != null) undo.add(new UndoIndex.Spent(outpoint, replaced));
+                }
+                created.add(outpoint);
+                this.utxos.add(outpoint, output, tx.isCoinbase());
+                if (batch != null) this.addressIndex.add(batch, output.getTargetHash(), outpoint, output.getAmount());
+            }
+        }
+        return undo;
+    }
+
+    // the exact inverse of acceptBlock, using the block's undo data instead of a replay
+    private void disconnectBlock(Block block) throws IOException {
+        Bytes32 blockHash = block.getHash(false);
+        List<UndoIndex.Spent> undo = this.undoIndex.get(blockHash);
+        if (undo == null) throw new IllegalStateException("No undo data for block " + blockHash);
+        KVBatch batch = new KVBatch();
+        for (Transaction tx : block.getTxs().reversed()) {
+            Bytes32 txHash = tx.getTransactionHash();
+            List<TransactionOutput> outputs = tx.getOutputList();
+            for (int i = 0; i < outputs.size(); i++) {
+                Bytes outpoint = spentKey(txHash, i);
+                this.utxos.spend(outpoint);
+                this.addressIndex.remove(batch, outputs.get(i).getTargetHash(), outpoint);
+            }
+            // a coinbase hash is shared with earlier blocks paying the same key, which still confirm it
+            if (!tx.isCoinbase()) batch.remove(this.txStore, txHash);
+        }
+        for (UndoIndex.Spent spent : undo.reversed()) {
+            TransactionOutput output = spent.output();
+            this.utxos.add(spent.outpoint(), output, true);
+            this.addressIndex.add(batch, output.getTargetHash(), spent.outpoint(), output.getAmount());
+        }
+        this.chainIndex.disconnect(batch, blockHash);
+        this.undoIndex.remove(batch, blockHash);
+        Bytes32 parent = block.getPreviousHash();
+        Bytes32 parentRoot = parent.equals(Bytes32.ZERO)
+                ? GlobalState.EMPTY_ROOT : stateRootOf(this.blockStore.get(parent));
+        batch.onCommit(() -> this.publish(parentRoot));
+        // replay on startup starts from the flushed block, which therefore has to stay on the main chain
+        this.utxos.flush(batch);
+        if (parent.equals(Bytes32.ZERO)) {
+            batch.remove(this.chainStore, UTXO_FLUSHED_KEY);
+        } else {
+            batch.put(this.chainStore, UTXO_FLUSHED_KEY, parent);
+        }
+        this.blocksSinceFlush = 0;
+        long stamp = this.lockIndex();
+        try {
+            batch.commit();
+        } finally {
+            this.unlockIndex(stamp);
+        }
+    }
+
+    // moves the main chain to the branch ending at target: disconnect back to the fork, then connect forward.
+    // Every step commits on its own, so the stores are consistent whenever it stops
+    private void reorganize(Bytes32 target) throws IOException {
+        List<Block> connect = new ArrayList<>();
+        Bytes32 fork = target;
+        while (!fork.equals(Bytes32.ZERO) && !this.chainIndex.isOnMainChain(fork)) {
+            Block block = this.blockStore.get(fork);
+            connect.addFirst(block);
+            // a side branch known before its ancestor failed
+            if (this.chainIndex.isInvalid(fork)) {
+                this.markInvalid(connect);
+                throw new IllegalArgumentException("Block " + target + " is on an invalid branch");
+            }
+            fork = block.getPreviousHash();
+        }
+        List<Block> disconnect = new ArrayList<>();
+        for (Bytes32 hash = this.chainIndex.getTip(); hash != null && !hash.equals(fork); ) {
+            // blocks indexed by a rebuild were never applied here, so they can't be undone
+            if (!this.undoIndex.contains(hash)) {
+                this.logger.warning("Not switching to " + target.toHexString() + ", no undo data for " + hash);
+                return;
+            }
+            Block block = this.blockStore.get(hash);
+            disconnect.add(block);
+            hash = block.getPreviousHash();
+        }
+        this.logger.info(String.format("Reorganizing: %d blocks disconnected, %d connected, fork at %s",
+                disconnect.size(), connect.size(), fork.toShortHexString()));
+        // balances in between belong to no chain anyone will see, readers wait for the end
+        long stamp = this.lockIndex();
+        try {
+            for (Block block : disconnect) this.disconnectBlock(block);
+            for (int i = 0; i < connect.size(); i++) {
+                try {
+                    this.connectBlock(connect.get(i));
+                } catch (IllegalArgumentException e) {
+                    // remembered, or the next block on this branch would bring it all back to fail again
+                    this.markInvalid(connect.subList(i, connect.size()));
+                    // the old branch was valid, so going back to it can't fail the same way
+                    for (int j = i - 1; j >= 0; j--) this.disconnectBlock(connect.get(j));
+                    for (Block block : disconnect.reversed()) this.connectBlock(block);
+                    this.resubmitTransactions(connect.subList(0, i));
+                    throw e;
+                }
+            }
+        } finally {
+            this.unlockIndex(stamp);
+        }
+        this.resubmitTransactions(disconnect.reversed());
+    }
+
+    private void markInvalid(List<Block> blocks) {
+        KVBatch batch = new KVBatch();
+        for (Block block : blocks) this.chainIndex.markInvalid(batch, block.getHash(false));
+        batch.commit();
+    }
+
+    // transactions from disconnected blocks go back to the mempool, unless the new branch confirmed or spent them.
+    // Pending ones are checked again after them, some may spend outputs that no longer exist
+    private void resubmitTransactions(List<Block> blocks) {
+        List<Transaction> txs = new ArrayList<>();
+        for (Block block : blocks) {
+            for (Transaction tx : block.getTxs()) {
+                if (!tx.isCoinbase()) txs.add(tx);
+            }
+        }
+        for (Mempool.Entry entry : this.mempool.entries()) {
+            this.mempool.remove(entry.hash());
+            txs.add(entry.tx());
+        }
+        for (SubmitResult result : this.submitTransactions(txs)) {
+            if (!result.isAccepted()) this.logger.fine("Dropped transaction after reorg: " + result.error());
+        }
+    }
+
+    private void replayUtxos(Bytes32 flushed) {
+        long from = this.chainIndex.getEntry(flushed).height() + 1;
+        try {
+            for (long height = from; height <= this.chainIndex.getTipHeight(); height++) {
+                this.applyUtxos(this.blockStore.get(this.chainIndex.getHashAtHeight(height)).getTxs(), null);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.flushUtxos();
+    }
+
+    // the global state commits to the utxo set: every unspent outpoint maps to its output
+    private GlobalState.Update applyState(Bytes32 parentRoot, List<Transaction> txs) throws IOException {
+        GlobalState.Update state = this.globalState.update(parentRoot);
+        for (Transaction tx : txs) {
+            Bytes32 txHash = tx.getTransactionHash();
+            for (TransactionInput input : tx.getInputList()) {
                 if (!input.getTxHash().equals(Bytes32.ZERO))
-                    this.utxoStore.remove(this.spentKey(input.getTxHash(), input.getTxOutIdx()));
+                    state.remove(spentKey(input.getTxHash(), input.getTxOutIdx()));
             }
-            for (int i = 0; i < tx.getOutputs().length; i++)
-                this.utxoStore.put(this.spentKey(tx.getTransactionHash(), i), tx.getOutputs()[i]);
+            List<TransactionOutput> outputs = tx.getOutputList();
+            for (int i = 0; i < outputs.size(); i++) state.put(spentKey(txHash, i), outputs.get(i).asBytes());
         }
-        this.ensureLatest();
-        assert this.latest.equals(block);
-        logger.info(String.format("New block! Current %s previous %s, %d transactions", block.getHash().toHexString(), block.getPreviousHash().toHexString(), block.getTxs().size()));
+        return state;
     }
 
-    private Bytes spentKey(Bytes32 hash, int idx) throws IOException {
+    private static Bytes32 stateRootOf(Block block) {
+        // blocks from before the state trie carry a zero root; their descendants start from an empty trie
+        Bytes32 root = block.getGlobalStateRootHash();
+        return root.equals(Bytes32.ZERO) ? GlobalState.EMPTY_ROOT : root;
+    }
+
+    static Bytes spentKey(Bytes32 hash, int idx) {
         return Bytes.concatenate(hash, Bytes.ofUnsignedInt(idx));
     }
 
-    private void ensureLatest() throws IOException {
-        // Scan the db for a block that isn't referenced by any other block. Assumes no uncle blocks
+    // runs as the last commit hook, after the chain index has moved
+    private void publish(Bytes32 stateRoot) {
+        this.state = new ChainState(this.chainIndex.getTip(), this.chainIndex.getTipHeight(), stateRoot);
+    }
+
+    private static Bytes32 hashOf(Transaction tx) {
+        try {
+            return tx.getTransactionHash();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void rebuildChainIndex() {
+        // Stores written before the chain index existed: find the tip with one full scan, then index it once.
+        // The longest branch is taken as the main chain, side branches are left out
+        Map<Bytes32, Block> blocks = new HashMap<>();
         HashSet<Bytes32> referenced = new HashSet<>();
         for (Block block : this.blockStore.iter(Bytes.of())) {
+            blocks.put(block.getHash(false), block);
             referenced.add(block.getPreviousHash());
         }
-        for (Block block : this.blockStore.iter(Bytes.of())) {
-            if (!referenced.contains(block.getHash())) {
-                this.latest = block;
+        List<Block> chain = new ArrayList<>();
+        for (Map.Entry<Bytes32, Block> leaf : blocks.entrySet()) {
+            if (referenced.contains(leaf.getKey())) continue;
+            List<Block> branch = new ArrayList<>();
+            for (Block block = leaf.getValue(); block != null; block = blocks.get(block.getPreviousHash())) {
+                branch.addFirst(block);
             }
+            if (branch.size() > chain.size()) chain = branch;
+        }
+        // the state trie nodes and filters live next to the index, so they are replayed with it
+        Bytes32 stateRoot = GlobalState.EMPTY_ROOT;
+        for (Block block : chain) {
+            KVBatch batch = new KVBatch();
+            this.chainIndex.connect(batch, block.getHash(false), block.getPreviousHash());
+            this.filterIndex.put(batch, block.getHash(false), BlockFilter.build(block));
+            if (!block.getGlobalStateRootHash().equals(Bytes32.ZERO)) {
+                try {
+                    this.applyState(stateRoot, block.getTxs()).commit(batch, block.getHash(false));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            batch.commit();
+            stateRoot = stateRootOf(block);
+        }
+        // so is the address index, rebuilt from the utxo set in one pass
+        KVBatch batch = new KVBatch();
+        for (Map.Entry<Bytes, TransactionOutput> entry : this.utxos.entries(Bytes.of()).entrySet()) {
+            TransactionOutput output = entry.getValue();
+            this.addressIndex.add(batch, output.getTargetHash(), entry.getKey(), output.getAmount());
         }
+        batch.commit();
     }
 }
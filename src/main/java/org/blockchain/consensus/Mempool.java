@@ -0,0 +1,105 @@
+package org.blockchain.consensus;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionInput;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// synchronized throughout: the engine admits and evicts under its write lock, anyone may read
+public class Mempool {
+    public record Entry(Transaction tx, Bytes32 hash) {
+    }
+
+    // insertion ordered, so parents always come before the transactions spending them
+    private final LinkedHashMap<Bytes32, Entry> entries;
+    private final Map<Bytes, Bytes32> spenders;
+    private long additions;
+
+    public Mempool() {
+        this.entries = new LinkedHashMap<>();
+        this.spenders = new HashMap<>();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getAdditions() {
+        return this.additions;
+    }
+
+    public synchronized boolean contains(Bytes32 hash) {
+        return this.entries.containsKey(hash);
+    }
+
+    public synchronized Transaction get(Bytes32 hash) {
+        Entry entry = this.entries.get(hash);
+        return entry != null ? entry.tx() : null;
+    }
+
+    public synchronized Bytes32 getSpender(Bytes32 txHash, int txOutIdx) {
+        return this.spenders.get(Engine.spentKey(txHash, txOutIdx));
+    }
+
+    // a copy, the mempool may change while the caller walks it
+    public synchronized List<Entry> entries() {
+        return List.copyOf(this.entries.values());
+    }
+
+    public synchronized List<Transaction> getTransactions() {
+        List<Transaction> txs = new ArrayList<>(this.entries.size());
+        for (Entry entry : this.entries.values()) txs.add(entry.tx());
+        return txs;
+    }
+
+    public synchronized void add(Transaction tx, Bytes32 hash) {
+        if (this.entries.containsKey(hash)) throw new IllegalStateException("Transaction already in mempool");
+        for (TransactionInput input : tx.getInputList()) {
+            Bytes outpoint = Engine.spentKey(input.getTxHash(), input.getTxOutIdx());
+            if (this.spenders.containsKey(outpoint)) throw new IllegalStateException("Mempool Input already spent");
+        }
+        for (TransactionInput input : tx.getInputList()) {
+            this.spenders.put(Engine.spentKey(input.getTxHash(), input.getTxOutIdx()), hash);
+        }
+        this.entries.put(hash, new Entry(tx, hash));
+        this.additions++;
+    }
+
+    public synchronized Entry remove(Bytes32 hash) {
+        Entry entry = this.entries.remove(hash);
+        if (entry == null) return null;
+        for (TransactionInput input : entry.tx().getInputList()) {
+            this.spenders.remove(Engine.spentKey(input.getTxHash(), input.getTxOutIdx()));
+        }
+        return entry;
+    }
+
+    // drops confirmed transactions, plus whatever conflicts with them and everything depending on those
+    public synchronized void removeConfirmed(List<Transaction> confirmed) throws IOException {
+        Deque<Bytes32> evicted = new ArrayDeque<>();
+        for (Transaction tx : confirmed) {
+            this.remove(tx.getTransactionHash());
+            for (TransactionInput input : tx.getInputList()) {
+                Bytes32 conflict = this.getSpender(input.getTxHash(), input.getTxOutIdx());
+                if (conflict != null) evicted.add(conflict);
+            }
+        }
+        while (!evicted.isEmpty()) {
+            Entry entry = this.remove(evicted.poll());
+            if (entry == null) continue;
+            for (int i = 0; i < entry.tx().getOutputList().size(); i++) {
+                Bytes32 child = this.getSpender(entry.hash(), i);
+                if (child != null) evicted.add(child);
+            }
+        }
+    }
+}
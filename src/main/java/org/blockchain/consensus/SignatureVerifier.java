@@ -0,0 +1,135 @@
+package org.blockchain.consensus;
+
+import org.blockchain.crypto.SignatureCache;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionInput;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class SignatureVerifier {
+    private final SignatureCache cache;
+    private volatile ExecutorService executor;
+
+    public SignatureVerifier() {
+        this(null);
+    }
+
+    public SignatureVerifier(ExecutorService executor) {
+        this(executor, new SignatureCache());
+    }
+
+    // one cache shared by mempool admission and block validation lets relayed txs skip ECDSA at block time
+    public SignatureVerifier(ExecutorService executor, SignatureCache cache) {
+        this.executor = executor;
+        this.cache = cache;
+    }
+
+    // null verifies on the calling thread, otherwise every input becomes its own task
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public boolean verify(Transaction tx) {
+        return this.verify(List.of(tx));
+    }
+
+    public boolean verify(List<Transaction> txs) {
+        List<Callable<Boolean>> checks = new ArrayList<>();
+        for (Transaction tx : txs) {
+            if (tx.isCoinbase()) continue;
+            byte[] signingHash = tx.getSigningHash();
+            for (TransactionInput input : tx.getInputList()) {
+                if (this.cache.contains(signingHash, input.getPublicKeyBytes(), input.getSignature())) continue;
+                checks.add(() -> this.verifyInput(input, signingHash));
+            }
+        }
+        ExecutorService executor = this.executor;
+        if (executor == null || checks.size() < 2) {
+            for (Callable<Boolean> check : checks) {
+                try {
+                    if (!check.call()) return false;
+                } catch (Exception e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return this.verifyConcurrently(executor, checks);
+    }
+
+    // a result per transaction instead of one for all of them. The work is split per transaction, and a
+    // batch is spread over the common pool when no executor was set
+    public boolean[] verifyEach(List<Transaction> txs) {
+        boolean[] valid = new boolean[txs.size()];
+        if (txs.size() < 2) {
+            for (int i = 0; i < txs.size(); i++) valid[i] = this.verifyInputs(txs.get(i));
+            return valid;
+        }
+        ExecutorService executor = this.executor != null ? this.executor : ForkJoinPool.commonPool();
+        List<Callable<Boolean>> checks = new ArrayList<>(txs.size());
+        for (Transaction tx : txs) checks.add(() -> this.verifyInputs(tx));
+        try {
+            List<Future<Boolean>> results = executor.invokeAll(checks);
+            for (int i = 0; i < valid.length; i++) {
+                try {
+                    valid[i] = results.get(i).get();
+                } catch (ExecutionException e) {
+                    // verifyInputs returns false rather than throw, whatever is left only fails its own entry
+                    valid[i] = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new boolean[txs.size()];
+        }
+        return valid;
+    }
+
+    // a transaction that doesn't decode is just invalid, the others in the batch still get their answer
+    private boolean verifyInputs(Transaction tx) {
+        try {
+            if (tx.isCoinbase()) return true;
+            byte[] signingHash = tx.getSigningHash();
+            for (TransactionInput input : tx.getInputList()) {
+                if (this.cache.contains(signingHash, input.getPublicKeyBytes(), input.getSignature())) continue;
+                if (!this.verifyInput(input, signingHash)) return false;
+            }
+            return true;
+        } catch (RuntimeException | AssertionError e) {
+            return false;
+        }
+    }
+
+    private boolean verifyInput(TransactionInput input, byte[] signingHash) {
+        if (!Transaction.verifyInput(input, signingHash)) return false;
+        this.cache.add(signingHash, input.getPublicKeyBytes(), input.getSignature());
+        return true;
+    }
+
+    private boolean verifyConcurrently(ExecutorService executor, List<Callable<Boolean>> checks) {
+        ExecutorCompletionService<Boolean> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Boolean>> pending = new ArrayList<>(checks.size());
+        try {
+            for (Callable<Boolean> check : checks) pending.add(completion.submit(check));
+            for (int i = 0; i < checks.size(); i++) {
+                // results arrive in completion order, so the first failure ends it
+                if (!completion.take().get()) return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } finally {
+            for (Future<Boolean> future : pending) future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package org.blockchain.consensus;
+
+// a transaction the mempool won't take, the message says why
+public class TransactionRejectedException extends Exception {
+    public TransactionRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,98 @@
+package org.blockchain.crypto;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Secp256k1Verifier {
+    public static final int DEFAULT_CACHE_SIZE = 8192;
+    // the custom curve has a dedicated field implementation and the GLV endomorphism configured,
+    // so sumOfTwoMultiplies splits both scalars and runs an interleaved wNAF (Shamir's trick)
+    private static final X9ECParameters CURVE = CustomNamedCurves.getByName("secp256k1");
+    private static final ECCurve CURVE_IMPL = CURVE.getCurve();
+    private static final ECPoint G = CURVE.getG();
+    private static final BigInteger N = CURVE.getN();
+    private static final Secp256k1Verifier DEFAULT = new Secp256k1Verifier(DEFAULT_CACHE_SIZE);
+
+    // wNAF precomputation tables live on the ECPoint instances, so keeping points keeps their tables
+    private final Map<Bytes, ECPoint> points;
+
+    public Secp256k1Verifier(int cacheSize) {
+        this.points = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Bytes, ECPoint> eldest) {
+                return this.size() > cacheSize;
+            }
+        };
+    }
+
+    public static Secp256k1Verifier getDefault() {
+        return DEFAULT;
+    }
+
+    public ECPoint decodePoint(byte[] publicKey) {
+        Bytes key = Bytes.wrap(publicKey);
+        synchronized (this.points) {
+            ECPoint cached = this.points.get(key);
+            if (cached != null) return cached;
+        }
+        ECPoint point = CURVE_IMPL.decodePoint(publicKey);
+        synchronized (this.points) {
+            // the caller may reuse its array, so the cache keeps its own copy of the key
+            this.points.put(key.copy(), point);
+        }
+        return point;
+    }
+
+    public boolean verify(byte[] publicKey, byte[] signature, byte[] hash) {
+        BigInteger[] rs = parseDer(signature);
+        if (rs == null) return false;
+        BigInteger r = rs[0];
+        BigInteger s = rs[1];
+        if (r.signum() <= 0 || r.compareTo(N) >= 0 || s.signum() <= 0 || s.compareTo(N) >= 0) return false;
+        ECPoint q;
+        try {
+            q = this.decodePoint(publicKey);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        BigInteger e = new BigInteger(1, hash);
+        if (hash.length * 8 > N.bitLength()) e = e.shiftRight(hash.length * 8 - N.bitLength());
+        BigInteger w = s.modInverse(N);
+        BigInteger u1 = e.multiply(w).mod(N);
+        BigInteger u2 = r.multiply(w).mod(N);
+        ECPoint point = ECAlgorithms.sumOfTwoMultiplies(G, u1, q, u2).normalize();
+        if (point.isInfinity()) return false;
+        return point.getAffineXCoord().toBigInteger().mod(N).equals(r);
+    }
+
+    // strict DER: 30 len 02 rlen r 02 slen s, minimal positive integers, nothing trailing
+    static BigInteger[] parseDer(byte[] sig) {
+        if (sig.length < 8 || sig.length > 72) return null;
+        if (sig[0] != 0x30 || (sig[1] & 0xff) != sig.length - 2) return null;
+        int rOffset = 4;
+        if (sig[2] != 0x02) return null;
+        int rLength = sig[3] & 0xff;
+        int sTag = rOffset + rLength;
+        if (sTag + 2 > sig.length || sig[sTag] != 0x02) return null;
+        int sOffset = sTag + 2;
+        int sLength = sig[sTag + 1] & 0xff;
+        if (sOffset + sLength != sig.length) return null;
+        if (!isMinimalPositive(sig, rOffset, rLength) || !isMinimalPositive(sig, sOffset, sLength)) return null;
+        return new BigInteger[]{
+                new BigInteger(1, sig, rOffset, rLength), new BigInteger(1, sig, sOffset, sLength)};
+    }
+
+    private static boolean isMinimalPositive(byte[] sig, int offset, int length) {
+        if (length == 0 || length > 33) return false;
+        if ((sig[offset] & 0x80) != 0) return false;
+        return length == 1 || sig[offset] != 0 || (sig[offset + 1] & 0x80) != 0;
+    }
+}
@@ -0,0 +1,61 @@
+package org.blockchain.crypto;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.bouncycastle.jcajce.provider.digest.SHA3;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SignatureCache {
+    public static final int DEFAULT_CAPACITY = 200_000;
+
+    // only signatures known to be valid are kept, keyed by a digest of (hash, pubkey, signature)
+    private final Set<Bytes32> valid;
+    private final Queue<Bytes32> insertionOrder;
+    private final AtomicInteger size;
+    private final int capacity;
+
+    public SignatureCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SignatureCache(int capacity) {
+        this.valid = ConcurrentHashMap.newKeySet();
+        this.insertionOrder = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger();
+        this.capacity = capacity;
+    }
+
+    public boolean contains(byte[] hash, byte[] publicKey, byte[] signature) {
+        return this.valid.contains(key(hash, publicKey, signature));
+    }
+
+    public void add(byte[] hash, byte[] publicKey, byte[] signature) {
+        Bytes32 key = key(hash, publicKey, signature);
+        if (!this.valid.add(key)) return;
+        this.insertionOrder.add(key);
+        this.size.incrementAndGet();
+        while (this.size.get() > this.capacity) {
+            Bytes32 oldest = this.insertionOrder.poll();
+            // another thread got to it first
+            if (oldest == null) break;
+            this.valid.remove(oldest);
+            this.size.decrementAndGet();
+        }
+    }
+
+    public int size() {
+        return this.valid.size();
+    }
+
+    private static Bytes32 key(byte[] hash, byte[] publicKey, byte[] signature) {
+        final SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
+        sha3.update(hash);
+        sha3.update(publicKey);
+        sha3.update(signature);
+        return Bytes32.wrap(sha3.digest());
+    }
+}
@@ -0,0 +1,64 @@
+package org.blockchain.crypto;
+
+// SipHash-2-4: a fast keyed hash for short inputs, where a secret or per-block key keeps outputs unpredictable
+public class SipHash {
+    private final long k0;
+    private final long k1;
+
+    public SipHash(long k0, long k1) {
+        this.k0 = k0;
+        this.k1 = k1;
+    }
+
+    // the first 16 bytes of key, little endian as in the reference implementation
+    public static SipHash fromKey(byte[] key) {
+        return new SipHash(readLong(key, 0), readLong(key, 8));
+    }
+
+    public long hash(byte[] data) {
+        return this.hash(data, 0, data.length);
+    }
+
+    public long hash(byte[] data, int offset, int length) {
+        long v0 = 0x736f6d6570736575L ^ this.k0;
+        long v1 = 0x646f72616e646f6dL ^ this.k1;
+        long v2 = 0x6c7967656e657261L ^ this.k0;
+        long v3 = 0x7465646279746573L ^ this.k1;
+        int end = offset + (length & ~7);
+        for (int i = offset; i < end; i += 8) {
+            long m = readLong(data, i);
+            v3 ^= m;
+            for (int round = 0; round < 2; round++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+        long last = (long) (length & 0xff) << 56;
+        for (int i = 0; i < (length & 7); i++) last |= (data[end + i] & 0xffL) << (8 * i);
+        v3 ^= last;
+        for (int round = 0; round < 2; round++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= last;
+        v2 ^= 0xff;
+        for (int round = 0; round < 4; round++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) value = (value << 8) | (data[offset + i] & 0xffL);
+        return value;
+    }
+}
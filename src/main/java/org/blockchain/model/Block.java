@@ -9,44 +9,64 @@ import org.bouncycastle.jcajce.provider.digest.SHA3;
 import org.hyperledger.besu.ethereum.trie.MerkleTrie;
 import org.hyperledger.besu.ethereum.trie.patricia.SimpleMerklePatriciaTrie;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Function;
 
 public class Block {
-    public static final byte VERSION = 0;
+    // 1 moved every length to a varint, 0 blocks are still read and hashed in their own format.
+    // 2 commits to its transactions with a binary merkle tree instead of a patricia trie
+    public static final byte VERSION = 2;
+    public static final byte MERKLE_TREE_VERSION = 2;
+    // the tx count is a varint of at most 5 bytes
+    public static final int HEADER_SIZE = 1 + 32 * 3 + 5;
+    // DER signatures are at most 72 bytes, pubkeys are compressed
+    public static final int MAX_SIGNATURE_SIZE = 1 + 72 + 1 + 33;
+    private final byte version;
     private final Bytes32 transactionsRootHash;
     private final Bytes32 globalStateRootHash;
     private final Bytes32 previousHash;
     private final List<Transaction> txs;
     private final byte[] signature;
     private final byte[] signerPubkey;
+    private volatile Bytes raw;
+    private volatile Bytes32 hash;
 
     public Block(
             Bytes32 transactionsRootHash, Bytes32 globalStateRootHash, Bytes32 previousHash, byte[] signature,
             byte[] pubkey, List<Transaction> txs) {
+        this(VERSION, transactionsRootHash, globalStateRootHash, previousHash, signature, pubkey, txs);
+    }
+
+    public Block(
+            byte version, Bytes32 transactionsRootHash, Bytes32 globalStateRootHash, Bytes32 previousHash,
+            byte[] signature, byte[] pubkey, List<Transaction> txs) {
+        this.version = version;
         this.transactionsRootHash = transactionsRootHash;
         this.globalStateRootHash = globalStateRootHash;
         this.previousHash = previousHash;
         this.signature = signature;
         this.signerPubkey = pubkey;
-        this.txs = txs;
+        this.txs = List.copyOf(txs);
     }
 
     public static Block buildUnsignedFromTxList(
             Bytes32 previousHash, Bytes32 globalStateRootHash, List<Transaction> txs) throws IOException {
         // builds an unsigned block
-        Bytes32 txRootHash = Block.getRootHashForTransactionList(txs);
+        Bytes32 txRootHash = Block.getRootHashForTransactionList(VERSION, txs);
         return new Block(txRootHash, globalStateRootHash, previousHash, new byte[0], new byte[0], txs);
     }
 
+    public static Bytes32 getRootHashForTransactionList(byte version, List<Transaction> txs) throws IOException {
+        if (version >= MERKLE_TREE_VERSION) return MerkleTree.root(txs);
+        return getRootHashForTransactionList(txs);
+    }
+
+    // the patricia trie root committed to by blocks before version 2
     public static Bytes32 getRootHashForTransactionList(List<Transaction> txs) throws IOException {
         MerkleTrie<Bytes, Bytes> trie = new SimpleMerklePatriciaTrie<>(Function.identity());
         for (int i = 0; i < txs.size(); i++) {
@@ -56,35 +76,22 @@ public class Block {
         return trie.getRootHash();
     }
 
+    public static int encodedTransactionSize(Transaction tx) {
+        return BlockCodec.encodedTransactionSize(tx);
+    }
+
     public static Block fromBytes(Bytes raw) {
-        try {
-            ByteArrayInputStream in = new ByteArrayInputStream(raw.toArray());
-            assert in.read() == Block.VERSION; // todo: validate from a range
-            Bytes32 transactionsRootHash = Bytes32.wrap(in.readNBytes(32));
-            Bytes32 globalStateRootHash = Bytes32.wrap(in.readNBytes(32));
-            Bytes32 previousHash = Bytes32.wrap(in.readNBytes(32));
-            int txSetSize = ByteBuffer.wrap(in.readNBytes(4)).getInt();
-            List<Transaction> txs = new ArrayList<>();
-            for (int i = 0; i < txSetSize; i++) {
-                int txSize = in.read();
-                txs.add(Transaction.fromBytes(Bytes.wrap(in.readNBytes(txSize))));
-            }
-            if (in.available() > 0) {
-                byte[] signature = in.readNBytes(in.read());
-                byte[] pubkey = in.readNBytes(in.read());
-                return new Block(transactionsRootHash, globalStateRootHash, previousHash, signature, pubkey, txs);
-            }
-            return new Block(transactionsRootHash, globalStateRootHash, previousHash, new byte[0], new byte[0], txs);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        Block block = BlockCodec.decode(raw);
+        block.raw = raw;
+        return block;
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Block block)) return false;
-        return Objects.equals(transactionsRootHash, block.transactionsRootHash) &&
+        return version == block.version &&
+                Objects.equals(transactionsRootHash, block.transactionsRootHash) &&
                 Objects.equals(globalStateRootHash, block.globalStateRootHash) &&
                 Objects.equals(getPreviousHash(), block.getPreviousHash()) &&
                 Objects.equals(getTxs(), block.getTxs()) &&
@@ -94,12 +101,40 @@ public class Block {
     @Override
     public int hashCode() {
         return Objects.hash(
-                transactionsRootHash, globalStateRootHash, getPreviousHash(), getTxs(),
+                version, transactionsRootHash, globalStateRootHash, getPreviousHash(), getTxs(),
                 Arrays.hashCode(signature), Arrays.hashCode(signerPubkey));
     }
 
     public List<Transaction> getTxs() {
-        return List.copyOf(txs);
+        return this.txs;
+    }
+
+    public byte getVersion() {
+        return this.version;
+    }
+
+    public Bytes32 getTransactionsRootHash() {
+        return this.transactionsRootHash;
+    }
+
+    public Bytes32 getGlobalStateRootHash() {
+        return this.globalStateRootHash;
+    }
+
+    public byte[] getSignature() {
+        return this.signature.clone();
+    }
+
+    public byte[] getSignerPubkey() {
+        return this.signerPubkey.clone();
+    }
+
+    public boolean hasValidTransactionsRoot() {
+        try {
+            return getRootHashForTransactionList(this.version, this.txs).equals(this.transactionsRootHash);
+        } catch (IOException e) {
+            return false;
+        }
     }
 
     public boolean isSignatureValid() {
@@ -116,37 +151,24 @@ public class Block {
 
     public Block signed(ECPrivateKey signer) throws IOException {
         byte[] signature = signer.sign(this.getHash(true).toArray());
-        return new Block(this.transactionsRootHash, this.globalStateRootHash, this.previousHash,
+        return new Block(this.version, this.transactionsRootHash, this.globalStateRootHash, this.previousHash,
                 signature, signer.getPublicKey().asBytes(), this.txs);
     }
 
     public Bytes asBytes() {
-        return this.asBytes(false);
+        Bytes raw = this.raw;
+        if (raw == null) {
+            raw = this.asBytes(false);
+            this.raw = raw;
+        }
+        return raw;
     }
 
     public Bytes asBytes(boolean forSigning) {
-        try {
-            ByteArrayOutputStream result = new ByteArrayOutputStream();
-            result.write(Block.VERSION);
-            result.write(this.transactionsRootHash.toArray());
-            result.write(this.globalStateRootHash.toArray());
-            result.write(this.previousHash.toArray());
-            result.write(ByteBuffer.allocate(4).putInt(this.txs.size()).array());
-            for (Transaction tx : this.txs) {
-                byte[] rawtx = tx.asBytes().toArray();
-                result.write(rawtx.length);
-                result.write(rawtx);
-            }
-            if (!forSigning) {
-                result.write(this.signature.length);
-                result.write(this.signature);
-                result.write(this.signerPubkey.length);
-                result.write(this.signerPubkey);
-            }
-            return Bytes.wrap(result.toByteArray());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        if (!forSigning && this.raw != null) return this.raw;
+        byte[] result = new byte[BlockCodec.encodedSize(this, forSigning)];
+        BlockCodec.encode(this, ByteBuffer.wrap(result), forSigning);
+        return Bytes.wrap(result);
     }
 
     public Bytes32 getPreviousHash() {
@@ -159,9 +181,12 @@ public class Block {
     }
 
     public Bytes32 getHash(boolean forSigning) {
+        if (!forSigning && this.hash != null) return this.hash;
         final SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
-        sha3.update(this.asBytes(forSigning).toArray());
-        return Bytes32.wrap(sha3.digest());
+        sha3.update(forSigning ? this.asBytes(true).toArrayUnsafe() : this.asBytes().toArrayUnsafe());
+        Bytes32 hash = Bytes32.wrap(sha3.digest());
+        if (!forSigning) this.hash = hash;
+        return hash;
     }
 
 }
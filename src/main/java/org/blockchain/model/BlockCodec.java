@@ -0,0 +1,190 @@
+package org.blockchain.model;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.Parameters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockCodec {
+    public static final int MAX_VARINT_SIZE = 10;
+    public static final byte LEGACY_VERSION = 0;
+
+    public static int varIntSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    // unsigned LEB128
+    public static void writeVarInt(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static long readVarInt(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static int encodedTransactionSize(Transaction tx) {
+        int size = tx.asBytes().size();
+        return varIntSize(size) + size;
+    }
+
+    public static int encodedSize(Block block, boolean forSigning) {
+        List<Transaction> txs = block.getTxs();
+        int size = 1 + 32 * 3;
+        if (block.getVersion() == LEGACY_VERSION) {
+            size += 4;
+            for (Transaction tx : txs) size += 1 + tx.asBytes().size();
+            if (!forSigning) size += 2 + block.getSignature().length + block.getSignerPubkey().length;
+            return size;
+        }
+        size += varIntSize(txs.size());
+        for (Transaction tx : txs) size += encodedTransactionSize(tx);
+        if (!forSigning) {
+            size += varIntSize(block.getSignature().length) + block.getSignature().length;
+            size += varIntSize(block.getSignerPubkey().length) + block.getSignerPubkey().length;
+        }
+        return size;
+    }
+
+    public static void encode(Block block, ByteBuffer out, boolean forSigning) {
+        boolean legacy = block.getVersion() == LEGACY_VERSION;
+        List<Transaction> txs = block.getTxs();
+        out.put(block.getVersion());
+        block.getTransactionsRootHash().appendTo(out);
+        block.getGlobalStateRootHash().appendTo(out);
+        block.getPreviousHash().appendTo(out);
+        if (legacy) {
+            out.putInt(txs.size());
+        } else {
+            writeVarInt(out, txs.size());
+        }
+        for (Transaction tx : txs) {
+            Bytes raw = tx.asBytes();
+            // legacy blocks truncate lengths to a byte; kept as is so their hashes don't change
+            if (legacy) {
+                out.put((byte) raw.size());
+            } else {
+                writeVarInt(out, raw.size());
+            }
+            raw.appendTo(out);
+        }
+        if (!forSigning) {
+            writeBytes(out, block.getSignature(), legacy);
+            writeBytes(out, block.getSignerPubkey(), legacy);
+        }
+    }
+
+    public static Block decode(Bytes raw) {
+        // one array for the whole block, transactions are views into it
+        byte[] array = raw.toArrayUnsafe();
+        ByteBuffer in = ByteBuffer.wrap(array);
+        byte version = in.get();
+        if (version < LEGACY_VERSION || version > Block.VERSION)
+            throw new IllegalArgumentException("Unknown block version " + version);
+        boolean legacy = version == LEGACY_VERSION;
+        Bytes32 transactionsRootHash = readHash(array, in);
+        Bytes32 globalStateRootHash = readHash(array, in);
+        Bytes32 previousHash = readHash(array, in);
+        int txSetSize = legacy ? in.getInt() : readLength(in);
+        List<Transaction> txs = new ArrayList<>(Math.min(txSetSize, in.remaining()));
+        for (int i = 0; i < txSetSize; i++) {
+            int txSize = legacy ? in.get() & 0xff : readLength(in);
+            if (txSize > in.remaining()) throw new IllegalArgumentException("Length exceeds input");
+            txs.add(Transaction.fromBytes(Bytes.wrap(array, in.position(), txSize)));
+            in.position(in.position() + txSize);
+        }
+        // unsigned blocks still carry both fields, empty. The hash covers every byte, so nothing may follow them
+        byte[] signature = readBytes(in, legacy);
+        byte[] pubkey = readBytes(in, legacy);
+        if (in.hasRemaining()) throw new IllegalArgumentException("Trailing bytes after block");
+        return new Block(version, transactionsRootHash, globalStateRootHash, previousHash, signature, pubkey, txs);
+    }
+
+    // frames are a varint length followed by the block, encoded straight into a pooled buffer
+    public static void write(Block block, WritableByteChannel channel) throws IOException {
+        int size = encodedSize(block, false);
+        ByteBuffer buffer = BufferPool.DEFAULT.acquire(MAX_VARINT_SIZE + size);
+        try {
+            writeVarInt(buffer, size);
+            encode(block, buffer, false);
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+        }
+    }
+
+    // returns null when the channel ends cleanly between frames
+    public static Block read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer single = ByteBuffer.allocate(1);
+        long size = 0;
+        for (int shift = 0; ; shift += 7) {
+            single.clear();
+            while (single.hasRemaining()) {
+                if (channel.read(single) < 0) {
+                    if (shift == 0) return null;
+                    throw new EOFException("Truncated frame length");
+                }
+            }
+            byte b = single.get(0);
+            size |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            if (shift >= 56) throw new IOException("Malformed frame length");
+        }
+        if (size > Parameters.MAX_BLOCK_SIZE_BYTES) throw new IOException("Block frame too large: " + size);
+        // decoded transactions keep views into this array, so it is read into directly instead of a pooled buffer
+        byte[] raw = new byte[(int) size];
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Truncated block frame");
+        }
+        return decode(Bytes.wrap(raw));
+    }
+
+    private static int readLength(ByteBuffer in) {
+        long length = readVarInt(in);
+        if (length > in.remaining()) throw new IllegalArgumentException("Length exceeds input");
+        return (int) length;
+    }
+
+    private static Bytes32 readHash(byte[] array, ByteBuffer in) {
+        Bytes32 hash = Bytes32.wrap(array, in.position());
+        in.position(in.position() + 32);
+        return hash;
+    }
+
+    private static void writeBytes(ByteBuffer out, byte[] value, boolean legacy) {
+        if (legacy) {
+            out.put((byte) value.length);
+        } else {
+            writeVarInt(out, value.length);
+        }
+        out.put(value);
+    }
+
+    private static byte[] readBytes(ByteBuffer in, boolean legacy) {
+        int length = legacy ? in.get() & 0xff : readLength(in);
+        if (length > in.remaining()) throw new IllegalArgumentException("Length exceeds input");
+        byte[] value = new byte[length];
+        in.get(value);
+        return value;
+    }
+}
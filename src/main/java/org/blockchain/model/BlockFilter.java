@@ -0,0 +1,158 @@
+package org.blockchain.model;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.crypto.SipHash;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Golomb-Rice coded set of what a block touches: output target hashes and spent outpoints.
+// Items are siphashed with a key taken from the block hash, mapped into [0, N * M) and sorted;
+// the deltas are stored as a unary quotient and a P bit remainder. False positives run at about 1 / M,
+// there are no false negatives. Parameters are the ones BIP158 uses
+public class BlockFilter {
+    public static final int P = 19;
+    public static final long M = 784931;
+
+    private final SipHash hasher;
+    private final int count;
+    private final byte[] data;
+
+    private BlockFilter(Bytes32 blockHash, int count, byte[] data) {
+        this.hasher = SipHash.fromKey(blockHash.toArrayUnsafe());
+        this.count = count;
+        this.data = data;
+    }
+
+    public static BlockFilter build(Block block) {
+        Set<Bytes> items = new LinkedHashSet<>();
+        for (Transaction tx : block.getTxs()) {
+            if (!tx.isCoinbase()) {
+                for (TransactionInput input : tx.getInputList()) {
+                    items.add(Bytes.concatenate(input.getTxHash(), Bytes.ofUnsignedInt(input.getTxOutIdx())));
+                }
+            }
+            for (TransactionOutput output : tx.getOutputList()) items.add(output.getTargetHash());
+        }
+        return build(block.getHash(false), items);
+    }
+
+    public static BlockFilter build(Bytes32 blockHash, Collection<? extends Bytes> items) {
+        Set<Bytes> unique = new LinkedHashSet<>(items);
+        BlockFilter empty = new BlockFilter(blockHash, unique.size(), new byte[0]);
+        long[] values = empty.hashedValues(unique);
+        // every delta takes P + 1 bits plus its quotient, which averages under 2 bits
+        BitWriter writer = new BitWriter(values.length * (P + 3) / 8 + 8);
+        long last = 0;
+        for (long value : values) {
+            long delta = value - last;
+            last = value;
+            for (long q = delta >>> P; q > 0; q--) writer.write(1, 1);
+            writer.write(0, 1);
+            writer.write(delta, P);
+        }
+        return new BlockFilter(blockHash, values.length, writer.toByteArray());
+    }
+
+    public static BlockFilter fromBytes(Bytes32 blockHash, Bytes raw) {
+        ByteBuffer buffer = ByteBuffer.wrap(raw.toArrayUnsafe());
+        long count = BlockCodec.readVarInt(buffer);
+        if (count < 0 || count > Integer.MAX_VALUE) throw new IllegalArgumentException("Malformed filter");
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return new BlockFilter(blockHash, (int) count, data);
+    }
+
+    public Bytes asBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(BlockCodec.varIntSize(this.count) + this.data.length);
+        BlockCodec.writeVarInt(buffer, this.count);
+        buffer.put(this.data);
+        return Bytes.wrap(buffer.array());
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public boolean match(Bytes item) {
+        return this.matchAny(Set.of(item));
+    }
+
+    // one pass over the coded set for any number of items, both sides being sorted
+    public boolean matchAny(Collection<? extends Bytes> items) {
+        if (this.count == 0 || items.isEmpty()) return false;
+        long[] targets = this.hashedValues(items);
+        BitReader reader = new BitReader(this.data);
+        long value = 0;
+        int next = 0;
+        for (int i = 0; i < this.count; i++) {
+            long q = 0;
+            while (reader.read(1) == 1) q++;
+            value += (q << P) | reader.read(P);
+            while (targets[next] < value) {
+                if (++next == targets.length) return false;
+            }
+            if (targets[next] == value) return true;
+        }
+        return false;
+    }
+
+    private long[] hashedValues(Collection<? extends Bytes> items) {
+        long range = this.count * M;
+        long[] values = new long[items.size()];
+        int i = 0;
+        for (Bytes item : items) {
+            // multiply and shift maps the 64 bit hash onto the range without a modulo
+            values[i++] = Math.unsignedMultiplyHigh(this.hasher.hash(item.toArrayUnsafe()), range);
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private static class BitWriter {
+        private byte[] buffer;
+        private long bits;
+
+        BitWriter(int capacity) {
+            this.buffer = new byte[Math.max(capacity, 8)];
+        }
+
+        // most significant bit first
+        void write(long value, int width) {
+            for (int i = width - 1; i >= 0; i--) {
+                int index = (int) (this.bits >>> 3);
+                if (index == this.buffer.length) this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+                if (((value >>> i) & 1) != 0) this.buffer[index] |= (byte) (0x80 >>> (this.bits & 7));
+                this.bits++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.buffer, (int) ((this.bits + 7) >>> 3));
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] data;
+        private long position;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        long read(int width) {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                int index = (int) (this.position >>> 3);
+                if (index >= this.data.length) throw new IllegalArgumentException("Truncated filter");
+                value = (value << 1) | ((this.data[index] >>> (7 - (this.position & 7))) & 1);
+                this.position++;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.blockchain.model;
+
+import org.blockchain.Parameters;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BufferPool {
+    public static final BufferPool DEFAULT = new BufferPool(
+            (int) Parameters.MAX_BLOCK_SIZE_BYTES + BlockCodec.MAX_VARINT_SIZE, 8);
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> free;
+    private final AtomicInteger pooled;
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.free = new ConcurrentLinkedQueue<>();
+        this.pooled = new AtomicInteger();
+    }
+
+    public ByteBuffer acquire(int minCapacity) {
+        // anything larger than a pooled buffer is a one off and never comes back to the pool
+        if (minCapacity > this.bufferSize) return ByteBuffer.allocateDirect(minCapacity);
+        ByteBuffer buffer = this.free.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(this.bufferSize);
+        this.pooled.decrementAndGet();
+        return buffer.clear();
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != this.bufferSize) return;
+        if (this.pooled.incrementAndGet() > this.maxPooled) {
+            this.pooled.decrementAndGet();
+            return;
+        }
+        this.free.offer(buffer.clear());
+    }
+}
@@ -0,0 +1,223 @@
+package org.blockchain.model;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.Parameters;
+import org.blockchain.crypto.SipHash;
+import org.bouncycastle.jcajce.provider.digest.SHA3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.blockchain.model.BlockCodec.*;
+
+// A block as relayed to peers that likely hold its transactions already: the header, a few prefilled
+// transactions (always the coinbase) and a 6 byte short id for every other one. Ids are SipHash keyed by the
+// block hash and a per-relay salt, so transactions can't be ground ahead of time to collide with a block's.
+// Layout: [hash][version][tx root][state root][previous][signature][pubkey][salt:8][tx count]
+//         [prefilled count] per prefilled [index][length][tx], then the short ids in block order
+public class CompactBlock {
+    public static final int SHORT_ID_SIZE = 6;
+    private static final long SHORT_ID_MASK = (1L << 8 * SHORT_ID_SIZE) - 1;
+
+    private final Bytes32 blockHash;
+    private final byte version;
+    private final Bytes32 transactionsRootHash;
+    private final Bytes32 globalStateRootHash;
+    private final Bytes32 previousHash;
+    private final byte[] signature;
+    private final byte[] signerPubkey;
+    private final long salt;
+    // one slot per transaction, the prefilled ones are left at zero
+    private final long[] shortIds;
+    private final TreeMap<Integer, Transaction> prefilled;
+    private final SipHash hasher;
+
+    private CompactBlock(
+            Bytes32 blockHash, byte version, Bytes32 transactionsRootHash, Bytes32 globalStateRootHash,
+            Bytes32 previousHash, byte[] signature, byte[] signerPubkey, long salt, long[] shortIds,
+            TreeMap<Integer, Transaction> prefilled) {
+        this.blockHash = blockHash;
+        this.version = version;
+        this.transactionsRootHash = transactionsRootHash;
+        this.globalStateRootHash = globalStateRootHash;
+        this.previousHash = previousHash;
+        this.signature = signature;
+        this.signerPubkey = signerPubkey;
+        this.salt = salt;
+        this.shortIds = shortIds;
+        this.prefilled = prefilled;
+        SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
+        sha3.update(blockHash.toArrayUnsafe());
+        sha3.update(Bytes.ofUnsignedLong(salt).toArrayUnsafe());
+        this.hasher = SipHash.fromKey(sha3.digest());
+    }
+
+    // the coinbase is prefilled, it is never in a mempool; so is any transaction whose id collides with an earlier one
+    public static CompactBlock of(Block block, long salt) throws IOException {
+        return of(block, salt, Set.of());
+    }
+
+    // prefill lists the transactions the sender expects peers to miss, by index
+    public static CompactBlock of(Block block, long salt, Set<Integer> prefill) throws IOException {
+        CompactBlock compact = new CompactBlock(
+                block.getHash(), block.getVersion(), block.getTransactionsRootHash(), block.getGlobalStateRootHash(),
+                block.getPreviousHash(), block.getSignature(), block.getSignerPubkey(), salt,
+                new long[block.getTxs().size()], new TreeMap<>());
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < block.getTxs().size(); i++) {
+            Transaction tx = block.getTxs().get(i);
+            long id = compact.shortId(tx.getTransactionHash());
+            if (tx.isCoinbase() || prefill.contains(i) || !seen.add(id)) {
+                compact.prefilled.put(i, tx);
+            } else {
+                compact.shortIds[i] = id;
+            }
+        }
+        return compact;
+    }
+
+    public long shortId(Bytes32 txHash) {
+        return this.hasher.hash(txHash.toArrayUnsafe()) & SHORT_ID_MASK;
+    }
+
+    public Bytes32 getBlockHash() {
+        return this.blockHash;
+    }
+
+    public Bytes32 getPreviousHash() {
+        return this.previousHash;
+    }
+
+    public int getTransactionCount() {
+        return this.shortIds.length;
+    }
+
+    public int getPrefilledCount() {
+        return this.prefilled.size();
+    }
+
+    // a slot per transaction: prefilled ones and the candidates matching an id are set, the rest stay null.
+    // An id matched by two different candidates is left null too, the peer is asked for it instead
+    public Transaction[] match(Collection<Transaction> candidates) throws IOException {
+        Map<Long, Integer> slots = new HashMap<>();
+        for (int i = 0; i < this.shortIds.length; i++) {
+            if (!this.prefilled.containsKey(i)) slots.put(this.shortIds[i], i);
+        }
+        Transaction[] txs = new Transaction[this.shortIds.length];
+        boolean[] ambiguous = new boolean[this.shortIds.length];
+        for (Transaction candidate : candidates) {
+            Integer slot = slots.get(this.shortId(candidate.getTransactionHash()));
+            if (slot == null) continue;
+            if (txs[slot] != null && !txs[slot].getTransactionHash().equals(candidate.getTransactionHash()))
+                ambiguous[slot] = true;
+            txs[slot] = candidate;
+        }
+        for (int i = 0; i < txs.length; i++) {
+            if (ambiguous[i]) txs[i] = null;
+        }
+        for (Map.Entry<Integer, Transaction> entry : this.prefilled.entrySet()) txs[entry.getKey()] = entry.getValue();
+        return txs;
+    }
+
+    // the caller checks the hash of the result: a short id collision rebuilds a different block
+    public Block toBlock(Transaction[] txs) {
+        if (txs.length != this.shortIds.length || Arrays.asList(txs).contains(null))
+            throw new IllegalArgumentException("Block is missing transactions");
+        return new Block(this.version, this.transactionsRootHash, this.globalStateRootHash, this.previousHash,
+                this.signature, this.signerPubkey, Arrays.asList(txs));
+    }
+
+    public Bytes asBytes() {
+        int size = 32 + 1 + 32 * 3 + MAX_VARINT_SIZE * 4 + this.signature.length + this.signerPubkey.length + 8
+                + (this.shortIds.length - this.prefilled.size()) * SHORT_ID_SIZE;
+        for (Transaction tx : this.prefilled.values()) size += MAX_VARINT_SIZE + encodedTransactionSize(tx);
+        ByteBuffer out = ByteBuffer.allocate(size);
+        this.blockHash.appendTo(out);
+        out.put(this.version);
+        this.transactionsRootHash.appendTo(out);
+        this.globalStateRootHash.appendTo(out);
+        this.previousHash.appendTo(out);
+        writeVarInt(out, this.signature.length);
+        out.put(this.signature);
+        writeVarInt(out, this.signerPubkey.length);
+        out.put(this.signerPubkey);
+        out.putLong(this.salt);
+        writeVarInt(out, this.shortIds.length);
+        writeVarInt(out, this.prefilled.size());
+        for (Map.Entry<Integer, Transaction> entry : this.prefilled.entrySet()) {
+            Bytes raw = entry.getValue().asBytes();
+            writeVarInt(out, entry.getKey());
+            writeVarInt(out, raw.size());
+            raw.appendTo(out);
+        }
+        for (int i = 0; i < this.shortIds.length; i++) {
+            if (this.prefilled.containsKey(i)) continue;
+            for (int b = SHORT_ID_SIZE - 1; b >= 0; b--) out.put((byte) (this.shortIds[i] >>> 8 * b));
+        }
+        return Bytes.wrap(out.array(), 0, out.position());
+    }
+
+    public static CompactBlock fromBytes(Bytes raw) {
+        byte[] array = raw.toArrayUnsafe();
+        ByteBuffer in = ByteBuffer.wrap(array);
+        Bytes32 blockHash = readHash(in);
+        byte version = in.get();
+        Bytes32 transactionsRootHash = readHash(in);
+        Bytes32 globalStateRootHash = readHash(in);
+        Bytes32 previousHash = readHash(in);
+        byte[] signature = readBytes(in);
+        byte[] pubkey = readBytes(in);
+        long salt = in.getLong();
+        long count = readVarInt(in);
+        long prefilledCount = readVarInt(in);
+        // every transaction takes at least its short id, or more when prefilled
+        if (count > Parameters.MAX_BLOCK_SIZE_BYTES / SHORT_ID_SIZE || prefilledCount > count)
+            throw new IllegalArgumentException("Malformed compact block");
+        TreeMap<Integer, Transaction> prefilled = new TreeMap<>();
+        for (long i = 0; i < prefilledCount; i++) {
+            long index = readVarInt(in);
+            if (index >= count || prefilled.containsKey((int) index))
+                throw new IllegalArgumentException("Malformed compact block");
+            int length = readLength(in);
+            prefilled.put((int) index, Transaction.fromBytes(Bytes.wrap(array, in.position(), length)));
+            in.position(in.position() + length);
+        }
+        if (in.remaining() != (count - prefilledCount) * SHORT_ID_SIZE)
+            throw new IllegalArgumentException("Malformed compact block");
+        long[] shortIds = new long[(int) count];
+        for (int i = 0; i < count; i++) {
+            if (prefilled.containsKey(i)) continue;
+            long id = 0;
+            for (int b = 0; b < SHORT_ID_SIZE; b++) id = (id << 8) | (in.get() & 0xffL);
+            shortIds[i] = id;
+        }
+        return new CompactBlock(blockHash, version, transactionsRootHash, globalStateRootHash, previousHash,
+                signature, pubkey, salt, shortIds, prefilled);
+    }
+
+    private static Bytes32 readHash(ByteBuffer in) {
+        byte[] hash = new byte[32];
+        in.get(hash);
+        return Bytes32.wrap(hash);
+    }
+
+    private static int readLength(ByteBuffer in) {
+        long length = readVarInt(in);
+        if (length > in.remaining()) throw new IllegalArgumentException("Length exceeds input");
+        return (int) length;
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] value = new byte[readLength(in)];
+        in.get(value);
+        return value;
+    }
+}
@@ -0,0 +1,64 @@
+package org.blockchain.model;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.bouncycastle.jcajce.provider.digest.SHA3;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// a binary tree over an ordered list of 32 byte leaves, each level kept in one flat array.
+// inner nodes are sha3(0x01 || left || right), a node without a sibling moves up unchanged
+public class MerkleTree {
+    public static final byte NODE_PREFIX = 0x01;
+    // below this many pairs per level forking costs more than hashing
+    static final int PARALLEL_THRESHOLD = 512;
+    private static final int CHUNK = 256;
+
+    public static Bytes32 root(List<Transaction> txs) {
+        if (txs.isEmpty()) return Bytes32.ZERO;
+        byte[] leaves = new byte[txs.size() * 32];
+        IntStream range = IntStream.range(0, txs.size());
+        if (txs.size() >= PARALLEL_THRESHOLD) range = range.parallel();
+        range.forEach(i -> {
+            try {
+                txs.get(i).getTransactionHash().copyTo(leaves, i * 32);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        return root(leaves, txs.size());
+    }
+
+    public static Bytes32 root(byte[] leaves, int count) {
+        if (count == 0) return Bytes32.ZERO;
+        byte[] level = leaves;
+        while (count > 1) {
+            int pairs = count / 2;
+            int next = pairs + (count & 1);
+            byte[] parent = new byte[next * 32];
+            byte[] current = level;
+            if (pairs >= PARALLEL_THRESHOLD) {
+                int chunks = (pairs + CHUNK - 1) / CHUNK;
+                IntStream.range(0, chunks).parallel().forEach(
+                        chunk -> hashPairs(current, parent, chunk * CHUNK, Math.min(pairs, (chunk + 1) * CHUNK)));
+            } else {
+                hashPairs(current, parent, 0, pairs);
+            }
+            if ((count & 1) == 1) System.arraycopy(current, (count - 1) * 32, parent, pairs * 32, 32);
+            level = parent;
+            count = next;
+        }
+        return Bytes32.wrap(level, 0).copy();
+    }
+
+    private static void hashPairs(byte[] level, byte[] parent, int from, int to) {
+        SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
+        for (int i = from; i < to; i++) {
+            sha3.update(NODE_PREFIX);
+            sha3.update(level, i * 64, 64);
+            byte[] node = sha3.digest();
+            System.arraycopy(node, 0, parent, i * 32, 32);
+        }
+    }
+}
@@ -6,25 +6,39 @@ import org.blockchain.crypto.ECPrivateKey;
 import org.blockchain.crypto.ECPublicKey;
 import org.bouncycastle.jcajce.provider.digest.SHA3;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 
 
 public class Transaction {
     public static final Bytes32 COINBASE = Bytes32.ZERO;
 
     private static final int version = 0;
-    private final List<TransactionInput> inputs;
-    private final List<TransactionOutput> outputs;
+    // the body encodes both counts in a byte, in every block version
+    public static final int MAX_INPUTS = 255;
+    public static final int MAX_OUTPUTS = 255;
+
+    private record Body(List<TransactionInput> inputs, List<TransactionOutput> outputs) {
+    }
+
+    // Immutable. Built from bytes it keeps the original slice and only decodes on first access,
+    // the hashes and the encoding are computed at most once either way.
+    private volatile Body body;
+    private volatile Bytes raw;
+    private volatile Bytes32 hash;
+    private volatile byte[] signingHash;
 
     public Transaction(List<TransactionInput> inputs, List<TransactionOutput> outputs) {
-        this.inputs = inputs;
-        this.outputs = outputs;
+        if (inputs.size() > MAX_INPUTS || outputs.size() > MAX_OUTPUTS)
+            throw new IllegalArgumentException("Too many inputs or outputs for one transaction");
+        this.body = new Body(List.copyOf(inputs), List.copyOf(outputs));
+    }
+
+    private Transaction(Bytes raw) {
+        this.raw = raw;
     }
 
     public static int getVersion() {
@@ -32,25 +46,48 @@ public class Transaction {
     }
 
     public static Transaction fromBytes(Bytes raw) {
-        try {
-            ByteArrayInputStream in = new ByteArrayInputStream(raw.toArray());
-            assert in.read() == 0;
-            int inputListSize = in.read();
-            List<TransactionInput> inputs = new ArrayList<TransactionInput>(inputListSize);
-            for (int i = 0; i < inputListSize; i++) {
-                int size = in.read();
-                inputs.add(TransactionInput.fromBytes(in.readNBytes(size)));
-            }
-            int outputListSize = in.read();
-            List<TransactionOutput> outputs = new ArrayList<>(outputListSize);
-            for (int i = 0; i < outputListSize; i++) {
-                int size = in.read();
-                outputs.add(TransactionOutput.fromBytes(Bytes.wrap(in.readNBytes(size))));
-            }
-            return new Transaction(inputs, outputs);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        return new Transaction(raw);
+    }
+
+    // strict, so that every transaction has exactly one encoding: the hash is taken over the bytes as received
+    private static Body decode(Bytes raw) {
+        int offset = 0;
+        if (raw.size() < 2 || raw.get(offset) != version) throw new IllegalArgumentException("Malformed transaction");
+        offset++;
+        int inputListSize = raw.get(offset++) & 0xff;
+        List<TransactionInput> inputs = new ArrayList<>(inputListSize);
+        for (int i = 0; i < inputListSize; i++) {
+            int size = readSize(raw, offset++);
+            if (size < TransactionInput.MIN_SIZE || size > TransactionInput.MAX_SIZE || offset + size > raw.size())
+                throw new IllegalArgumentException("Malformed transaction input");
+            inputs.add(TransactionInput.fromBytes(raw.slice(offset, size)));
+            offset += size;
+        }
+        int outputListSize = readSize(raw, offset++);
+        List<TransactionOutput> outputs = new ArrayList<>(outputListSize);
+        for (int i = 0; i < outputListSize; i++) {
+            int size = readSize(raw, offset++);
+            if (size != TransactionOutput.SIZE || offset + size > raw.size() || raw.get(offset) != 0)
+                throw new IllegalArgumentException("Malformed transaction output");
+            outputs.add(TransactionOutput.fromBytes(raw.slice(offset, size)));
+            offset += size;
         }
+        if (offset != raw.size()) throw new IllegalArgumentException("Trailing bytes after transaction");
+        return new Body(Collections.unmodifiableList(inputs), Collections.unmodifiableList(outputs));
+    }
+
+    private static int readSize(Bytes raw, int offset) {
+        if (offset >= raw.size()) throw new IllegalArgumentException("Truncated transaction");
+        return raw.get(offset) & 0xff;
+    }
+
+    private Body body() {
+        Body body = this.body;
+        if (body == null) {
+            body = decode(this.raw);
+            this.body = body;
+        }
+        return body;
     }
 
     public static Transaction payCoinbaseTo(Bytes32 pubkeyHash) {
@@ -60,49 +97,67 @@ public class Transaction {
     }
 
     public TransactionInput[] getInputs() {
-        return this.inputs.toArray(new TransactionInput[0]);
+        return this.body().inputs().toArray(new TransactionInput[0]);
     }
 
     public TransactionOutput[] getOutputs() {
-        return this.outputs.toArray(new TransactionOutput[0]);
+        return this.body().outputs().toArray(new TransactionOutput[0]);
+    }
+
+    public List<TransactionInput> getInputList() {
+        return this.body().inputs();
+    }
+
+    public List<TransactionOutput> getOutputList() {
+        return this.body().outputs();
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Transaction that)) return false;
-        return Arrays.equals(getInputs(), that.getInputs()) && Arrays.equals(getOutputs(), that.getOutputs());
+        // decode accepts canonical encodings only, so equal bytes mean equal inputs and outputs
+        return this.asBytes().equals(that.asBytes());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(Arrays.hashCode(getInputs()), Arrays.hashCode(getOutputs()));
+        return this.asBytes().hashCode();
     }
 
     public boolean isCoinbase() {
-        for (TransactionInput tin : this.inputs) {
+        List<TransactionInput> inputs = this.body().inputs();
+        for (TransactionInput tin : inputs) {
             if (!tin.getTxHash().equals(COINBASE) || tin.getTxOutIdx() != 0)
                 return false;
         }
-        return this.inputs.size() == 1;
+        return inputs.size() == 1;
     }
 
     public Bytes asBytes() {
-        return this.asBytes(false);
+        Bytes raw = this.raw;
+        if (raw == null) {
+            raw = this.asBytes(false);
+            this.raw = raw;
+        }
+        return raw;
     }
 
     public Bytes asBytes(boolean forSigning) {
+        if (!forSigning && this.raw != null) return this.raw;
+        List<TransactionInput> inputs = this.body().inputs();
+        List<TransactionOutput> outputs = this.body().outputs();
         try {
             ByteArrayOutputStream result = new ByteArrayOutputStream();
             result.write(version);
-            result.write(this.inputs.size());
-            for (TransactionInput tin : this.inputs) {
+            result.write(inputs.size());
+            for (TransactionInput tin : inputs) {
                 byte[] tinBytes = forSigning ? tin.asUnsignedBytes() : tin.asBytes();
                 result.write(tinBytes.length);
                 result.write(tinBytes);
             }
-            result.write(this.outputs.size());
-            for (TransactionOutput out : this.outputs) {
+            result.write(outputs.size());
+            for (TransactionOutput out : outputs) {
                 Bytes outBytes = out.asBytes();
                 result.write(outBytes.size());
                 result.write(outBytes.toArray());
@@ -123,10 +178,11 @@ public class Transaction {
         byte[] pubkey = ownerKey.getPublicKey().asBytes();
         Bytes32 ownerKeyHash = ownerKey.getPublicKey().getHash();
         long total = 0;
+        List<TransactionOutput> ownOutputs = this.body().outputs();
         try {
-            List<TransactionInput> inputs = new ArrayList<>(this.outputs.size());
-            for (int i = 0; i < this.inputs.size(); i++) {
-                TransactionOutput out = this.outputs.get(i);
+            List<TransactionInput> inputs = new ArrayList<>(ownOutputs.size());
+            for (int i = 0; i < this.body().inputs().size(); i++) {
+                TransactionOutput out = ownOutputs.get(i);
                 total += out.getAmount();
                 TransactionInput in = new TransactionInput(this.getTransactionHash(), i, new byte[0], pubkey);
                 inputs.add(in);
@@ -146,43 +202,61 @@ public class Transaction {
     }
 
     public Bytes32 getTransactionHash() throws IOException {
-        final SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
-        sha3.update(this.asBytes().toArray());
-        return Bytes32.wrap(sha3.digest());
+        Bytes32 hash = this.hash;
+        if (hash == null) {
+            final SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
+            sha3.update(this.asBytes().toArrayUnsafe());
+            hash = Bytes32.wrap(sha3.digest());
+            this.hash = hash;
+        }
+        return hash;
     }
 
     public long getTotalValue() {
         long totalOutput = 0;
-        for (TransactionOutput output : this.outputs) totalOutput += output.getAmount();
+        for (TransactionOutput output : this.body().outputs()) totalOutput += output.getAmount();
         return totalOutput;
     }
 
-    public boolean verifySignatures() {
-        if (this.isCoinbase()) return true;
-        try {
+    public byte[] getSigningHash() {
+        byte[] signingHash = this.signingHash;
+        if (signingHash == null) {
             final SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
-            sha3.update(this.asBytes(true).toArray());
-            byte[] hash = sha3.digest();
-            for (TransactionInput input : this.inputs) {
-                ECPublicKey key = new ECPublicKey(input.getPublicKeyBytes());
-                if (!key.verify(input.getSignature(), hash)) return false;
-            }
-            return true;
-        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            sha3.update(this.asBytes(true).toArrayUnsafe());
+            signingHash = sha3.digest();
+            this.signingHash = signingHash;
+        }
+        return signingHash.clone();
+    }
+
+    public static boolean verifyInput(TransactionInput input, byte[] signingHash) {
+        try {
+            ECPublicKey key = new ECPublicKey(input.getPublicKeyBytes());
+            return key.verify(input.getSignature(), signingHash);
+        } catch (IOException | RuntimeException e) {
+            // malformed keys and signatures are just invalid
             return false;
         }
     }
 
+    public boolean verifySignatures() {
+        if (this.isCoinbase()) return true;
+        byte[] hash = this.getSigningHash();
+        for (TransactionInput input : this.body().inputs()) {
+            if (!verifyInput(input, hash)) return false;
+        }
+        return true;
+    }
+
     public Transaction sign(List<ECPrivateKey> inputKeys) {
-        if (inputKeys.size() != this.inputs.size()) throw new RuntimeException("Key set and input set size mismatch");
+        List<TransactionInput> inputs = this.body().inputs();
+        if (inputKeys.size() != inputs.size()) throw new RuntimeException("Key set and input set size mismatch");
 
-        final SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
-        sha3.update(this.asBytes(true).toArray());
-        byte[] hash = sha3.digest();
+        byte[] hash = this.getSigningHash();
 
-        List<TransactionInput> signedInputs = new ArrayList<>(this.inputs.size());
+        List<TransactionInput> signedInputs = new ArrayList<>(inputs.size());
         for (int i = 0; i < inputKeys.size(); i++) {
-            TransactionInput unsignedInput = this.inputs.get(i);
+            TransactionInput unsignedInput = inputs.get(i);
             ECPrivateKey key = inputKeys.get(i);
             try {
                 byte[] signature = key.sign(hash);
@@ -194,6 +268,6 @@ public class Transaction {
                 throw new RuntimeException(e);
             }
         }
-        return new Transaction(signedInputs, List.of(this.getOutputs()));
+        return new Transaction(signedInputs, this.body().outputs());
     }
 }
@@ -1,5 +1,6 @@
 package org.blockchain.model;
 
+import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -7,6 +8,8 @@ import java.util.Objects;
 
 public class TransactionInput {
     public static final int MIN_SIZE = 32 + 4 + 33;
+    public static final int MAX_SIGNATURE_SIZE = 74;
+    public static final int MAX_SIZE = MIN_SIZE + MAX_SIGNATURE_SIZE;
     private final Bytes32 txHash;
     private final int txOutIdx;
     private final byte[] publicKeyBytes;
@@ -18,21 +21,25 @@ public class TransactionInput {
         this.txOutIdx = txOutIdx;
         assert publicKeyBytes.length == 33;
         this.publicKeyBytes = publicKeyBytes;
-        assert signature.length <= 74;
+        assert signature.length <= MAX_SIGNATURE_SIZE;
         this.signature = signature;
     }
 
     public static TransactionInput fromBytes(byte[] raw) {
-        Bytes32 txHash = Bytes32.secure(raw, 0);
-        byte[] rawIdx = new byte[4];
-        System.arraycopy(raw, 32, rawIdx, 0, 4);
-        int idx = ByteBuffer.wrap(rawIdx).getInt();
-        byte[] pubkeyBytes = new byte[33];
-        System.arraycopy(raw, 36, pubkeyBytes, 0, 33);
+        return fromBytes(Bytes.wrap(raw));
+    }
+
+    // throws IllegalArgumentException rather than leave the checks to the constructor's asserts
+    public static TransactionInput fromBytes(Bytes raw) {
+        if (raw.size() < MIN_SIZE || raw.size() > MAX_SIZE) throw new IllegalArgumentException("Malformed transaction input");
+        // the tx hash stays a view over the source buffer
+        Bytes32 txHash = Bytes32.wrap(raw.slice(0, 32));
+        int idx = raw.getInt(32);
+        if (idx < 0) throw new IllegalArgumentException("Negative output index " + idx);
+        byte[] pubkeyBytes = raw.slice(36, 33).toArray();
         byte[] signature;
-        if(raw.length > MIN_SIZE){
-            signature = new byte[raw.length - MIN_SIZE];
-            System.arraycopy(raw, 69, signature, 0, raw.length - MIN_SIZE);
+        if (raw.size() > MIN_SIZE) {
+            signature = raw.slice(MIN_SIZE).toArray();
         } else {
             signature = new byte[0];
         }
@@ -8,6 +8,8 @@ import java.util.Arrays;
 import java.util.Objects;
 
 public class TransactionOutput {
+    public static final int SIZE = 1 + 32 + 8;
+
     private final byte type = 0;
     private final Bytes32 targetHash;
     private final long amount;
@@ -20,10 +22,9 @@ public class TransactionOutput {
 
     public static TransactionOutput fromBytes(Bytes raw) {
         assert raw.get(0) == 0;
-        Bytes32 targetHash = Bytes32.secure(raw.toArray(), 1);
-        byte[] rawAmount = new byte[8];
-        System.arraycopy(raw.toArray(), 33, rawAmount, 0, 8);
-        return new TransactionOutput(targetHash, ByteBuffer.wrap(rawAmount).getLong());
+        // a view over the source buffer, getTargetHash() hands out copies anyway
+        Bytes32 targetHash = Bytes32.wrap(raw.slice(1, 32));
+        return new TransactionOutput(targetHash, raw.getLong(33));
     }
 
     public byte getType() {
@@ -51,11 +52,11 @@ public class TransactionOutput {
     }
 
     public Bytes asBytes() {
-        byte[] result = new byte[41];
+        byte[] result = new byte[SIZE];
         // skip a zero byte for the type, which is 0 here
         System.arraycopy(this.targetHash.toArray(), 0, result, 1, 32);
         byte[] ambytes = ByteBuffer.allocate(8).putLong(this.amount).array();
-        System.arraycopy(ambytes, 0, result, 41 - ambytes.length, ambytes.length);
+        System.arraycopy(ambytes, 0, result, SIZE - ambytes.length, ambytes.length);
         return Bytes.wrap(result);
     }
 }
@@ -0,0 +1,88 @@
+package org.blockchain.p2p;
+
+import org.apache.tuweni.bytes.Bytes;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// Peers in one process, for tests and simulations. Payloads are copied on the way, as a wire would, and each
+// transport handles its messages on a virtual thread of its own, so nodes run concurrently as they would apart
+public class LoopbackTransport implements PeerTransport {
+    // type and length, what a framed connection would add
+    static final int MESSAGE_OVERHEAD = 1 + 4;
+
+    private final String id;
+    private final Map<String, LoopbackTransport> peers;
+    private final ExecutorService inbox;
+    private final AtomicLong bytesSent;
+    private volatile Handler handler;
+    private Logger logger = Logger.getLogger(LoopbackTransport.class.getName());
+
+    public LoopbackTransport(String id) {
+        this.id = id;
+        this.peers = new ConcurrentHashMap<>();
+        this.inbox = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("p2p-" + id).factory());
+        this.bytesSent = new AtomicLong();
+    }
+
+    public static void connect(LoopbackTransport a, LoopbackTransport b) {
+        a.peers.put(b.id, b);
+        b.peers.put(a.id, a);
+    }
+
+    @Override
+    public String getId() {
+        return this.id;
+    }
+
+    @Override
+    public List<String> getPeers() {
+        return List.copyOf(this.peers.keySet());
+    }
+
+    @Override
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    public long getBytesSent() {
+        return this.bytesSent.get();
+    }
+
+    @Override
+    public void send(String peer, Message message) {
+        LoopbackTransport target = this.peers.get(peer);
+        if (target == null) throw new IllegalArgumentException("Unknown peer " + peer);
+        this.bytesSent.addAndGet(MESSAGE_OVERHEAD + message.payload().size());
+        target.deliver(this.id, new Message(message.type(), Bytes.wrap(message.payload().toArray())));
+    }
+
+    private void deliver(String from, Message message) {
+        try {
+            this.inbox.execute(() -> {
+                Handler handler = this.handler;
+                if (handler == null) return;
+                try {
+                    handler.onMessage(from, message);
+                } catch (RuntimeException e) {
+                    this.logger.warning("Message " + message.type() + " from " + from + " failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed, a dropped connection loses what was in flight as well
+        }
+    }
+
+    @Override
+    public void close() {
+        for (LoopbackTransport peer : this.peers.values()) peer.peers.remove(this.id);
+        this.peers.clear();
+        this.inbox.shutdown();
+    }
+}
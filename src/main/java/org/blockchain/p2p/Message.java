@@ -0,0 +1,18 @@
+package org.blockchain.p2p;
+
+import org.apache.tuweni.bytes.Bytes;
+
+// what peers exchange; transports carry the type and payload as they are
+public record Message(byte type, Bytes payload) {
+    // a transaction for the mempool
+    public static final byte TX = 1;
+    // a full block, the fallback when a compact one can't be rebuilt
+    public static final byte BLOCK = 2;
+    public static final byte COMPACT_BLOCK = 3;
+    // [block hash][count] then an index per transaction wanted, as varints
+    public static final byte GET_BLOCK_TXS = 4;
+    // [block hash][count] then per transaction [length][tx], in the order they were asked for
+    public static final byte BLOCK_TXS = 5;
+    // [block hash]
+    public static final byte GET_BLOCK = 6;
+}
@@ -0,0 +1,289 @@
+package org.blockchain.p2p;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.consensus.Engine;
+import org.blockchain.consensus.TransactionRejectedException;
+import org.blockchain.model.Block;
+import org.blockchain.model.CompactBlock;
+import org.blockchain.model.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static org.blockchain.model.BlockCodec.*;
+
+// Relays transactions and blocks between an engine and its peers. Blocks go out compact: peers rebuild them
+// from their mempools and ask the sender for the transactions they miss, then for the full block if what they
+// rebuilt doesn't hash right. Only transactions and blocks the engine accepted are passed on
+public class Node implements PeerTransport.Handler, AutoCloseable {
+    public static final Duration DEFAULT_PARTIAL_TIMEOUT = Duration.ofSeconds(5);
+    public static final Duration EXPIRY_INTERVAL = Duration.ofMillis(250);
+    public static final int MAX_PARTIALS = 64;
+
+    // a compact block waiting for the transactions asked of peer, along with whoever else announced it meanwhile
+    private record Partial(CompactBlock compact, Transaction[] txs, String peer, long deadline, Set<String> announcers) {
+    }
+
+    private final Engine engine;
+    private final PeerTransport transport;
+    private final Map<Bytes32, Partial> partials;
+    private final SecureRandom random;
+    private final AtomicLong blocksReconstructed;
+    private final AtomicLong transactionsFetched;
+    private final AtomicLong fullBlocksFetched;
+    private final ScheduledExecutorService expiry;
+    private volatile Duration partialTimeout;
+    private Logger logger = Logger.getLogger(Node.class.getName());
+
+    public Node(Engine engine, PeerTransport transport) {
+        this.engine = engine;
+        this.transport = transport;
+        this.partials = new ConcurrentHashMap<>();
+        this.random = new SecureRandom();
+        this.blocksReconstructed = new AtomicLong();
+        this.transactionsFetched = new AtomicLong();
+        this.fullBlocksFetched = new AtomicLong();
+        this.partialTimeout = DEFAULT_PARTIAL_TIMEOUT;
+        // a quiet network delivers no messages to notice a stalled partial by, so expiry runs on a clock as well
+        this.expiry = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "node-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = EXPIRY_INTERVAL.toMillis();
+        this.expiry.scheduleWithFixedDelay(this::expireQuietly, millis, millis, TimeUnit.MILLISECONDS);
+        transport.setHandler(this);
+    }
+
+    public long getBlocksReconstructed() {
+        return this.blocksReconstructed.get();
+    }
+
+    public long getTransactionsFetched() {
+        return this.transactionsFetched.get();
+    }
+
+    public long getFullBlocksFetched() {
+        return this.fullBlocksFetched.get();
+    }
+
+    public void setPartialTimeout(Duration partialTimeout) {
+        this.partialTimeout = partialTimeout;
+    }
+
+    public void broadcastTransaction(Transaction tx) throws TransactionRejectedException {
+        this.engine.submitTransaction(tx);
+        this.relay(Message.TX, tx.asBytes(), null);
+    }
+
+    // for blocks committed here, by advance or a BlockProducer
+    public void announceBlock(Block block) throws IOException {
+        this.relayBlock(block, null);
+    }
+
+    @Override
+    public void onMessage(String peer, Message message) {
+        this.expirePartials();
+        try {
+            switch (message.type()) {
+                case Message.TX -> this.onTransaction(peer, message.payload());
+                case Message.BLOCK -> this.onBlock(peer, Block.fromBytes(message.payload()));
+                case Message.COMPACT_BLOCK -> this.onCompactBlock(peer, CompactBlock.fromBytes(message.payload()));
+                case Message.GET_BLOCK_TXS -> this.onGetBlockTransactions(peer, message.payload());
+                case Message.BLOCK_TXS -> this.onBlockTransactions(peer, message.payload());
+                case Message.GET_BLOCK -> this.onGetBlock(peer, message.payload());
+                default -> this.logger.fine("Unknown message type " + message.type() + " from " + peer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void onTransaction(String peer, Bytes raw) {
+        Engine.SubmitResult result = this.engine.submitTransactions(List.of(Transaction.fromBytes(raw))).getFirst();
+        // rejections include transactions seen before, which is what stops the flood
+        if (result.isAccepted()) this.relay(Message.TX, raw, peer);
+    }
+
+    private void onBlock(String peer, Block block) throws IOException {
+        if (this.engine.getRawBlock(block.getHash()) != null) return;
+        this.accept(peer, block);
+    }
+
+    private void onCompactBlock(String peer, CompactBlock compact) throws IOException {
+        Bytes32 hash = compact.getBlockHash();
+        if (this.engine.getRawBlock(hash) != null) return;
+        Partial pending = this.partials.get(hash);
+        if (pending != null) {
+            if (!pending.peer().equals(peer)) pending.announcers().add(peer);
+            return;
+        }
+        if (this.partials.size() >= MAX_PARTIALS) {
+            // no room to wait on another peer's answer, so no partial state: the whole block at once
+            this.fetchBlock(peer, hash);
+            return;
+        }
+        Transaction[] txs = compact.match(this.engine.getMempoolTransactions());
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < txs.length; i++) {
+            if (txs[i] == null) missing.add(i);
+        }
+        if (missing.isEmpty()) {
+            this.complete(peer, compact, txs);
+            return;
+        }
+        long deadline = System.nanoTime() + this.partialTimeout.toNanos();
+        this.partials.put(hash, new Partial(compact, txs, peer, deadline, ConcurrentHashMap.newKeySet()));
+        this.transactionsFetched.addAndGet(missing.size());
+        ByteBuffer request = ByteBuffer.allocate(32 + MAX_VARINT_SIZE * (1 + missing.size()));
+        hash.appendTo(request);
+        writeVarInt(request, missing.size());
+        for (int index : missing) writeVarInt(request, index);
+        this.transport.send(peer, new Message(Message.GET_BLOCK_TXS, Bytes.wrap(request.array(), 0, request.position())));
+    }
+
+    private void onGetBlockTransactions(String peer, Bytes payload) {
+        Bytes raw = this.engine.getRawBlock(Bytes32.wrap(payload.slice(0, 32)));
+        if (raw == null) return;
+        List<Transaction> txs = Block.fromBytes(raw).getTxs();
+        ByteBuffer in = ByteBuffer.wrap(payload.toArrayUnsafe(), 32, payload.size() - 32);
+        long count = readVarInt(in);
+        if (count > txs.size()) return;
+        List<Bytes> parts = new ArrayList<>();
+        parts.add(payload.slice(0, 32));
+        ByteBuffer header = ByteBuffer.allocate(MAX_VARINT_SIZE);
+        writeVarInt(header, count);
+        parts.add(Bytes.wrap(header.array(), 0, header.position()));
+        for (long i = 0; i < count; i++) {
+            long index = readVarInt(in);
+            if (index < 0 || index >= txs.size()) return;
+            Bytes tx = txs.get((int) index).asBytes();
+            ByteBuffer length = ByteBuffer.allocate(MAX_VARINT_SIZE);
+            writeVarInt(length, tx.size());
+            parts.add(Bytes.wrap(length.array(), 0, length.position()));
+            parts.add(tx);
+        }
+        this.transport.send(peer, new Message(Message.BLOCK_TXS, Bytes.concatenate(parts.toArray(new Bytes[0]))));
+    }
+
+    private void onBlockTransactions(String peer, Bytes payload) throws IOException {
+        Bytes32 hash = Bytes32.wrap(payload.slice(0, 32));
+        Partial partial = this.partials.get(hash);
+        if (partial == null || !partial.peer().equals(peer) || !this.partials.remove(hash, partial)) return;
+        byte[] array = payload.toArrayUnsafe();
+        ByteBuffer in = ByteBuffer.wrap(array, 32, array.length - 32);
+        Transaction[] txs = partial.txs();
+        long count;
+        int filled = 0;
+        try {
+            count = readVarInt(in);
+            for (int i = 0; i < txs.length && filled < count; i++) {
+                if (txs[i] != null) continue;
+                long length = readVarInt(in);
+                // lengths of 2^63 and up read back negative
+                if (length < 0 || length > in.remaining()) break;
+                txs[i] = Transaction.fromBytes(Bytes.wrap(array, in.position(), (int) length));
+                // decoding is lazy, forced here so a garbled transaction fails inside the try
+                txs[i].getInputList();
+                in.position(in.position() + (int) length);
+                filled++;
+            }
+        } catch (RuntimeException e) {
+            // the partial is gone already, a garbled answer must not leave the block unfetched
+            this.logger.info("Malformed transactions from " + peer + " for block " + hash + ": " + e.getMessage());
+            this.fetchBlock(peer, hash);
+            return;
+        }
+        if (filled != count || in.hasRemaining() || List.of(txs).contains(null)) {
+            this.fetchBlock(peer, hash);
+            return;
+        }
+        this.complete(peer, partial.compact(), txs);
+    }
+
+    // a peer that never answers must not hold the block up: its partial is dropped and the whole block asked of
+    // another peer that announced it, if any. Otherwise the next announcement starts over
+    void expirePartials() {
+        long now = System.nanoTime();
+        for (Partial partial : this.partials.values()) {
+            if (now - partial.deadline() < 0) continue;
+            Bytes32 hash = partial.compact().getBlockHash();
+            if (!this.partials.remove(hash, partial)) continue;
+            this.logger.info("No transactions from " + partial.peer() + " for block " + hash);
+            for (String other : partial.announcers()) {
+                if (!this.transport.getPeers().contains(other)) continue;
+                this.fetchBlock(other, hash);
+                break;
+            }
+        }
+    }
+
+    private void expireQuietly() {
+        try {
+            this.expirePartials();
+        } catch (RuntimeException e) {
+            // a throwing task would cancel the schedule, a peer may have dropped meanwhile
+            this.logger.warning("Partial expiry failed: " + e.getMessage());
+        }
+    }
+
+    private void onGetBlock(String peer, Bytes payload) {
+        Bytes raw = this.engine.getRawBlock(Bytes32.wrap(payload));
+        if (raw != null) this.transport.send(peer, new Message(Message.BLOCK, raw));
+    }
+
+    private void complete(String peer, CompactBlock compact, Transaction[] txs) throws IOException {
+        Block block = compact.toBlock(txs);
+        // a mempool transaction sharing a short id with one of the block's rebuilds a different block
+        if (!block.getHash().equals(compact.getBlockHash())) {
+            this.fetchBlock(peer, compact.getBlockHash());
+            return;
+        }
+        this.blocksReconstructed.incrementAndGet();
+        this.accept(peer, block);
+    }
+
+    private void fetchBlock(String peer, Bytes32 hash) {
+        this.fullBlocksFetched.incrementAndGet();
+        this.transport.send(peer, new Message(Message.GET_BLOCK, hash));
+    }
+
+    private void accept(String peer, Block block) throws IOException {
+        try {
+            this.engine.submitBlock(block);
+        } catch (IllegalArgumentException e) {
+            this.logger.info("Rejected block from " + peer + ": " + e.getMessage());
+            return;
+        }
+        this.relayBlock(block, peer);
+    }
+
+    private void relayBlock(Block block, String except) throws IOException {
+        this.relay(Message.COMPACT_BLOCK, CompactBlock.of(block, this.random.nextLong()).asBytes(), except);
+    }
+
+    private void relay(byte type, Bytes payload, String except) {
+        for (String peer : this.transport.getPeers()) {
+            if (!peer.equals(except)) this.transport.send(peer, new Message(type, payload));
+        }
+    }
+
+    // the transport belongs to the caller and stays open
+    @Override
+    public void close() {
+        this.expiry.shutdownNow();
+    }
+}
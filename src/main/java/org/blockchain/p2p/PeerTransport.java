@@ -0,0 +1,23 @@
+package org.blockchain.p2p;
+
+import java.util.List;
+
+// Moves messages between this node and its peers. Messages to one peer arrive in the order they were sent;
+// the handler is called on the transport's own thread, one message at a time
+public interface PeerTransport extends AutoCloseable {
+    interface Handler {
+        void onMessage(String peer, Message message);
+    }
+
+    String getId();
+
+    List<String> getPeers();
+
+    void setHandler(Handler handler);
+
+    // doesn't wait for the peer to handle it. Unknown peers throw IllegalArgumentException
+    void send(String peer, Message message);
+
+    @Override
+    void close();
+}
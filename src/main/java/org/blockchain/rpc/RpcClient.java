@@ -0,0 +1,129 @@
+package org.blockchain.rpc;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.blockchain.rpc.RpcProtocol.*;
+
+// Blocking client. send and receive may run on different threads, which is how a caller keeps
+// several batches in flight on one connection
+public class RpcClient implements AutoCloseable {
+    public record Tip(Bytes32 hash, long height) {
+    }
+
+    private final ReadableByteChannel in;
+    private final GatheringByteChannel out;
+    private final Object sendLock = new Object();
+    private final Object receiveLock = new Object();
+    private int nextId;
+    private int expectedId;
+
+    RpcClient(ReadableByteChannel in, GatheringByteChannel out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    public static RpcClient connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return new RpcClient(channel, channel);
+    }
+
+    // an in-process connection over a pair of pipes, served on a virtual thread like a socket would be
+    public static RpcClient loopback(RpcServer server) throws IOException {
+        Pipe requests = Pipe.open();
+        Pipe responses = Pipe.open();
+        Thread.ofVirtual().name("rpc-loopback").start(() -> server.serve(requests.source(), responses.sink()));
+        return new RpcClient(responses.source(), requests.sink());
+    }
+
+    // returns the batch id without waiting for the answer
+    public int send(List<Request> batch) throws IOException {
+        List<Call> calls = new ArrayList<>(batch.size());
+        for (Request request : batch) calls.add(new Call(request.method(), request.argument()));
+        synchronized (this.sendLock) {
+            int id = this.nextId++;
+            writeFrame(this.out, id, calls);
+            return id;
+        }
+    }
+
+    // the answer to the oldest batch still in flight
+    public List<Response> receive() throws IOException {
+        synchronized (this.receiveLock) {
+            Frame frame = readFrame(this.in);
+            if (frame == null) throw new IOException("Connection closed");
+            if (frame.id() != this.expectedId++) throw new IOException("Unexpected response " + frame.id());
+            List<Response> responses = new ArrayList<>(frame.calls().size());
+            for (Call call : frame.calls()) responses.add(new Response(call.code(), call.payload()));
+            return responses;
+        }
+    }
+
+    public List<Response> call(List<Request> batch) throws IOException {
+        synchronized (this.receiveLock) {
+            this.send(batch);
+            return this.receive();
+        }
+    }
+
+    public Response call(byte method, Bytes argument) throws IOException {
+        return this.call(List.of(new Request(method, argument))).getFirst();
+    }
+
+    public Bytes32 submitTransaction(Transaction tx) throws Exception {
+        Response response = this.call(SUBMIT_TRANSACTION, tx.asBytes());
+        if (!response.isOk()) throw new Exception(new String(response.body().toArrayUnsafe()));
+        return Bytes32.wrap(response.body());
+    }
+
+    public Block getBlock(Bytes32 hash) throws IOException {
+        Bytes raw = this.lookup(GET_BLOCK, hash);
+        return raw != null ? Block.fromBytes(raw) : null;
+    }
+
+    public Transaction getTransaction(Bytes32 hash) throws IOException {
+        Bytes raw = this.lookup(GET_TX, hash);
+        return raw != null ? Transaction.fromBytes(raw) : null;
+    }
+
+    public TransactionOutput getUtxo(Bytes32 txHash, int index) throws IOException {
+        Bytes raw = this.lookup(GET_UTXO, Bytes.concatenate(txHash, Bytes.ofUnsignedInt(index)));
+        return raw != null ? TransactionOutput.fromBytes(raw) : null;
+    }
+
+    public long getBalance(Bytes32 owner) throws IOException {
+        return this.lookup(GET_BALANCE, owner).getLong(0);
+    }
+
+    public Tip getTip() throws IOException {
+        Bytes raw = this.lookup(GET_TIP, Bytes.EMPTY);
+        return raw != null ? new Tip(Bytes32.wrap(raw.slice(0, 32)), raw.getLong(32)) : null;
+    }
+
+    private Bytes lookup(byte method, Bytes argument) throws IOException {
+        Response response = this.call(method, argument);
+        if (response.status() == NOT_FOUND) return null;
+        if (!response.isOk()) throw new IOException("RPC failed with status " + response.status());
+        return response.body();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+        this.in.close();
+    }
+}
@@ -0,0 +1,107 @@
+package org.blockchain.rpc;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.blockchain.Parameters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Length prefixed binary frames. Every frame is a batch, answered by exactly one frame with the same id:
+//   request  [length:4][id:4][count:2] then per call [method:1][length:4][argument]
+//   response [length:4][id:4][count:2] then per call [status:1][length:4][body]
+// A connection may have any number of frames in flight, they are answered in order
+public class RpcProtocol {
+    public static final byte SUBMIT_TRANSACTION = 1;
+    public static final byte GET_BLOCK = 2;
+    public static final byte GET_TX = 3;
+    public static final byte GET_UTXO = 4;
+    public static final byte GET_BALANCE = 5;
+    public static final byte GET_TIP = 6;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte ERROR = 2;
+    public static final byte BAD_REQUEST = 3;
+
+    public static final int MAX_BATCH_SIZE = 1024;
+    // room for a batch of full blocks
+    public static final long MAX_FRAME_SIZE = 16 * Parameters.MAX_BLOCK_SIZE_BYTES;
+    private static final int FRAME_HEADER_SIZE = 4 + 2;
+    private static final int CALL_HEADER_SIZE = 1 + 4;
+
+    public record Request(byte method, Bytes argument) {
+    }
+
+    public record Response(byte status, Bytes body) {
+        public boolean isOk() {
+            return this.status == OK;
+        }
+    }
+
+    // the same layout both ways, the first byte being a method or a status
+    record Frame(int id, List<Call> calls) {
+    }
+
+    record Call(byte code, Bytes payload) {
+    }
+
+    // null once the peer closed the connection between frames
+    static Frame readFrame(ReadableByteChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        if (!readFully(channel, length, true)) return null;
+        int size = length.flip().getInt();
+        if (size < FRAME_HEADER_SIZE || size > MAX_FRAME_SIZE) throw new IOException("Bad frame length " + size);
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        readFully(channel, payload, false);
+        payload.flip();
+        int id = payload.getInt();
+        int count = payload.getShort() & 0xffff;
+        if (count > MAX_BATCH_SIZE) throw new IOException("Batch too large");
+        List<Call> calls = new ArrayList<>(count);
+        // arguments and bodies are views into the frame, nothing is copied out
+        Bytes frame = Bytes.wrap(payload.array());
+        for (int i = 0; i < count; i++) {
+            if (payload.remaining() < CALL_HEADER_SIZE) throw new IOException("Truncated frame");
+            byte code = payload.get();
+            int callLength = payload.getInt();
+            if (callLength < 0 || callLength > payload.remaining()) throw new IOException("Truncated frame");
+            calls.add(new Call(code, frame.slice(payload.position(), callLength)));
+            payload.position(payload.position() + callLength);
+        }
+        return new Frame(id, calls);
+    }
+
+    // one gathering write: each payload goes out as the buffer it already is
+    static void writeFrame(GatheringByteChannel channel, int id, List<Call> calls) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[1 + 2 * calls.size()];
+        long size = FRAME_HEADER_SIZE;
+        for (int i = 0; i < calls.size(); i++) {
+            Call call = calls.get(i);
+            Bytes payload = call.payload() != null ? call.payload() : Bytes.EMPTY;
+            buffers[1 + 2 * i] = ByteBuffer.allocate(CALL_HEADER_SIZE).put(call.code()).putInt(payload.size()).flip();
+            buffers[2 + 2 * i] = ByteBuffer.wrap(payload.toArrayUnsafe());
+            size += CALL_HEADER_SIZE + payload.size();
+        }
+        if (size > MAX_FRAME_SIZE) throw new IOException("Frame too large");
+        buffers[0] = ByteBuffer.allocate(4 + FRAME_HEADER_SIZE).putInt((int) size).putInt(id)
+                .putShort((short) calls.size()).flip();
+        long remaining = 4 + size;
+        while (remaining > 0) remaining -= channel.write(buffers);
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer, boolean eofAllowed)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (eofAllowed && buffer.position() == 0) return false;
+                throw new EOFException("Connection closed mid frame");
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,153 @@
+package org.blockchain.rpc;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.consensus.Engine;
+import org.blockchain.model.Transaction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static org.blockchain.rpc.RpcProtocol.*;
+
+// Local RPC over blocking NIO channels with a virtual thread per connection, so an idle client costs no
+// platform thread. Reads answer with the stored encodings as they are
+public class RpcServer implements AutoCloseable {
+    private static final Bytes TOO_LARGE = Bytes.wrap("Response too large".getBytes());
+
+    private final Engine engine;
+    private final Set<Closeable> connections;
+    private ServerSocketChannel server;
+    private Logger logger = Logger.getLogger(RpcServer.class.getName());
+
+    public RpcServer(Engine engine) {
+        this.engine = engine;
+        this.connections = ConcurrentHashMap.newKeySet();
+    }
+
+    // port 0 picks a free port, the bound address is returned
+    public InetSocketAddress bind(InetSocketAddress address) throws IOException {
+        this.server = ServerSocketChannel.open().bind(address);
+        Thread.ofVirtual().name("rpc-accept").start(this::acceptLoop);
+        return (InetSocketAddress) this.server.getLocalAddress();
+    }
+
+    private void acceptLoop() {
+        while (this.server.isOpen()) {
+            try {
+                SocketChannel channel = this.server.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Thread.ofVirtual().name("rpc-connection").start(() -> this.serve(channel, channel));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                this.logger.warning("Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // serves one connection until the peer hangs up. Frames are handled one at a time, so pipelined frames
+    // are answered in the order they were sent
+    public void serve(ReadableByteChannel in, GatheringByteChannel out) {
+        this.connections.add(in);
+        this.connections.add(out);
+        try {
+            for (Frame frame = readFrame(in); frame != null; frame = readFrame(in)) {
+                writeFrame(out, frame.id(), this.handle(frame.calls()));
+            }
+        } catch (IOException e) {
+            this.logger.fine("RPC connection dropped: " + e.getMessage());
+        } finally {
+            this.closeQuietly(in);
+            this.closeQuietly(out);
+        }
+    }
+
+    List<Call> handle(List<Call> calls) {
+        return this.handle(calls, MAX_FRAME_SIZE - 16);
+    }
+
+    // only a response that would overflow the frame is replaced with an error, the rest of the batch stands.
+    // Room for that error is kept for every call not answered yet, so the errors always fit
+    List<Call> handle(List<Call> calls, long limit) {
+        List<Call> responses = new ArrayList<>(calls.size());
+        long reserved = (long) calls.size() * (5 + TOO_LARGE.size());
+        long size = 0;
+        for (Call call : calls) {
+            Call response = this.call(call);
+            reserved -= 5 + TOO_LARGE.size();
+            if (size + 5 + response.payload().size() + reserved > limit) response = new Call(ERROR, TOO_LARGE);
+            size += 5 + response.payload().size();
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    private Call call(Call request) {
+        Bytes argument = request.payload();
+        try {
+            return switch (request.code()) {
+                case SUBMIT_TRANSACTION -> {
+                    // the argument is a view into the whole request frame, the mempool keeps a copy of its own
+                    Transaction tx = Transaction.fromBytes(Bytes.wrap(argument.toArray()));
+                    this.engine.submitTransaction(tx);
+                    yield new Call(OK, tx.getTransactionHash());
+                }
+                case GET_BLOCK -> argument.size() != 32 ? badRequest()
+                        : found(this.engine.getRawBlock(Bytes32.wrap(argument)));
+                case GET_TX -> argument.size() != 32 ? badRequest()
+                        : found(this.engine.getRawTransaction(Bytes32.wrap(argument)));
+                case GET_UTXO -> argument.size() != 36 ? badRequest()
+                        : found(this.engine.getRawUtxo(Bytes32.wrap(argument.slice(0, 32)), argument.getInt(32)));
+                case GET_BALANCE -> argument.size() != 32 ? badRequest()
+                        : new Call(OK, Bytes.ofUnsignedLong(this.engine.getBalance(Bytes32.wrap(argument))));
+                case GET_TIP -> {
+                    // hash and height from one published state, a block may land between two separate reads
+                    Engine.ChainState state = this.engine.getChainState();
+                    yield state.tip() == null ? new Call(NOT_FOUND, Bytes.EMPTY)
+                            : new Call(OK, Bytes.concatenate(state.tip(), Bytes.ofUnsignedLong(state.height())));
+                }
+                default -> badRequest();
+            };
+        } catch (Exception e) {
+            // malformed transactions throw runtime exceptions while decoding, rejected ones a checked one
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            return new Call(ERROR, Bytes.wrap(message.getBytes()));
+        }
+    }
+
+    private static Call found(Bytes raw) {
+        return raw != null ? new Call(OK, raw) : new Call(NOT_FOUND, Bytes.EMPTY);
+    }
+
+    private static Call badRequest() {
+        return new Call(BAD_REQUEST, Bytes.EMPTY);
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        this.connections.remove(closeable);
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            this.logger.fine("Close failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.server != null) this.server.close();
+        for (Closeable connection : List.copyOf(this.connections)) this.closeQuietly(connection);
+    }
+}
@@ -0,0 +1,50 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// unspent outputs by owner: 'a' + target hash + outpoint -> amount, so one prefix scan lists an address
+public class AddressIndex {
+    public record Coin(Bytes32 txHash, int index, long amount) {
+    }
+
+    private static final byte PREFIX = 'a';
+
+    private final KVStore<Bytes> store;
+
+    public AddressIndex(KVStore<Bytes> store) {
+        this.store = store;
+    }
+
+    public void add(KVBatch batch, Bytes32 owner, Bytes outpoint, long amount) {
+        batch.put(this.store, key(owner, outpoint), Bytes.ofUnsignedLong(amount));
+    }
+
+    public void remove(KVBatch batch, Bytes32 owner, Bytes outpoint) {
+        batch.remove(this.store, key(owner, outpoint));
+    }
+
+    public List<Coin> getCoins(Bytes32 owner) {
+        Bytes prefix = Bytes.concatenate(Bytes.of(PREFIX), owner);
+        List<Coin> coins = new ArrayList<>();
+        for (Map.Entry<Bytes, Bytes> entry : this.store.entries(prefix).entrySet()) {
+            Bytes key = entry.getKey();
+            coins.add(new Coin(Bytes32.wrap(key.slice(33, 32)), key.getInt(65), entry.getValue().getLong(0)));
+        }
+        return coins;
+    }
+
+    public long getBalance(Bytes32 owner) {
+        long balance = 0;
+        for (Bytes amount : this.store.iter(Bytes.concatenate(Bytes.of(PREFIX), owner))) balance += amount.getLong(0);
+        return balance;
+    }
+
+    private static Bytes key(Bytes32 owner, Bytes outpoint) {
+        return Bytes.concatenate(Bytes.of(PREFIX), owner, outpoint);
+    }
+}
@@ -0,0 +1,221 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.Parameters;
+import org.blockchain.model.Block;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class BlockFileStore extends KVStore<Block> implements AutoCloseable {
+    public static final long DEFAULT_SEGMENT_SIZE = 128 * Parameters.MB;
+    // every record is [length:4][hash:32][block bytes]
+    private static final int RECORD_HEADER_SIZE = 4 + 32;
+
+    record Location(int segment, long offset, int length) {
+        Bytes asBytes() {
+            ByteBuffer buffer = ByteBuffer.allocate(16).putInt(this.segment).putLong(this.offset).putInt(this.length);
+            return Bytes.wrap(buffer.array());
+        }
+
+        static Location fromBytes(Bytes raw) {
+            return new Location(raw.getInt(0), raw.getLong(4), raw.getInt(12));
+        }
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final KVStore<Bytes> index;
+    private final List<FileChannel> segments;
+    private final List<MappedByteBuffer> mapped;
+    private long activeSize;
+
+    public BlockFileStore(Path directory) throws IOException {
+        this(directory, new MemoryTreeKVStore<>(Function.identity(), Function.identity()), DEFAULT_SEGMENT_SIZE);
+    }
+
+    public BlockFileStore(Path directory, KVStore<Bytes> index, long segmentSize) throws IOException {
+        super(Block::asBytes, Block::fromBytes);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.index = index;
+        this.segments = new ArrayList<>();
+        this.mapped = new ArrayList<>();
+        Files.createDirectories(directory);
+        boolean rebuild = index.iter(Bytes.of()).isEmpty();
+        for (int i = 0; Files.exists(this.segmentPath(i)); i++) {
+            this.segments.add(FileChannel.open(
+                    this.segmentPath(i), StandardOpenOption.READ, StandardOpenOption.WRITE));
+            this.mapped.add(null);
+        }
+        if (this.segments.isEmpty()) this.openSegment();
+        int last = this.segments.size() - 1;
+        // an empty index is rebuilt from every segment; otherwise only the active one may be ahead of it
+        for (int i = rebuild ? 0 : last; i <= last; i++) {
+            long end = this.scan(i);
+            if (i == last) {
+                // drop a record torn by a crash halfway through an append
+                this.segments.get(i).truncate(end);
+                this.activeSize = end;
+            }
+        }
+    }
+
+    @Override
+    public Block get(Bytes key) {
+        Bytes raw = this.getRaw(key);
+        return raw != null ? this.deSerializer.apply(raw) : null;
+    }
+
+    // a view straight into the mapped segment, nothing is copied
+    @Override
+    public Bytes getRaw(Bytes key) {
+        Bytes rawLocation = this.index.get(key);
+        if (rawLocation == null) return null;
+        Location location = Location.fromBytes(rawLocation);
+        return Bytes.wrapByteBuffer(this.map(location).slice((int) location.offset(), location.length()));
+    }
+
+    // lets the kernel copy a stored block to a peer socket or file
+    public boolean transferTo(Bytes32 hash, WritableByteChannel target) throws IOException {
+        Bytes rawLocation = this.index.get(hash);
+        if (rawLocation == null) return false;
+        Location location = Location.fromBytes(rawLocation);
+        FileChannel segment = this.segments.get(location.segment());
+        long position = location.offset();
+        long end = location.offset() + location.length();
+        while (position < end) position += segment.transferTo(position, end - position, target);
+        return true;
+    }
+
+    @Override
+    public List<Block> iter(Bytes prefix) {
+        return new ArrayList<>(this.entries(prefix).values());
+    }
+
+    @Override
+    public Map<Bytes, Block> entries(Bytes prefix) {
+        Map<Bytes, Block> results = new LinkedHashMap<>();
+        for (Map.Entry<Bytes, Bytes> entry : this.index.entries(prefix).entrySet()) {
+            Location location = Location.fromBytes(entry.getValue());
+            results.put(entry.getKey(), this.deSerializer.apply(Bytes.wrapByteBuffer(
+                    this.map(location).slice((int) location.offset(), location.length()))));
+        }
+        return results;
+    }
+
+    @Override
+    public boolean put(Bytes key, Block value) {
+        if (this.index.get(key) != null) return false;
+        KVBatch batch = new KVBatch().put(this, key, value);
+        batch.commit();
+        return true;
+    }
+
+    // blocks are never rewritten in place; removing only forgets where one was
+    @Override
+    public void remove(Bytes key) {
+        this.index.remove(key);
+    }
+
+    @Override
+    protected synchronized void writeBatch(List<KVBatch.Operation> operations) {
+        KVBatch indexBatch = new KVBatch();
+        try {
+            for (KVBatch.Operation operation : operations) {
+                if (operation.isRemove()) {
+                    indexBatch.remove(this.index, operation.key());
+                } else if (this.index.get(operation.key()) == null) {
+                    Location location = this.append(Bytes32.wrap(operation.key()), operation.value());
+                    indexBatch.put(this.index, operation.key(), location.asBytes());
+                }
+            }
+            // data first, so the index never points past what is on disk
+            this.segments.getLast().force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        indexBatch.commit();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel segment : this.segments) segment.close();
+    }
+
+    private Location append(Bytes32 hash, Bytes raw) throws IOException {
+        long recordSize = RECORD_HEADER_SIZE + raw.size();
+        if (this.activeSize > 0 && this.activeSize + recordSize > this.segmentSize) {
+            this.segments.getLast().force(false);
+            this.openSegment();
+        }
+        FileChannel active = this.segments.getLast();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).putInt(raw.size()).put(hash.toArrayUnsafe());
+        ByteBuffer[] record = {header.flip(), ByteBuffer.wrap(raw.toArrayUnsafe())};
+        active.position(this.activeSize);
+        while (record[1].hasRemaining()) active.write(record);
+        Location location = new Location(
+                this.segments.size() - 1, this.activeSize + RECORD_HEADER_SIZE, raw.size());
+        this.activeSize += recordSize;
+        return location;
+    }
+
+    private synchronized MappedByteBuffer map(Location location) {
+        int segment = location.segment();
+        MappedByteBuffer buffer = this.mapped.get(segment);
+        if (buffer == null || buffer.capacity() < location.offset() + location.length()) {
+            // the active segment grows, so its mapping is refreshed whenever a read goes past it
+            try {
+                FileChannel channel = this.segments.get(segment);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            this.mapped.set(segment, buffer);
+        }
+        return buffer;
+    }
+
+    // indexes every complete record of a segment and returns where the last one ends
+    private long scan(int segment) throws IOException {
+        FileChannel channel = this.segments.get(segment);
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        KVBatch batch = new KVBatch();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > size) break;
+            Bytes hash = Bytes.wrap(header.array(), 4, 32).copy();
+            batch.put(this.index, hash, new Location(segment, position + RECORD_HEADER_SIZE, length).asBytes());
+            position += RECORD_HEADER_SIZE + length;
+        }
+        batch.commit();
+        return position;
+    }
+
+    private void openSegment() throws IOException {
+        this.segments.add(FileChannel.open(this.segmentPath(this.segments.size()),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        this.mapped.add(null);
+        this.activeSize = 0;
+    }
+
+    private Path segmentPath(int segment) {
+        return this.directory.resolve(String.format("blk%05d.dat", segment));
+    }
+}
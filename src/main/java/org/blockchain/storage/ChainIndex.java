@@ -0,0 +1,144 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+
+// Every known block gets an entry, side branches included; height records and the tip follow the main chain
+public class ChainIndex {
+    // work is cumulative along the branch. Blocks carry no difficulty yet, so each one counts as a unit
+    public record Entry(long height, Bytes32 parent, long work) {
+        public Entry(long height, Bytes32 parent) {
+            this(height, parent, height + 1);
+        }
+
+        Bytes asBytes() {
+            return Bytes.concatenate(Bytes.ofUnsignedLong(this.height), this.parent, Bytes.ofUnsignedLong(this.work));
+        }
+
+        static Entry fromBytes(Bytes raw) {
+            // entries written before work was tracked are 40 bytes
+            if (raw.size() < 48) return new Entry(raw.getLong(0), Bytes32.wrap(raw.slice(8, 32)));
+            return new Entry(raw.getLong(0), Bytes32.wrap(raw.slice(8, 32)), raw.getLong(40));
+        }
+    }
+
+    private static final Bytes TIP_KEY = Bytes.of((byte) 't');
+    private static final byte HEIGHT_PREFIX = 'h';
+    private static final byte BLOCK_PREFIX = 'b';
+    private static final byte INVALID_PREFIX = 'x';
+
+    private final KVStore<Bytes> store;
+    private volatile Bytes32 tip;
+    private volatile long tipHeight;
+
+    public ChainIndex(KVStore<Bytes> store) {
+        this.store = store;
+        this.tipHeight = -1;
+        Bytes storedTip = store.get(TIP_KEY);
+        if (storedTip != null) {
+            this.tip = Bytes32.wrap(storedTip);
+            this.tipHeight = this.getEntry(this.tip).height();
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.tip == null;
+    }
+
+    public Bytes32 getTip() {
+        return this.tip;
+    }
+
+    public long getTipHeight() {
+        return this.tipHeight;
+    }
+
+    public long getTipWork() {
+        Bytes32 tip = this.tip;
+        return tip != null ? this.getEntry(tip).work() : 0;
+    }
+
+    public boolean isOnMainChain(Bytes32 hash) {
+        Entry entry = this.getEntry(hash);
+        return entry != null && hash.equals(this.getHashAtHeight(entry.height()));
+    }
+
+    public Entry getEntry(Bytes32 hash) {
+        Bytes raw = this.store.get(Bytes.concatenate(Bytes.of(BLOCK_PREFIX), hash));
+        return raw != null ? Entry.fromBytes(raw) : null;
+    }
+
+    public Bytes32 getHashAtHeight(long height) {
+        Bytes raw = this.store.get(heightKey(height));
+        return raw != null ? Bytes32.wrap(raw) : null;
+    }
+
+    // stages the tree entry for a block on any branch, without touching the main chain
+    public Entry add(KVBatch batch, Bytes32 hash, Bytes32 parent) {
+        Entry entry = new Entry(0, parent);
+        if (!parent.equals(Bytes32.ZERO)) {
+            Entry parentEntry = this.getEntry(parent);
+            if (parentEntry == null) throw new IllegalArgumentException("Unknown parent block " + parent);
+            entry = new Entry(parentEntry.height() + 1, parent, parentEntry.work() + 1);
+        }
+        batch.put(this.store, Bytes.concatenate(Bytes.of(BLOCK_PREFIX), hash), entry.asBytes());
+        return entry;
+    }
+
+    // stages the records for a block extending the current tip; the tip moves once the batch commits
+    public Entry connect(KVBatch batch, Bytes32 hash, Bytes32 parent) {
+        Entry entry = this.add(batch, hash, parent);
+        batch.put(this.store, heightKey(entry.height()), hash);
+        batch.put(this.store, TIP_KEY, hash);
+        batch.onCommit(() -> {
+            this.tip = hash;
+            this.tipHeight = entry.height();
+        });
+        return entry;
+    }
+
+    // the first block of a node bootstrapped from a snapshot: its ancestors are unknown here
+    public Entry setBase(KVBatch batch, Bytes32 hash, Bytes32 parent, long height) {
+        if (!this.isEmpty()) throw new IllegalStateException("The chain already has blocks");
+        Entry entry = new Entry(height, parent);
+        batch.put(this.store, Bytes.concatenate(Bytes.of(BLOCK_PREFIX), hash), entry.asBytes());
+        batch.put(this.store, heightKey(height), hash);
+        batch.put(this.store, TIP_KEY, hash);
+        batch.onCommit(() -> {
+            this.tip = hash;
+            this.tipHeight = height;
+        });
+        return entry;
+    }
+
+    // stages moving the tip from hash back to its parent; the entry stays, the block remains a known side branch
+    public void disconnect(KVBatch batch, Bytes32 hash) {
+        if (!hash.equals(this.tip)) throw new IllegalArgumentException("Only the tip can be disconnected");
+        Entry entry = this.getEntry(hash);
+        batch.remove(this.store, heightKey(entry.height()));
+        Bytes32 parent = entry.parent().equals(Bytes32.ZERO) ? null : entry.parent();
+        if (parent != null) {
+            batch.put(this.store, TIP_KEY, parent);
+        } else {
+            batch.remove(this.store, TIP_KEY);
+        }
+        batch.onCommit(() -> {
+            this.tip = parent;
+            this.tipHeight = entry.height() - 1;
+        });
+    }
+
+    // a block that failed to connect; the main chain never moves onto it or anything built on it
+    public void markInvalid(KVBatch batch, Bytes32 hash) {
+        batch.put(this.store, Bytes.concatenate(Bytes.of(INVALID_PREFIX), hash), Bytes.of(1));
+    }
+
+    public boolean isInvalid(Bytes32 hash) {
+        return this.store.get(Bytes.concatenate(Bytes.of(INVALID_PREFIX), hash)) != null;
+    }
+
+    private static Bytes heightKey(long height) {
+        // big endian, so entries sort by height
+        return Bytes.concatenate(Bytes.of(HEIGHT_PREFIX), Bytes.ofUnsignedLong(height));
+    }
+}
@@ -0,0 +1,29 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.model.BlockFilter;
+
+// block filters keyed by block hash rather than height, so a block's filter stays valid wherever it ends up
+public class FilterIndex {
+    private static final byte PREFIX = 'f';
+
+    private final KVStore<Bytes> store;
+
+    public FilterIndex(KVStore<Bytes> store) {
+        this.store = store;
+    }
+
+    public void put(KVBatch batch, Bytes32 blockHash, BlockFilter filter) {
+        batch.put(this.store, key(blockHash), filter.asBytes());
+    }
+
+    public BlockFilter get(Bytes32 blockHash) {
+        Bytes raw = this.store.get(key(blockHash));
+        return raw != null ? BlockFilter.fromBytes(blockHash, raw) : null;
+    }
+
+    private static Bytes key(Bytes32 blockHash) {
+        return Bytes.concatenate(Bytes.of(PREFIX), blockHash);
+    }
+}
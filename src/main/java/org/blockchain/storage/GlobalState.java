@@ -0,0 +1,189 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.ethereum.trie.MerkleTrie;
+import org.hyperledger.besu.ethereum.trie.Node;
+import org.hyperledger.besu.ethereum.trie.NodeVisitor;
+import org.hyperledger.besu.ethereum.trie.NullNode;
+import org.hyperledger.besu.ethereum.trie.patricia.BranchNode;
+import org.hyperledger.besu.ethereum.trie.patricia.ExtensionNode;
+import org.hyperledger.besu.ethereum.trie.patricia.LeafNode;
+import org.hyperledger.besu.ethereum.trie.patricia.StoredMerklePatriciaTrie;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// a patricia trie whose nodes live in a KVStore under 'n' + node hash. Nodes are content addressed,
+// so every root ever committed stays readable and a new root only rehashes the paths it touched
+public class GlobalState {
+    public static final Bytes32 EMPTY_ROOT = MerkleTrie.EMPTY_TRIE_NODE_HASH;
+    public static final int DEFAULT_CACHE_SIZE = 1 << 18;
+    private static final byte NODE_PREFIX = 'n';
+
+    private final KVStore<Bytes> store;
+    private final Map<Bytes32, Bytes> nodes;
+    // staged but not written yet, so the next block can be built before this one lands. Never evicted. Kept per
+    // block: sibling blocks may stage the same nodes, or the same root, and each must keep them until it lands
+    private final Map<Bytes32, Map<Bytes32, Bytes>> pending;
+
+    public GlobalState(KVStore<Bytes> store) {
+        this(store, DEFAULT_CACHE_SIZE);
+    }
+
+    public GlobalState(KVStore<Bytes> store, int cacheSize) {
+        this.store = store;
+        this.pending = new ConcurrentHashMap<>();
+        this.nodes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Bytes32, Bytes> eldest) {
+                return this.size() > cacheSize;
+            }
+        };
+    }
+
+    public Optional<Bytes> get(Bytes32 root, Bytes key) {
+        return this.open(root).get(key);
+    }
+
+    // every key under root with its value, in key order. Nodes are never changed once written, so this is a
+    // consistent view of root however many blocks are applied meanwhile, and nothing is held but the current path
+    public void forEach(Bytes32 root, BiConsumer<Bytes, Bytes> consumer) {
+        this.open(root).acceptAtRoot(new InOrderVisitor(consumer));
+    }
+
+    public Update update(Bytes32 root) {
+        return new Update(this.open(root));
+    }
+
+    private StoredMerklePatriciaTrie<Bytes, Bytes> open(Bytes32 root) {
+        return new StoredMerklePatriciaTrie<>(
+                (location, hash) -> this.loadNode(hash), root, Function.identity(), Function.identity());
+    }
+
+    private Optional<Bytes> loadNode(Bytes32 hash) {
+        for (Map<Bytes32, Bytes> staged : this.pending.values()) {
+            Bytes node = staged.get(hash);
+            if (node != null) return Optional.of(node);
+        }
+        synchronized (this.nodes) {
+            Bytes cached = this.nodes.get(hash);
+            if (cached != null) return Optional.of(cached);
+        }
+        Bytes node = this.store.get(nodeKey(hash));
+        if (node == null) return Optional.empty();
+        synchronized (this.nodes) {
+            this.nodes.put(hash, node);
+        }
+        return Optional.of(node);
+    }
+
+    private static Bytes nodeKey(Bytes32 hash) {
+        return Bytes.concatenate(Bytes.of(NODE_PREFIX), hash);
+    }
+
+    // keys are nibble paths: the parts from the root down are stacked, leaves end theirs with a terminator nibble
+    private static class InOrderVisitor implements NodeVisitor<Bytes> {
+        private static final byte TERMINATOR = 16;
+        private final BiConsumer<Bytes, Bytes> consumer;
+        private final Deque<Bytes> path;
+
+        InOrderVisitor(BiConsumer<Bytes, Bytes> consumer) {
+            this.consumer = consumer;
+            this.path = new ArrayDeque<>();
+        }
+
+        @Override
+        public void visit(ExtensionNode<Bytes> node) {
+            this.path.addLast(node.getPath());
+            node.getChild().accept(this);
+            this.path.removeLast();
+        }
+
+        @Override
+        public void visit(BranchNode<Bytes> node) {
+            // a key ending here is a prefix of every key below, so it sorts first
+            node.getValue().ifPresent(value -> this.emit(Bytes.EMPTY, value));
+            List<Node<Bytes>> children = node.getChildren();
+            for (int i = 0; i < children.size(); i++) {
+                this.path.addLast(Bytes.of(i));
+                children.get(i).accept(this);
+                this.path.removeLast();
+            }
+        }
+
+        @Override
+        public void visit(LeafNode<Bytes> node) {
+            this.emit(node.getPath(), node.getValue().orElseThrow());
+        }
+
+        @Override
+        public void visit(NullNode<Bytes> node) {
+        }
+
+        private void emit(Bytes suffix, Bytes value) {
+            Bytes nibbles = Bytes.concatenate(Bytes.concatenate(this.path.toArray(new Bytes[0])), suffix);
+            int size = nibbles.size();
+            if (size > 0 && nibbles.get(size - 1) == TERMINATOR) size--;
+            byte[] key = new byte[size / 2];
+            for (int i = 0; i < key.length; i++) key[i] = (byte) (nibbles.get(2 * i) << 4 | nibbles.get(2 * i + 1));
+            this.consumer.accept(Bytes.wrap(key), value);
+        }
+    }
+
+    // changes on top of one root; nothing is written until commit stages the new nodes
+    public class Update {
+        private final StoredMerklePatriciaTrie<Bytes, Bytes> trie;
+        private Bytes32 blockHash;
+        private Map<Bytes32, Bytes> staged;
+
+        private Update(StoredMerklePatriciaTrie<Bytes, Bytes> trie) {
+            this.trie = trie;
+        }
+
+        public Optional<Bytes> get(Bytes key) {
+            return this.trie.get(key);
+        }
+
+        public void put(Bytes key, Bytes value) {
+            this.trie.put(key, value);
+        }
+
+        public void remove(Bytes key) {
+            this.trie.remove(key);
+        }
+
+        public Bytes32 getRootHash() {
+            return this.trie.getRootHash();
+        }
+
+        // blockHash is the block whose state this is, the staged nodes are served under it until the batch lands
+        public void commit(KVBatch batch, Bytes32 blockHash) {
+            Map<Bytes32, Bytes> staged = GlobalState.this.pending.computeIfAbsent(blockHash, k -> new ConcurrentHashMap<>());
+            this.trie.commit((location, hash, value) -> {
+                batch.put(GlobalState.this.store, nodeKey(hash), value);
+                // content addressed, so serving a node before the batch lands can't serve a wrong one
+                staged.put(hash, value);
+                synchronized (GlobalState.this.nodes) {
+                    GlobalState.this.nodes.put(hash, value);
+                }
+            });
+            this.blockHash = blockHash;
+            this.staged = staged;
+            batch.onCommit(() -> GlobalState.this.pending.remove(blockHash, staged));
+        }
+
+        // for a committed update whose batch will never be written. Nothing may be building on it
+        public void discard() {
+            if (this.staged != null) GlobalState.this.pending.remove(this.blockHash, this.staged);
+            this.staged = null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Puts and removes across stores, applied on commit. Atomic within a batch domain only: stores on different
+// backends are written one after the other
+public class KVBatch {
+    public record Operation(KVStore<?> store, Bytes key, Bytes value) {
+        public boolean isRemove() {
+            return this.value == null;
+        }
+    }
+
+    private final List<Operation> operations;
+    private final List<Runnable> commitHooks;
+
+    public KVBatch() {
+        this.operations = new ArrayList<>();
+        this.commitHooks = new ArrayList<>();
+    }
+
+    public <T> KVBatch put(KVStore<T> store, Bytes key, T value) {
+        // serialize now so nothing can fail halfway through commit
+        this.operations.add(new Operation(store, key, store.serializer.apply(value)));
+        return this;
+    }
+
+    public KVBatch remove(KVStore<?> store, Bytes key) {
+        this.operations.add(new Operation(store, key, null));
+        return this;
+    }
+
+    // for in-memory state that must only change once the batch is durable
+    public KVBatch onCommit(Runnable hook) {
+        this.commitHooks.add(hook);
+        return this;
+    }
+
+    public int size() {
+        return this.operations.size();
+    }
+
+    public void commit() {
+        // stores sharing a backend get all of their operations in a single atomic write
+        Map<Object, List<Operation>> byDomain = new LinkedHashMap<>();
+        for (Operation operation : this.operations) {
+            byDomain.computeIfAbsent(operation.store().getBatchDomain(), d -> new ArrayList<>()).add(operation);
+        }
+        for (List<Operation> operations : byDomain.values()) {
+            operations.getFirst().store().writeBatch(operations);
+        }
+        this.operations.clear();
+        for (Runnable hook : this.commitHooks) hook.run();
+        this.commitHooks.clear();
+    }
+}
@@ -2,6 +2,9 @@ package org.blockchain.storage;
 
 import org.apache.tuweni.bytes.Bytes;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 
 public abstract class KVStore<T> {
@@ -15,9 +18,32 @@ public abstract class KVStore<T> {
 
     public abstract T get(Bytes key);
 
+    // the stored encoding, for backends that can hand it out without a decode/encode round trip
+    public Bytes getRaw(Bytes key) {
+        T value = this.get(key);
+        return value != null ? this.serializer.apply(value) : null;
+    }
+
+    // one value per key, null where there is none. Backends that can read many keys at once override this
+    public List<T> getAll(List<Bytes> keys) {
+        List<T> values = new ArrayList<>(keys.size());
+        for (Bytes key : keys) values.add(this.get(key));
+        return values;
+    }
+
     public abstract Iterable<T> iter(Bytes prefix);
 
+    // like iter, keeping each value's key, in the store's iteration order
+    public abstract Map<Bytes, T> entries(Bytes prefix);
+
     public abstract boolean put(Bytes key, T value);
 
     public abstract void remove(Bytes key);
+
+    protected Object getBatchDomain() {
+        return this;
+    }
+
+    // applies operations for every store sharing this store's batch domain, in order
+    protected abstract void writeBatch(List<KVBatch.Operation> operations);
 }
@@ -3,26 +3,39 @@ package org.blockchain.storage;
 import org.apache.tuweni.bytes.Bytes;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.function.Function;
 
 public class MemoryTreeKVStore<T> extends KVStore<T> {
-    private final TreeMap<Bytes, Bytes> memory;
+    private static final Object DOMAIN = new Object();
+    // bytewise like RocksDB, so keys sharing a prefix sit together; Bytes.compareTo orders by numeric value
+    static final Comparator<Bytes> ORDER =
+            (a, b) -> Arrays.compareUnsigned(a.toArrayUnsafe(), b.toArrayUnsafe());
+    // readers may run alongside a writer; a batch lands key by key, callers publish their own view after it
+    private final ConcurrentSkipListMap<Bytes, Bytes> memory;
 
     public MemoryTreeKVStore(Function<T, Bytes> serializer, Function<Bytes, T> deSerializer) {
         super(serializer, deSerializer);
-        this.memory = new TreeMap<>();
+        this.memory = new ConcurrentSkipListMap<>(ORDER);
     }
 
     @Override
     public T get(Bytes key) {
         Bytes raw = this.memory.get(key);
-        if (raw != null) return this.deSerializer.apply(this.memory.get(key));
+        if (raw != null) return this.deSerializer.apply(raw);
         return null;
     }
 
+    @Override
+    public Bytes getRaw(Bytes key) {
+        return this.memory.get(key);
+    }
+
     @Override
     public void remove(Bytes key) {
         this.memory.remove(key);
@@ -30,11 +43,15 @@ public class MemoryTreeKVStore<T> extends KVStore<T> {
 
     @Override
     public List<T> iter(Bytes prefix) {
-        ArrayList<T> results = new ArrayList<>();
-        for (Map.Entry<Bytes, Bytes> entry : this.memory.tailMap(prefix).sequencedEntrySet()) {
-            if (entry.getKey().commonPrefixLength(prefix) >= prefix.size()) {
-                results.add(this.deSerializer.apply(entry.getValue()));
-            }
+        return new ArrayList<>(this.entries(prefix).values());
+    }
+
+    @Override
+    public Map<Bytes, T> entries(Bytes prefix) {
+        Map<Bytes, T> results = new LinkedHashMap<>();
+        for (Map.Entry<Bytes, Bytes> entry : this.memory.tailMap(prefix).entrySet()) {
+            if (entry.getKey().commonPrefixLength(prefix) < prefix.size()) break;
+            results.put(entry.getKey(), this.deSerializer.apply(entry.getValue()));
         }
         return results;
     }
@@ -44,4 +61,21 @@ public class MemoryTreeKVStore<T> extends KVStore<T> {
         Bytes valueBytes = this.serializer.apply(value);
         return this.memory.put(key, valueBytes) == null;
     }
+
+    @Override
+    protected Object getBatchDomain() {
+        return DOMAIN;
+    }
+
+    @Override
+    protected void writeBatch(List<KVBatch.Operation> operations) {
+        for (KVBatch.Operation operation : operations) {
+            MemoryTreeKVStore<?> store = (MemoryTreeKVStore<?>) operation.store();
+            if (operation.isRemove()) {
+                store.memory.remove(operation.key());
+            } else {
+                store.memory.put(operation.key(), operation.value());
+            }
+        }
+    }
 }
@@ -0,0 +1,273 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.crypto.SipHash;
+import org.blockchain.model.TransactionOutput;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// utxos in an open addressing table outside the heap: no objects per coin, so the gc never sees them.
+// Keys are the 36 byte outpoints from Engine.spentKey, values the 41 byte TransactionOutput encoding.
+// Linear probing, deletions shift the rest of the run back instead of leaving tombstones
+public class OffHeapUtxoSet extends KVStore<TransactionOutput> implements AutoCloseable {
+    public static final int KEY_SIZE = 36;
+    public static final int VALUE_SIZE = 41;
+    // key, a used flag, the value, padded to a multiple of 8
+    static final int SLOT_SIZE = 80;
+    private static final long USED_OFFSET = KEY_SIZE;
+    private static final long VALUE_OFFSET = KEY_SIZE + 1;
+    private static final long TARGET_OFFSET = VALUE_OFFSET + 1;
+    private static final long AMOUNT_OFFSET = TARGET_OFFSET + 32;
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final int MIN_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.75;
+
+    // probe positions are keyed per instance, so nobody can pick outpoints that pile up in one run
+    private final SipHash sipHash;
+    // the outpoint being hashed, only touched under the monitor
+    private final byte[] keyBuffer;
+    private final MemorySegment keySegment;
+    private Arena arena;
+    private MemorySegment slots;
+    private long capacity;
+    private long mask;
+    private long size;
+
+    public OffHeapUtxoSet() {
+        this(MIN_CAPACITY);
+    }
+
+    // sizing for the expected coin count up front avoids rehashing a large table while it grows
+    public OffHeapUtxoSet(long expectedSize) {
+        super(TransactionOutput::asBytes, TransactionOutput::fromBytes);
+        SecureRandom random = new SecureRandom();
+        this.sipHash = new SipHash(random.nextLong(), random.nextLong());
+        this.keyBuffer = new byte[KEY_SIZE];
+        this.keySegment = MemorySegment.ofArray(this.keyBuffer);
+        long capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize) capacity <<= 1;
+        this.allocate(capacity);
+    }
+
+    public synchronized long size() {
+        return this.size;
+    }
+
+    public synchronized long getCapacity() {
+        return this.capacity;
+    }
+
+    public synchronized boolean contains(Bytes32 txHash, int idx) {
+        return this.find(txHash.getLong(0), txHash.getLong(8), txHash.getLong(16), txHash.getLong(24), idx) >= 0;
+    }
+
+    // -1 when the outpoint is unknown, amounts are never negative
+    public synchronized long getAmount(Bytes32 txHash, int idx) {
+        long slot = this.find(txHash.getLong(0), txHash.getLong(8), txHash.getLong(16), txHash.getLong(24), idx);
+        return slot >= 0 ? this.slots.get(LONG, slot + AMOUNT_OFFSET) : -1;
+    }
+
+    public synchronized boolean isOwnedBy(Bytes32 txHash, int idx, Bytes32 targetHash) {
+        long slot = this.find(txHash.getLong(0), txHash.getLong(8), txHash.getLong(16), txHash.getLong(24), idx);
+        if (slot < 0) return false;
+        for (int i = 0; i < 32; i += 8) {
+            if (this.slots.get(LONG, slot + TARGET_OFFSET + i) != targetHash.getLong(i)) return false;
+        }
+        return true;
+    }
+
+    // copies the encoded output into value, which needs VALUE_SIZE bytes from offset
+    public synchronized boolean get(Bytes32 txHash, int idx, byte[] value, int offset) {
+        long slot = this.find(txHash.getLong(0), txHash.getLong(8), txHash.getLong(16), txHash.getLong(24), idx);
+        if (slot < 0) return false;
+        MemorySegment.copy(this.slots, ValueLayout.JAVA_BYTE, slot + VALUE_OFFSET, value, offset, VALUE_SIZE);
+        return true;
+    }
+
+    // returns false when the outpoint was already there, its output is replaced like a map put
+    public synchronized boolean add(Bytes32 txHash, int idx, Bytes32 targetHash, long amount) {
+        long slot = this.insert(txHash.getLong(0), txHash.getLong(8), txHash.getLong(16), txHash.getLong(24), idx);
+        boolean added = slot >= 0;
+        if (!added) slot = ~slot;
+        this.slots.set(ValueLayout.JAVA_BYTE, slot + VALUE_OFFSET, (byte) 0);
+        for (int i = 0; i < 32; i += 8) this.slots.set(LONG, slot + TARGET_OFFSET + i, targetHash.getLong(i));
+        this.slots.set(LONG, slot + AMOUNT_OFFSET, amount);
+        return added;
+    }
+
+    public synchronized boolean spend(Bytes32 txHash, int idx) {
+        long slot = this.find(txHash.getLong(0), txHash.getLong(8), txHash.getLong(16), txHash.getLong(24), idx);
+        if (slot < 0) return false;
+        this.delete(slot);
+        return true;
+    }
+
+    @Override
+    public synchronized TransactionOutput get(Bytes key) {
+        long slot = this.find(key.getLong(0), key.getLong(8), key.getLong(16), key.getLong(24), key.getInt(32));
+        if (slot < 0) return null;
+        byte[] value = new byte[VALUE_SIZE];
+        MemorySegment.copy(this.slots, ValueLayout.JAVA_BYTE, slot + VALUE_OFFSET, value, 0, VALUE_SIZE);
+        return this.deSerializer.apply(Bytes.wrap(value));
+    }
+
+    @Override
+    public List<TransactionOutput> iter(Bytes prefix) {
+        return new ArrayList<>(this.entries(prefix).values());
+    }
+
+    // a full scan, in table order
+    @Override
+    public synchronized Map<Bytes, TransactionOutput> entries(Bytes prefix) {
+        Map<Bytes, TransactionOutput> results = new LinkedHashMap<>();
+        for (long slot = 0; slot < this.capacity * SLOT_SIZE; slot += SLOT_SIZE) {
+            if (this.slots.get(ValueLayout.JAVA_BYTE, slot + USED_OFFSET) == 0) continue;
+            Bytes key = Bytes.wrap(this.slots.asSlice(slot, KEY_SIZE).toArray(ValueLayout.JAVA_BYTE));
+            if (key.commonPrefixLength(prefix) < prefix.size()) continue;
+            byte[] value = this.slots.asSlice(slot + VALUE_OFFSET, VALUE_SIZE).toArray(ValueLayout.JAVA_BYTE);
+            results.put(key, this.deSerializer.apply(Bytes.wrap(value)));
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized boolean put(Bytes key, TransactionOutput value) {
+        if (key.size() != KEY_SIZE) throw new IllegalArgumentException("Outpoints are " + KEY_SIZE + " bytes");
+        Bytes raw = this.serializer.apply(value);
+        long slot = this.insert(key.getLong(0), key.getLong(8), key.getLong(16), key.getLong(24), key.getInt(32));
+        boolean added = slot >= 0;
+        if (!added) slot = ~slot;
+        MemorySegment.copy(raw.toArrayUnsafe(), 0, this.slots, ValueLayout.JAVA_BYTE, slot + VALUE_OFFSET, VALUE_SIZE);
+        return added;
+    }
+
+    @Override
+    public synchronized void remove(Bytes key) {
+        long slot = this.find(key.getLong(0), key.getLong(8), key.getLong(16), key.getLong(24), key.getInt(32));
+        if (slot >= 0) this.delete(slot);
+    }
+
+    @Override
+    protected synchronized void writeBatch(List<KVBatch.Operation> operations) {
+        for (KVBatch.Operation operation : operations) {
+            if (operation.isRemove()) {
+                this.remove(operation.key());
+            } else {
+                this.put(operation.key(), this.deSerializer.apply(operation.value()));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        this.arena.close();
+    }
+
+    // over the whole outpoint, as it is laid out in a slot
+    private long hash(long k0, long k1, long k2, long k3, int idx) {
+        this.keySegment.set(LONG, 0, k0);
+        this.keySegment.set(LONG, 8, k1);
+        this.keySegment.set(LONG, 16, k2);
+        this.keySegment.set(LONG, 24, k3);
+        this.keySegment.set(INT, 32, idx);
+        return this.sipHash.hash(this.keyBuffer);
+    }
+
+    private long hashAt(MemorySegment segment, long slot) {
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, slot, this.keyBuffer, 0, KEY_SIZE);
+        return this.sipHash.hash(this.keyBuffer);
+    }
+
+    private boolean matches(long slot, long k0, long k1, long k2, long k3, int idx) {
+        return this.slots.get(LONG, slot) == k0 && this.slots.get(LONG, slot + 8) == k1
+                && this.slots.get(LONG, slot + 16) == k2 && this.slots.get(LONG, slot + 24) == k3
+                && this.slots.get(INT, slot + 32) == idx;
+    }
+
+    private boolean isUsed(long slot) {
+        return this.slots.get(ValueLayout.JAVA_BYTE, slot + USED_OFFSET) != 0;
+    }
+
+    // byte offset of the slot holding the key, or -1
+    private long find(long k0, long k1, long k2, long k3, int idx) {
+        for (long i = this.hash(k0, k1, k2, k3, idx) & this.mask; ; i = (i + 1) & this.mask) {
+            long slot = i * SLOT_SIZE;
+            if (!this.isUsed(slot)) return -1;
+            if (this.matches(slot, k0, k1, k2, k3, idx)) return slot;
+        }
+    }
+
+    // offset of a newly claimed slot, or the complement of the offset already holding the key
+    private long insert(long k0, long k1, long k2, long k3, int idx) {
+        if (this.size + 1 > this.capacity * MAX_LOAD) this.resize(this.capacity << 1);
+        for (long i = this.hash(k0, k1, k2, k3, idx) & this.mask; ; i = (i + 1) & this.mask) {
+            long slot = i * SLOT_SIZE;
+            if (!this.isUsed(slot)) {
+                this.slots.set(LONG, slot, k0);
+                this.slots.set(LONG, slot + 8, k1);
+                this.slots.set(LONG, slot + 16, k2);
+                this.slots.set(LONG, slot + 24, k3);
+                this.slots.set(INT, slot + 32, idx);
+                this.slots.set(ValueLayout.JAVA_BYTE, slot + USED_OFFSET, (byte) 1);
+                this.size++;
+                return slot;
+            }
+            if (this.matches(slot, k0, k1, k2, k3, idx)) return ~slot;
+        }
+    }
+
+    private void delete(long slot) {
+        long hole = slot / SLOT_SIZE;
+        // move later members of the probe run back, so lookups never stop early at the hole
+        for (long i = (hole + 1) & this.mask; ; i = (i + 1) & this.mask) {
+            long next = i * SLOT_SIZE;
+            if (!this.isUsed(next)) break;
+            long home = this.hashAt(this.slots, next) & this.mask;
+            // the entry can fill the hole unless its home lies cyclically in (hole, i]
+            if (((i - home) & this.mask) >= ((i - hole) & this.mask)) {
+                MemorySegment.copy(this.slots, next, this.slots, hole * SLOT_SIZE, SLOT_SIZE);
+                hole = i;
+            }
+        }
+        this.slots.asSlice(hole * SLOT_SIZE, SLOT_SIZE).fill((byte) 0);
+        this.size--;
+    }
+
+    private void allocate(long capacity) {
+        this.arena = Arena.ofShared();
+        // arena allocations come zeroed, so every slot starts out unused
+        this.slots = this.arena.allocate(capacity * SLOT_SIZE, 8);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    private void resize(long capacity) {
+        Arena oldArena = this.arena;
+        MemorySegment oldSlots = this.slots;
+        long oldCapacity = this.capacity;
+        this.allocate(capacity);
+        for (long slot = 0; slot < oldCapacity * SLOT_SIZE; slot += SLOT_SIZE) {
+            if (oldSlots.get(ValueLayout.JAVA_BYTE, slot + USED_OFFSET) == 0) continue;
+            for (long i = this.hashAt(oldSlots, slot) & this.mask; ; i = (i + 1) & this.mask) {
+                long target = i * SLOT_SIZE;
+                if (!this.isUsed(target)) {
+                    MemorySegment.copy(oldSlots, slot, this.slots, target, SLOT_SIZE);
+                    break;
+                }
+            }
+            this.size++;
+        }
+        oldArena.close();
+    }
+}
@@ -0,0 +1,117 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class RocksDatabase implements AutoCloseable {
+    public static final String BLOCKS = "blocks";
+    public static final String TRANSACTIONS = "transactions";
+    public static final String UTXOS = "utxos";
+    public static final String CHAIN = "chain";
+    public static final List<String> FAMILIES = List.of(BLOCKS, TRANSACTIONS, UTXOS, CHAIN);
+    // utxo keys are txHash + output index, so the tx hash is the natural prefix
+    public static final Map<String, Integer> DEFAULT_PREFIX_LENGTHS = Map.of(UTXOS, 32);
+    public static final long DEFAULT_BLOCK_CACHE_BYTES = 64 << 20;
+    public static final int DEFAULT_BLOOM_BITS_PER_KEY = 10;
+
+    static {
+        RocksDB.loadLibrary();
+    }
+
+    private final RocksDB db;
+    private final Map<String, ColumnFamilyHandle> handles;
+    private final List<ColumnFamilyHandle> openedHandles;
+    private final Map<String, Integer> prefixLengths;
+    private final List<AutoCloseable> resources;
+
+    public RocksDatabase(Path path) throws RocksDBException {
+        this(path, DEFAULT_BLOCK_CACHE_BYTES, DEFAULT_BLOOM_BITS_PER_KEY, DEFAULT_PREFIX_LENGTHS);
+    }
+
+    public RocksDatabase(
+            Path path, long blockCacheBytes, int bloomBitsPerKey, Map<String, Integer> prefixLengths)
+            throws RocksDBException {
+        this.resources = new ArrayList<>();
+        this.prefixLengths = Map.copyOf(prefixLengths);
+        LRUCache blockCache = this.track(new LRUCache(blockCacheBytes));
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(new ColumnFamilyDescriptor(
+                RocksDB.DEFAULT_COLUMN_FAMILY, this.track(new ColumnFamilyOptions())));
+        for (String family : FAMILIES) {
+            descriptors.add(new ColumnFamilyDescriptor(
+                    family.getBytes(StandardCharsets.UTF_8),
+                    this.familyOptions(blockCache, bloomBitsPerKey, this.getPrefixLength(family))));
+        }
+        DBOptions options = this.track(new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true));
+        this.openedHandles = new ArrayList<>();
+        this.db = RocksDB.open(options, path.toString(), descriptors, this.openedHandles);
+        this.handles = new HashMap<>();
+        for (int i = 0; i < FAMILIES.size(); i++) {
+            // index 0 is the default family, which we don't use
+            this.handles.put(FAMILIES.get(i), this.openedHandles.get(i + 1));
+        }
+    }
+
+    public <T> RocksKVStore<T> open(String family, Function<T, Bytes> serializer, Function<Bytes, T> deSerializer) {
+        ColumnFamilyHandle handle = this.handles.get(family);
+        if (handle == null) throw new IllegalArgumentException("Unknown column family: " + family);
+        return new RocksKVStore<>(this, handle, this.getPrefixLength(family), serializer, deSerializer);
+    }
+
+    RocksDB getDb() {
+        return this.db;
+    }
+
+    private int getPrefixLength(String family) {
+        return this.prefixLengths.getOrDefault(family, 0);
+    }
+
+    private ColumnFamilyOptions familyOptions(LRUCache blockCache, int bloomBitsPerKey, int prefixLength) {
+        BlockBasedTableConfig table = new BlockBasedTableConfig()
+                .setBlockCache(blockCache)
+                .setFilterPolicy(this.track(new BloomFilter(bloomBitsPerKey, false)));
+        ColumnFamilyOptions options = this.track(new ColumnFamilyOptions()).setTableFormatConfig(table);
+        if (prefixLength > 0) {
+            options.useFixedLengthPrefixExtractor(prefixLength);
+            options.setMemtablePrefixBloomSizeRatio(0.1);
+        }
+        return options;
+    }
+
+    private <R extends AutoCloseable> R track(R resource) {
+        this.resources.add(resource);
+        return resource;
+    }
+
+    @Override
+    public void close() {
+        // handles must go before the db, options after it
+        for (ColumnFamilyHandle handle : this.openedHandles) handle.close();
+        this.db.close();
+        for (AutoCloseable resource : this.resources.reversed()) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
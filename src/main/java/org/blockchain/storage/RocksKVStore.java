@@ -0,0 +1,137 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class RocksKVStore<T> extends KVStore<T> {
+    private final RocksDatabase database;
+    private final ColumnFamilyHandle handle;
+    private final int prefixLength;
+
+    RocksKVStore(
+            RocksDatabase database, ColumnFamilyHandle handle, int prefixLength,
+            Function<T, Bytes> serializer, Function<Bytes, T> deSerializer) {
+        super(serializer, deSerializer);
+        this.database = database;
+        this.handle = handle;
+        this.prefixLength = prefixLength;
+    }
+
+    @Override
+    public T get(Bytes key) {
+        try {
+            byte[] raw = this.database.getDb().get(this.handle, key.toArrayUnsafe());
+            if (raw != null) return this.deSerializer.apply(Bytes.wrap(raw));
+            return null;
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Bytes getRaw(Bytes key) {
+        try {
+            byte[] raw = this.database.getDb().get(this.handle, key.toArrayUnsafe());
+            return raw != null ? Bytes.wrap(raw) : null;
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<T> getAll(List<Bytes> keys) {
+        if (keys.isEmpty()) return new ArrayList<>();
+        List<byte[]> raw = new ArrayList<>(keys.size());
+        for (Bytes key : keys) raw.add(key.toArrayUnsafe());
+        try {
+            List<byte[]> found = this.database.getDb().multiGetAsList(Collections.nCopies(keys.size(), this.handle), raw);
+            List<T> values = new ArrayList<>(found.size());
+            for (byte[] value : found) values.add(value != null ? this.deSerializer.apply(Bytes.wrap(value)) : null);
+            return values;
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<T> iter(Bytes prefix) {
+        return new ArrayList<>(this.entries(prefix).values());
+    }
+
+    @Override
+    public Map<Bytes, T> entries(Bytes prefix) {
+        Map<Bytes, T> results = new LinkedHashMap<>();
+        try (ReadOptions options = new ReadOptions()) {
+            if (this.prefixLength > 0 && prefix.size() >= this.prefixLength) {
+                // the prefix extractor covers this seek, so bloom filters can skip whole files
+                options.setPrefixSameAsStart(true);
+            } else {
+                options.setTotalOrderSeek(true);
+            }
+            try (RocksIterator it = this.database.getDb().newIterator(this.handle, options)) {
+                for (it.seek(prefix.toArrayUnsafe()); it.isValid(); it.next()) {
+                    Bytes key = Bytes.wrap(it.key());
+                    if (key.commonPrefixLength(prefix) < prefix.size()) break;
+                    results.put(key, this.deSerializer.apply(Bytes.wrap(it.value())));
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public boolean put(Bytes key, T value) {
+        try {
+            byte[] rawKey = key.toArrayUnsafe();
+            boolean existed = this.database.getDb().keyMayExist(this.handle, rawKey, null)
+                    && this.database.getDb().get(this.handle, rawKey) != null;
+            this.database.getDb().put(this.handle, rawKey, this.serializer.apply(value).toArrayUnsafe());
+            return !existed;
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void remove(Bytes key) {
+        try {
+            this.database.getDb().delete(this.handle, key.toArrayUnsafe());
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected Object getBatchDomain() {
+        return this.database;
+    }
+
+    @Override
+    protected void writeBatch(List<KVBatch.Operation> operations) {
+        try (WriteBatch batch = new WriteBatch(); WriteOptions options = new WriteOptions()) {
+            for (KVBatch.Operation operation : operations) {
+                ColumnFamilyHandle family = ((RocksKVStore<?>) operation.store()).handle;
+                if (operation.isRemove()) {
+                    batch.delete(family, operation.key().toArrayUnsafe());
+                } else {
+                    batch.put(family, operation.key().toArrayUnsafe(), operation.value().toArrayUnsafe());
+                }
+            }
+            this.database.getDb().write(options, batch);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
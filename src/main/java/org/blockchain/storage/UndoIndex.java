@@ -0,0 +1,57 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.model.TransactionOutput;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// per block undo data: the outputs a block removed from the utxo set, so it can be disconnected
+// without replaying the chain. Records are fixed size outpoint + output pairs under 'u' + block hash
+public class UndoIndex {
+    public record Spent(Bytes outpoint, TransactionOutput output) {
+    }
+
+    private static final byte PREFIX = 'u';
+    private static final int OUTPOINT_SIZE = 36;
+    private static final int OUTPUT_SIZE = 41;
+
+    private final KVStore<Bytes> store;
+
+    public UndoIndex(KVStore<Bytes> store) {
+        this.store = store;
+    }
+
+    public void put(KVBatch batch, Bytes32 blockHash, List<Spent> spent) {
+        Bytes[] parts = new Bytes[spent.size() * 2];
+        for (int i = 0; i < spent.size(); i++) {
+            parts[2 * i] = spent.get(i).outpoint();
+            parts[2 * i + 1] = spent.get(i).output().asBytes();
+        }
+        batch.put(this.store, key(blockHash), Bytes.concatenate(parts));
+    }
+
+    public List<Spent> get(Bytes32 blockHash) {
+        Bytes raw = this.store.get(key(blockHash));
+        if (raw == null) return null;
+        List<Spent> spent = new ArrayList<>(raw.size() / (OUTPOINT_SIZE + OUTPUT_SIZE));
+        for (int offset = 0; offset < raw.size(); offset += OUTPOINT_SIZE + OUTPUT_SIZE) {
+            spent.add(new Spent(raw.slice(offset, OUTPOINT_SIZE),
+                    TransactionOutput.fromBytes(raw.slice(offset + OUTPOINT_SIZE, OUTPUT_SIZE))));
+        }
+        return spent;
+    }
+
+    public boolean contains(Bytes32 blockHash) {
+        return this.store.getRaw(key(blockHash)) != null;
+    }
+
+    public void remove(KVBatch batch, Bytes32 blockHash) {
+        batch.remove(this.store, key(blockHash));
+    }
+
+    private static Bytes key(Bytes32 blockHash) {
+        return Bytes.concatenate(Bytes.of(PREFIX), blockHash);
+    }
+}
@@ -0,0 +1,231 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.blockchain.Parameters;
+import org.blockchain.model.TransactionOutput;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// write-back cache over the utxo store. Creates and spends stay in memory until flush stages them into a
+// batch; an output created and spent between two flushes is never written at all
+public class UtxoCache extends KVStore<TransactionOutput> {
+    public static final long DEFAULT_MEMORY_BUDGET = 64 * Parameters.MB;
+    // outpoint, output, map node and object headers, roughly
+    static final int ENTRY_SIZE = 256;
+
+    private static final class Entry {
+        // null once spent, until the spend is flushed
+        private TransactionOutput output;
+        private boolean dirty;
+        // the backend has never seen this outpoint, so spending it only has to forget it
+        private boolean fresh;
+
+        private Entry(TransactionOutput output, boolean dirty, boolean fresh) {
+            this.output = output;
+            this.dirty = dirty;
+            this.fresh = fresh;
+        }
+    }
+
+    private record Staged(Bytes key, Entry entry, TransactionOutput output) {
+    }
+
+    private final KVStore<TransactionOutput> backend;
+    private final LinkedHashMap<Bytes, Entry> entries;
+    private long maxEntries;
+    private int dirtyCount;
+
+    public UtxoCache(KVStore<TransactionOutput> backend) {
+        this(backend, DEFAULT_MEMORY_BUDGET);
+    }
+
+    public UtxoCache(KVStore<TransactionOutput> backend, long memoryBudget) {
+        super(TransactionOutput::asBytes, TransactionOutput::fromBytes);
+        this.backend = backend;
+        // access order, so eviction drops what was used least recently
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.setMemoryBudget(memoryBudget);
+    }
+
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.maxEntries = Math.max(1, memoryBudget / ENTRY_SIZE);
+        this.trim();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized int getDirtyCount() {
+        return this.dirtyCount;
+    }
+
+    // dirty entries can't be evicted, so a full cache has to be flushed before it can shrink
+    public synchronized boolean isOverBudget() {
+        return this.entries.size() > this.maxEntries;
+    }
+
+    @Override
+    public synchronized TransactionOutput get(Bytes key) {
+        Entry entry = this.fetch(key);
+        TransactionOutput output = entry != null ? entry.output : null;
+        this.trim();
+        return output;
+    }
+
+    // whatever isn't cached is read from the backend in one go
+    @Override
+    public synchronized List<TransactionOutput> getAll(List<Bytes> keys) {
+        List<TransactionOutput> outputs = new ArrayList<>(keys.size());
+        List<Bytes> misses = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (Bytes key : keys) {
+            Entry entry = this.entries.get(key);
+            if (entry == null) {
+                misses.add(key);
+                positions.add(outputs.size());
+            }
+            outputs.add(entry != null ? entry.output : null);
+        }
+        if (!misses.isEmpty()) {
+            List<TransactionOutput> loaded = this.backend.getAll(misses);
+            for (int i = 0; i < misses.size(); i++) {
+                TransactionOutput output = loaded.get(i);
+                if (output == null) continue;
+                outputs.set(positions.get(i), output);
+                this.entries.putIfAbsent(misses.get(i), new Entry(output, false, false));
+            }
+        }
+        this.trim();
+        return outputs;
+    }
+
+    // without possibleOverwrite the caller vouches the outpoint is new, which lets a later spend skip the backend.
+    // coinbase outputs may legitimately replace an unspent output with the same outpoint
+    public synchronized boolean add(Bytes key, TransactionOutput output, boolean possibleOverwrite) {
+        Entry entry = this.entries.get(key);
+        if (entry != null && entry.output != null && !possibleOverwrite)
+            throw new IllegalStateException("Output already exists " + key);
+        boolean existed = entry != null && entry.output != null;
+        if (entry == null) {
+            this.entries.put(key, new Entry(output, true, !possibleOverwrite));
+            this.dirtyCount++;
+        } else {
+            // freshness carries over: a fresh entry is never left spent, and a spent one is already known
+            if (!entry.dirty) this.dirtyCount++;
+            entry.output = output;
+            entry.dirty = true;
+        }
+        this.trim();
+        return !existed;
+    }
+
+    public synchronized TransactionOutput spend(Bytes key) {
+        Entry entry = this.fetch(key);
+        if (entry == null || entry.output == null) return null;
+        TransactionOutput output = entry.output;
+        if (entry.fresh) {
+            this.entries.remove(key);
+            if (entry.dirty) this.dirtyCount--;
+        } else {
+            if (!entry.dirty) this.dirtyCount++;
+            entry.output = null;
+            entry.dirty = true;
+        }
+        return output;
+    }
+
+    // stages every pending change into the batch; the entries turn clean once it commits
+    public synchronized int flush(KVBatch batch) {
+        List<Staged> flushed = new ArrayList<>(this.dirtyCount);
+        for (Map.Entry<Bytes, Entry> item : this.entries.entrySet()) {
+            Entry entry = item.getValue();
+            if (!entry.dirty) continue;
+            if (entry.output == null) {
+                batch.remove(this.backend, item.getKey());
+            } else {
+                batch.put(this.backend, item.getKey(), entry.output);
+                // staged is as good as written: a spend before the batch commits must reach the backend too
+                entry.fresh = false;
+            }
+            flushed.add(new Staged(item.getKey(), entry, entry.output));
+        }
+        batch.onCommit(() -> this.markFlushed(flushed));
+        return flushed.size();
+    }
+
+    @Override
+    public synchronized Map<Bytes, TransactionOutput> entries(Bytes prefix) {
+        Map<Bytes, TransactionOutput> results = this.backend.entries(prefix);
+        for (Map.Entry<Bytes, Entry> item : this.entries.entrySet()) {
+            if (!item.getValue().dirty || item.getKey().commonPrefixLength(prefix) < prefix.size()) continue;
+            if (item.getValue().output == null) {
+                results.remove(item.getKey());
+            } else {
+                results.put(item.getKey(), item.getValue().output);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<TransactionOutput> iter(Bytes prefix) {
+        return new ArrayList<>(this.entries(prefix).values());
+    }
+
+    @Override
+    public boolean put(Bytes key, TransactionOutput value) {
+        return this.add(key, value, true);
+    }
+
+    @Override
+    public void remove(Bytes key) {
+        this.spend(key);
+    }
+
+    @Override
+    protected synchronized void writeBatch(List<KVBatch.Operation> operations) {
+        for (KVBatch.Operation operation : operations) {
+            if (operation.isRemove()) {
+                this.spend(operation.key());
+            } else {
+                this.add(operation.key(), this.deSerializer.apply(operation.value()), true);
+            }
+        }
+    }
+
+    private Entry fetch(Bytes key) {
+        Entry entry = this.entries.get(key);
+        if (entry != null) return entry;
+        TransactionOutput output = this.backend.get(key);
+        if (output == null) return null;
+        entry = new Entry(output, false, false);
+        // no trimming here, callers may be about to change the entry
+        this.entries.put(key, entry);
+        return entry;
+    }
+
+    private synchronized void markFlushed(List<Staged> flushed) {
+        for (Staged staged : flushed) {
+            Entry entry = staged.entry();
+            // an entry changed again after being staged still has something to write
+            if (!entry.dirty || entry.output != staged.output() || this.entries.get(staged.key()) != entry) continue;
+            entry.dirty = false;
+            this.dirtyCount--;
+            if (entry.output == null) this.entries.remove(staged.key());
+        }
+        this.trim();
+    }
+
+    private void trim() {
+        if (this.entries.size() <= this.maxEntries) return;
+        Iterator<Entry> it = this.entries.values().iterator();
+        while (this.entries.size() > this.maxEntries && it.hasNext()) {
+            if (!it.next().dirty) it.remove();
+        }
+    }
+}
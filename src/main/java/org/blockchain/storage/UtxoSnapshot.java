@@ -0,0 +1,185 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.Parameters;
+import org.blockchain.model.Block;
+import org.blockchain.model.TransactionOutput;
+import org.bouncycastle.jcajce.provider.digest.SHA3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Snapshot file of the utxo set at a block: a header carrying the block itself, then chunks of outpoint/output
+// pairs sorted by outpoint. Each chunk has its own hash, so chunks can be checked and loaded independently;
+// the set as a whole is committed to by the block's global state root.
+// Layout: "UTXO" version [block length:4][block] [height:8][entries:8], then per chunk [count:4][hash:32][payload]
+public class UtxoSnapshot {
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+    public static final int MAX_CHUNK_SIZE = 1 << 18;
+    public static final int ENTRY_SIZE = 36 + 41;
+    private static final byte[] MAGIC = {'U', 'T', 'X', 'O'};
+    private static final byte VERSION = 1;
+
+    public record Header(Block block, long height, long entryCount) {
+    }
+
+    public record Chunk(int index, Bytes32 hash, byte[] payload) {
+        // throws when the payload doesn't match its hash
+        public List<Map.Entry<Bytes, TransactionOutput>> decode() {
+            if (!hash(this.payload).equals(this.hash))
+                throw new IllegalArgumentException("Snapshot chunk " + this.index + " is corrupt");
+            Bytes raw = Bytes.wrap(this.payload);
+            List<Map.Entry<Bytes, TransactionOutput>> entries = new ArrayList<>(this.payload.length / ENTRY_SIZE);
+            for (int offset = 0; offset < this.payload.length; offset += ENTRY_SIZE) {
+                entries.add(Map.entry(raw.slice(offset, 36), TransactionOutput.fromBytes(raw.slice(offset + 36, 41))));
+            }
+            return entries;
+        }
+    }
+
+    // for a set already in memory, sorted here first. The order, and so the file, is the same on every node
+    public static void write(
+            Path file, Block block, long height, Map<Bytes, TransactionOutput> utxos, int chunkSize) throws IOException {
+        TreeMap<Bytes, TransactionOutput> sorted = new TreeMap<>(MemoryTreeKVStore.ORDER);
+        sorted.putAll(utxos);
+        try (Writer writer = new Writer(file, block, height, chunkSize)) {
+            for (Map.Entry<Bytes, TransactionOutput> entry : sorted.entrySet()) {
+                writer.add(entry.getKey(), entry.getValue().asBytes());
+            }
+        }
+    }
+
+    // streams entries out a chunk at a time as they come, which has to be in key order. The entry count in the
+    // header is only known at the end, close fills it in
+    public static class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final long countOffset;
+        private final int chunkSize;
+        private final byte[] payload;
+        private int count;
+        private long entries;
+        private Bytes previous;
+
+        public Writer(Path file, Block block, long height, int chunkSize) throws IOException {
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) throw new IllegalArgumentException("Bad chunk size");
+            this.channel = FileChannel.open(
+                    file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channel)));
+            this.chunkSize = chunkSize;
+            this.payload = new byte[chunkSize * ENTRY_SIZE];
+            this.out.write(MAGIC);
+            this.out.writeByte(VERSION);
+            Bytes raw = block.asBytes();
+            this.out.writeInt(raw.size());
+            this.out.write(raw.toArrayUnsafe());
+            this.out.writeLong(height);
+            this.countOffset = this.out.size();
+            this.out.writeLong(0);
+        }
+
+        public void add(Bytes outpoint, Bytes output) throws IOException {
+            if (outpoint.size() != 36 || output.size() != ENTRY_SIZE - 36)
+                throw new IllegalArgumentException("Not a utxo entry");
+            if (this.previous != null && MemoryTreeKVStore.ORDER.compare(this.previous, outpoint) >= 0)
+                throw new IllegalArgumentException("Snapshot entries out of order");
+            outpoint.copyTo(this.payload, this.count * ENTRY_SIZE);
+            output.copyTo(this.payload, this.count * ENTRY_SIZE + 36);
+            this.previous = outpoint;
+            this.entries++;
+            if (++this.count == this.chunkSize) {
+                writeChunk(this.out, this.payload, this.count);
+                this.count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (this.count > 0) writeChunk(this.out, this.payload, this.count);
+                this.out.flush();
+                this.channel.write(ByteBuffer.allocate(8).putLong(0, this.entries), this.countOffset);
+            } finally {
+                this.out.close();
+            }
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, byte[] payload, int count) throws IOException {
+        byte[] used = Arrays.copyOf(payload, count * ENTRY_SIZE);
+        out.writeInt(count);
+        out.write(hash(used).toArrayUnsafe());
+        out.write(used);
+    }
+
+    static Bytes32 hash(byte[] payload) {
+        SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
+        return Bytes32.wrap(sha3.digest(payload));
+    }
+
+    // reads chunks sequentially without checking them, so checks can run elsewhere
+    public static class Reader implements AutoCloseable {
+        private final DataInputStream in;
+        private final Header header;
+        private int chunks;
+
+        public Reader(Path file) throws IOException {
+            this(Files.newInputStream(file));
+        }
+
+        public Reader(InputStream stream) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(stream));
+            byte[] magic = new byte[MAGIC.length];
+            this.in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || this.in.readByte() != VERSION)
+                throw new IllegalArgumentException("Not a utxo snapshot");
+            int length = this.in.readInt();
+            if (length <= 0 || length > Parameters.MAX_BLOCK_SIZE_BYTES) throw new IllegalArgumentException("Malformed snapshot");
+            byte[] block = new byte[length];
+            this.in.readFully(block);
+            this.header = new Header(Block.fromBytes(Bytes.wrap(block)), this.in.readLong(), this.in.readLong());
+        }
+
+        public Header getHeader() {
+            return this.header;
+        }
+
+        // null after the last chunk
+        public Chunk next() throws IOException {
+            int count;
+            try {
+                count = this.in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (count <= 0 || count > MAX_CHUNK_SIZE) throw new IllegalArgumentException("Malformed snapshot");
+            byte[] hash = new byte[32];
+            this.in.readFully(hash);
+            byte[] payload = new byte[count * ENTRY_SIZE];
+            this.in.readFully(payload);
+            return new Chunk(this.chunks++, Bytes32.wrap(hash), payload);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.blockchain;
+
+// timing for @Benchmark methods, warm-up is up to the caller
+public final class Benchmarks {
+    public interface Body {
+        void run() throws Exception;
+    }
+
+    private Benchmarks() {
+    }
+
+    // operations per second over one run of body, which performs count of them
+    public static double perSecond(long count, Body body) throws Exception {
+        long start = System.nanoTime();
+        body.run();
+        return count / ((System.nanoTime() - start) / 1e9);
+    }
+
+    // average milliseconds per run of body
+    public static double millis(int rounds, Body body) throws Exception {
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) body.run();
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    public static void report(String format, Object... args) {
+        System.out.printf(format + "%n", args);
+    }
+}
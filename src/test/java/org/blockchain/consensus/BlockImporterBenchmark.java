@@ -0,0 +1,36 @@
+package org.blockchain.consensus;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.blockchain.Benchmark;
+import org.blockchain.Benchmarks;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+
+import java.util.List;
+
+import static org.blockchain.consensus.BlockImporterTest.chain;
+import static org.blockchain.consensus.BlockImporterTest.newEngine;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlockImporterBenchmark {
+    @Benchmark
+    void importRate() throws Exception {
+        ECPrivateKey key = new ECPrivateKey();
+        Engine source = newEngine(key);
+        List<Bytes> raw = chain(source, key, 200, 20);
+        // fresh engines each time, a warm signature cache would skip the work being measured
+        Engine serial = newEngine(new ECPrivateKey());
+        double serialRate = Benchmarks.perSecond(raw.size(), () -> {
+            for (Bytes block : raw) serial.submitBlock(Block.fromBytes(block));
+        });
+        Benchmarks.report("one at a time: %.0f blocks/s", serialRate);
+        for (int threads : new int[]{1, 2, 4, Runtime.getRuntime().availableProcessors()}) {
+            Engine target = newEngine(new ECPrivateKey());
+            try (BlockImporter importer = new BlockImporter(target, threads, BlockImporter.DEFAULT_WINDOW)) {
+                double rate = Benchmarks.perSecond(raw.size(), () -> importer.importBlocks(raw.iterator()));
+                Benchmarks.report("%d threads: %.0f blocks/s (%.1fx)", threads, rate, rate / serialRate);
+            }
+            assertEquals(source.getLatestBlockHash(), target.getLatestBlockHash());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.blockchain.consensus;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.blockchain.storage.MemoryTreeKVStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockImporterTest {
+    private final ECPrivateKey key = new ECPrivateKey();
+
+    static Engine newEngine(ECPrivateKey key) {
+        return new Engine(
+                new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes),
+                new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes),
+                new MemoryTreeKVStore<>(TransactionOutput::asBytes, TransactionOutput::fromBytes),
+                key);
+    }
+
+    // rounds of an empty block, which brings the coinbase output back, then a block spending it txs times over
+    static List<Bytes> chain(Engine source, ECPrivateKey key, int rounds, int txs) throws Exception {
+        source.advance();
+        for (int round = 0; round < rounds; round++) {
+            source.advance();
+            Transaction previous = Block.fromBytes(source.getRawBlock(source.getLatestBlockHash())).getTxs().getFirst();
+            List<Transaction> spends = new ArrayList<>();
+            for (int i = 0; i < txs; i++) {
+                previous = previous.spendAllTo(key, key.getPublicKey().getHash());
+                spends.add(previous);
+            }
+            source.submitTransactions(spends);
+            source.advance();
+        }
+        List<Bytes> raw = new ArrayList<>();
+        for (long height = 0; height <= source.getHeight(); height++) {
+            raw.add(source.getRawBlock(source.getBlockHashAtHeight(height)));
+        }
+        return raw;
+    }
+
+    @Test
+    void importsChain() throws Exception {
+        Engine source = newEngine(this.key);
+        List<Bytes> raw = chain(source, this.key, 5, 3);
+        Engine target = newEngine(new ECPrivateKey());
+        // a window smaller than the chain, so reading waits on connecting
+        try (BlockImporter importer = new BlockImporter(target, 4, 3)) {
+            assertEquals(raw.size(), importer.importBlocks(raw.iterator()));
+        }
+        assertEquals(source.getLatestBlockHash(), target.getLatestBlockHash());
+        assertEquals(source.getStateRoot(), target.getStateRoot());
+        assertEquals(source.getBalance(this.key.getPublicKey().getHash()),
+                target.getBalance(this.key.getPublicKey().getHash()));
+    }
+
+    @Test
+    void stopsAtInvalidBlock() throws Exception {
+        Engine source = newEngine(this.key);
+        List<Bytes> raw = chain(source, this.key, 3, 2);
+        Block block = Block.fromBytes(raw.get(4));
+        byte[] signature = Block.fromBytes(raw.get(3)).getSignature();
+        Block forged = new Block(block.getVersion(), block.getTransactionsRootHash(), block.getGlobalStateRootHash(),
+                block.getPreviousHash(), signature, block.getSignerPubkey(), block.getTxs());
+        raw.set(4, forged.asBytes());
+        Engine target = newEngine(new ECPrivateKey());
+        try (BlockImporter importer = new BlockImporter(target)) {
+            assertThrows(IllegalArgumentException.class, () -> importer.importBlocks(raw.iterator()));
+            assertEquals(3, target.getHeight());
+            assertEquals(source.getBlockHashAtHeight(3), target.getLatestBlockHash());
+            // garbage fails to decode on a worker and surfaces here
+            assertThrows(IllegalArgumentException.class,
+                    () -> importer.importBlocks(List.of(Bytes.of(1, 2, 3)).iterator()));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.blockchain.consensus;
+
+import org.blockchain.Benchmark;
+import org.blockchain.Benchmarks;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.blockchain.storage.MemoryTreeKVStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlockProducerBenchmark {
+    private final ECPrivateKey key = new ECPrivateKey();
+    private final Engine engine = new Engine(
+            new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes),
+            new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes),
+            new MemoryTreeKVStore<>(TransactionOutput::asBytes, TransactionOutput::fromBytes),
+            this.key);
+
+    @Benchmark
+    void tickLatency() throws Exception {
+        try (BlockProducer producer = new BlockProducer(this.engine)) {
+            producer.produce();
+            for (int mempoolSize : new int[]{0, 500, 2000}) {
+                // an empty block first, the last one spent the coinbase output
+                producer.produce();
+                Transaction previous = Block.fromBytes(this.engine.getRawBlock(this.engine.getLatestBlockHash()))
+                        .getTxs().getFirst();
+                List<Transaction> txs = new ArrayList<>();
+                for (int i = 0; i < mempoolSize; i++) {
+                    previous = previous.spendAllTo(this.key, this.key.getPublicKey().getHash());
+                    txs.add(previous);
+                }
+                this.engine.submitTransactions(txs);
+                double assembly = Benchmarks.millis(1, () -> {
+                    producer.refresh();
+                    producer.awaitPrepared();
+                });
+                List<Block> produced = new ArrayList<>();
+                double pipelined = Benchmarks.millis(1, () -> produced.add(producer.produce()));
+                assertEquals(mempoolSize + 1, produced.getFirst().getTxs().size());
+                producer.awaitPrepared();
+                Benchmarks.report("mempool %d: assembled ahead in %.2f ms, tick to commit %.2f ms",
+                        mempoolSize, assembly, pipelined);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.blockchain.consensus;
+
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.blockchain.storage.MemoryTreeKVStore;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockProducerTest {
+    private final ECPrivateKey key = new ECPrivateKey();
+    private final Engine engine = new Engine(
+            new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes),
+            new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes),
+            new MemoryTreeKVStore<>(TransactionOutput::asBytes, TransactionOutput::fromBytes),
+            this.key);
+
+    private Transaction coinbaseAtTip() {
+        return Block.fromBytes(this.engine.getRawBlock(this.engine.getLatestBlockHash())).getTxs().getFirst();
+    }
+
+    @Test
+    void producesPreparedBlocks() throws Exception {
+        try (BlockProducer producer = new BlockProducer(this.engine)) {
+            Block genesis = producer.produce();
+            assertEquals(genesis.getHash(), this.engine.getLatestBlockHash());
+            // the next block was assembled before this transaction arrived, a refresh picks it up
+            Transaction send = this.coinbaseAtTip().spend(this.key, new ECPrivateKey().getPublicKey().getHash(), 5);
+            this.engine.submitTransaction(send);
+            producer.refresh();
+            Block block = producer.produce();
+            assertEquals(1, this.engine.getHeight());
+            assertEquals(2, block.getTxs().size());
+            assertEquals(send.getTransactionHash(), block.getTxs().get(1).getTransactionHash());
+            // built on top of the block above while it was committed
+            Block next = producer.produce();
+            assertEquals(block.getHash(), next.getPreviousHash());
+            assertEquals(2, this.engine.getHeight());
+            assertEquals(next.getGlobalStateRootHash(), this.engine.getStateRoot());
+        }
+    }
+
+    @Test
+    void staleBlockIsDropped() throws Exception {
+        try (BlockProducer producer = new BlockProducer(this.engine)) {
+            producer.produce();
+            producer.awaitPrepared();
+            // someone else moves the tip, the waiting block and the one built on it are thrown away
+            this.engine.advance();
+            assertNull(producer.produce());
+            assertEquals(1, this.engine.getHeight());
+            Block block = producer.produce();
+            assertEquals(2, this.engine.getHeight());
+            assertEquals(block.getHash(), this.engine.getLatestBlockHash());
+        }
+    }
+
+    @Test
+    void scheduled() throws Exception {
+        try (BlockProducer producer = new BlockProducer(this.engine, Duration.ofMillis(20))) {
+            producer.start();
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (this.engine.getHeight() < 3 && System.nanoTime() < deadline) Thread.sleep(10);
+        }
+        assertTrue(this.engine.getHeight() >= 3);
+    }
+}
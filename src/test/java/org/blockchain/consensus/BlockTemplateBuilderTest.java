@@ -0,0 +1,37 @@
+package org.blockchain.consensus;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockTemplateBuilderTest {
+
+    @Test
+    void stopsAtMaxSize() throws IOException {
+        ECPrivateKey key = new ECPrivateKey();
+        ECPrivateKey other = new ECPrivateKey();
+        Transaction coinbase = Transaction.payCoinbaseTo(key.getPublicKey().getHash());
+        Transaction first = coinbase.spend(key, other.getPublicKey().getHash(), 5);
+        Transaction second = first.spend(other, key.getPublicKey().getHash(), 5);
+
+        long maxSize = Block.HEADER_SIZE + Block.MAX_SIGNATURE_SIZE
+                + Block.encodedTransactionSize(coinbase) + Block.encodedTransactionSize(first);
+        BlockTemplateBuilder template = new BlockTemplateBuilder(Bytes32.ZERO, Bytes32.ZERO, coinbase, maxSize);
+        assertTrue(template.add(first));
+        assertFalse(template.add(second));
+        assertEquals(maxSize, template.getSize());
+
+        Block block = template.build(key);
+        assertTrue(block.isSignatureValid());
+        assertEquals(2, block.getTxs().size());
+        assertTrue(block.asBytes().size() <= template.getSize());
+        assertEquals(Block.buildUnsignedFromTxList(Bytes32.ZERO, Bytes32.ZERO, block.getTxs()).asBytes(true),
+                block.asBytes(true));
+    }
+}
@@ -1,21 +1,47 @@
 package org.blockchain.consensus;
 
+import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
 import org.blockchain.crypto.ECPrivateKey;
 import org.blockchain.model.Block;
 import org.blockchain.model.Transaction;
 import org.blockchain.model.TransactionOutput;
+import org.blockchain.storage.AddressIndex;
+import org.blockchain.storage.GlobalState;
 import org.blockchain.storage.KVStore;
 import org.blockchain.storage.MemoryTreeKVStore;
+import org.blockchain.storage.RocksDatabase;
+import org.blockchain.storage.UtxoSnapshot;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 class EngineTest {
+    interface Stores {
+        <T> KVStore<T> open(String family, Function<T, Bytes> serializer, Function<Bytes, T> deSerializer);
+    }
+
     class TestChain {
+        public Stores stores;
         public KVStore<Block> blockKVStore;
         public KVStore<Transaction> txKVStore;
         public KVStore<TransactionOutput> utxoKVStore;
@@ -23,21 +49,27 @@ class EngineTest {
         public Engine engine;
 
         TestChain() {
-            blockKVStore = new MemoryTreeKVStore<>(
-                    Block::asBytes, Block::fromBytes
-            );
-            txKVStore = new MemoryTreeKVStore<>(
-                    Transaction::asBytes, Transaction::fromBytes
-            );
-            utxoKVStore = new MemoryTreeKVStore<>(
-                    TransactionOutput::asBytes, TransactionOutput::fromBytes
-            );
+            stores = newStores();
+            blockKVStore = stores.open(RocksDatabase.BLOCKS, Block::asBytes, Block::fromBytes);
+            txKVStore = stores.open(RocksDatabase.TRANSACTIONS, Transaction::asBytes, Transaction::fromBytes);
+            utxoKVStore = stores.open(
+                    RocksDatabase.UTXOS, TransactionOutput::asBytes, TransactionOutput::fromBytes);
 
             key = new ECPrivateKey();
             engine = new Engine(blockKVStore, txKVStore, utxoKVStore, key);
         }
     }
 
+    // every chain gets its own stores, subclasses run the whole suite on another backend
+    Stores newStores() {
+        return new Stores() {
+            @Override
+            public <T> KVStore<T> open(String family, Function<T, Bytes> serializer, Function<Bytes, T> deSerializer) {
+                return new MemoryTreeKVStore<>(serializer, deSerializer);
+            }
+        };
+    }
+
     @Test
     void emptySimpleAdvance() {
         TestChain chain = new TestChain();
@@ -64,6 +96,24 @@ class EngineTest {
         this.verifiedAdvance(chain, 3);
     }
 
+    @Test
+    void parallelVerification() {
+        TestChain chain = new TestChain();
+        ECPrivateKey secondAccount = new ECPrivateKey();
+        chain.engine.setVerificationExecutor(ForkJoinPool.commonPool());
+
+        this.verifiedAdvance(chain, 1);
+        Transaction input = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().getFirst();
+        Transaction send = input.spend(chain.key, secondAccount.getPublicKey().getHash(), 5);
+        try {
+            chain.engine.submitTransaction(send);
+        } catch (Exception e) {
+            fail(e);
+        }
+        this.verifiedAdvance(chain, 2);
+        assertEquals(2, chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().size());
+    }
+
     @Test
     void doubleSpend() {
         TestChain chain = new TestChain();
@@ -131,6 +181,142 @@ class EngineTest {
         }
     }
 
+    @Test
+    void batchSubmission() {
+        TestChain chain = new TestChain();
+        ECPrivateKey secondAccount = new ECPrivateKey();
+        ECPrivateKey thirdAccount = new ECPrivateKey();
+
+        this.verifiedAdvance(chain, 1);
+        Transaction input = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().getFirst();
+        Transaction send = input.spend(chain.key, secondAccount.getPublicKey().getHash(), 5);
+        Transaction child = send.spend(secondAccount, thirdAccount.getPublicKey().getHash(), 5);
+        Transaction conflict = input.spend(chain.key, thirdAccount.getPublicKey().getHash(), 5);
+        // the child comes first and waits for its parent, the conflict loses to the earlier spend
+        List<Engine.SubmitResult> results = chain.engine.submitTransactions(List.of(child, send, conflict, send));
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).isAccepted());
+        assertTrue(results.get(1).isAccepted());
+        assertEquals("Mempool Input already spent", results.get(2).error());
+        assertEquals("Transaction already in mempool", results.get(3).error());
+        assertEquals(results.get(1).hash(), results.get(3).hash());
+
+        this.verifiedAdvance(chain, 2);
+        assertEquals(3, chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().size());
+        results = chain.engine.submitTransactions(List.of(send, child));
+        assertEquals("Transaction already confirmed", results.get(0).error());
+        assertEquals("Transaction already confirmed", results.get(1).error());
+    }
+
+    @Test
+    void batchConflictsAreDeterministic() throws Exception {
+        TestChain chain = new TestChain();
+        ECPrivateKey secondAccount = new ECPrivateKey();
+        ECPrivateKey thirdAccount = new ECPrivateKey();
+
+        this.verifiedAdvance(chain, 1);
+        Transaction input = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().getFirst();
+        Transaction send = input.spend(chain.key, secondAccount.getPublicKey().getHash(), 5);
+        Transaction conflict = input.spend(chain.key, thirdAccount.getPublicKey().getHash(), 5);
+        Transaction conflictChild = conflict.spend(thirdAccount, secondAccount.getPublicKey().getHash(), 5);
+        Transaction wrongKey = input.spend(secondAccount, secondAccount.getPublicKey().getHash(), 5);
+        List<Engine.SubmitResult> results = chain.engine.submitTransactions(
+                List.of(conflictChild, send, conflict, wrongKey));
+        assertTrue(results.get(1).isAccepted());
+        assertFalse(results.get(2).isAccepted());
+        assertEquals("Parent transaction rejected", results.get(0).error());
+        assertFalse(results.get(3).isAccepted());
+
+        TransactionRejectedException e = assertThrows(
+                TransactionRejectedException.class, () -> chain.engine.submitTransaction(conflict));
+        assertEquals("Mempool Input already spent", e.getMessage());
+        this.verifiedAdvance(chain, 2);
+        assertEquals(2, chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().size());
+    }
+
+    @Test
+    void malformedTransactionOnlyFailsItself() throws Exception {
+        TestChain chain = new TestChain();
+        this.verifiedAdvance(chain, 1);
+        Transaction input = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().getFirst();
+        Transaction send = input.spend(chain.key, new ECPrivateKey().getPublicKey().getHash(), 5);
+        // a trailing byte, which doesn't decode
+        Transaction malformed = Transaction.fromBytes(Bytes.concatenate(send.asBytes(), Bytes.of(0)));
+        List<Engine.SubmitResult> results = chain.engine.submitTransactions(List.of(malformed, send));
+        assertFalse(results.get(0).isAccepted());
+        assertTrue(results.get(1).isAccepted());
+        assertFalse(chain.engine.submitTransactions(List.of(malformed)).getFirst().isAccepted());
+    }
+
+    @Test
+    void readersSeePublishedStates() throws Exception {
+        TestChain chain = new TestChain();
+        this.verifiedAdvance(chain, 1);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            readers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    long lastHeight = 0;
+                    while (!done.get()) {
+                        Engine.ChainState state = chain.engine.getChainState();
+                        assertTrue(state.height() >= lastHeight);
+                        lastHeight = state.height();
+                        // the tip's block and its state are complete by the time the state is published
+                        Block tip = Block.fromBytes(chain.engine.getRawBlock(state.tip()));
+                        assertEquals(tip.getGlobalStateRootHash(), state.stateRoot());
+                        Transaction coinbase = tip.getTxs().getFirst();
+                        assertEquals(coinbase.getOutputList().getFirst().asBytes(),
+                                chain.engine.getRawUtxo(coinbase.getTransactionHash(), 0));
+                        assertEquals(state.tip(), chain.engine.getBlockHashAtHeight(state.height()));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (int height = 2; height <= 40; height++) chain.engine.advance();
+        done.set(true);
+        for (Thread reader : readers) reader.join();
+        if (failure.get() != null) fail(failure.get());
+        assertEquals(39, chain.engine.getHeight());
+    }
+
+    @Test
+    void readersSeeWholeBlocksInBalances() throws Exception {
+        TestChain chain = new TestChain();
+        ECPrivateKey wallet = new ECPrivateKey();
+        Bytes32 owner = wallet.getPublicKey().getHash();
+        this.verifiedAdvance(chain, 1);
+        Transaction coin = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().getFirst()
+                .spendAllTo(chain.key, owner);
+        chain.engine.submitTransaction(coin);
+        chain.engine.advance();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        // every block moves the wallet's one coin to a new output: a half applied block would show 0 or 20
+        Thread reader = Thread.ofPlatform().start(() -> {
+            try {
+                while (!done.get()) {
+                    assertEquals(10, chain.engine.getBalance(owner));
+                    assertEquals(1, chain.engine.getUnspentOutputs(owner).size());
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        for (int i = 0; i < 40; i++) {
+            coin = coin.spendAllTo(wallet, owner);
+            chain.engine.submitTransaction(coin);
+            chain.engine.advance();
+        }
+        done.set(true);
+        reader.join();
+        if (failure.get() != null) fail(failure.get());
+        assertNull(chain.engine.getBlockFilter(chain.engine.getHeight() + 1));
+    }
+
     @Test
     void wrongKeyTransfer() {
         TestChain chain = new TestChain();
@@ -164,6 +350,317 @@ class EngineTest {
         }
     }
 
+    @Test
+    void maxBlockSize() {
+        TestChain chain = new TestChain();
+        ECPrivateKey secondAccount = new ECPrivateKey();
+        ECPrivateKey thirdAccount = new ECPrivateKey();
+
+        this.verifiedAdvance(chain, 1);
+        Transaction input = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().getFirst();
+        Transaction send = input.spend(chain.key, secondAccount.getPublicKey().getHash(), 5);
+        Transaction send2 = send.spend(secondAccount, thirdAccount.getPublicKey().getHash(), 5);
+        try {
+            chain.engine.submitTransaction(send);
+            chain.engine.submitTransaction(send2);
+        } catch (Exception e) {
+            fail(e);
+        }
+        chain.engine.setMaxBlockSize(Block.HEADER_SIZE + Block.MAX_SIGNATURE_SIZE
+                + Block.encodedTransactionSize(input) + Block.encodedTransactionSize(send));
+        this.verifiedAdvance(chain, 2);
+        assertEquals(2, chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().size());
+        this.verifiedAdvance(chain, 3);
+        assertEquals(send2, chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().get(1));
+    }
+
+    @Test
+    void heightIndex() {
+        TestChain chain = new TestChain();
+        this.verifiedAdvance(chain, 1);
+        this.verifiedAdvance(chain, 2);
+        this.verifiedAdvance(chain, 3);
+        assertEquals(2, chain.engine.getHeight());
+        assertEquals(chain.engine.getLatestBlockHash(), chain.engine.getBlockHashAtHeight(2));
+        Bytes32 genesis = chain.engine.getBlockHashAtHeight(0);
+        assertEquals(Bytes32.ZERO, chain.blockKVStore.get(genesis).getPreviousHash());
+
+        // stores without a chain index get one rebuilt on startup
+        Engine restarted = new Engine(chain.blockKVStore, chain.txKVStore, chain.utxoKVStore, chain.key);
+        assertEquals(chain.engine.getLatestBlockHash(), restarted.getLatestBlockHash());
+        assertEquals(genesis, restarted.getBlockHashAtHeight(0));
+    }
+
+    @Test
+    void globalStateRoot() throws Exception {
+        TestChain chain = new TestChain();
+        KVStore<Bytes> chainStore = chain.stores.open(RocksDatabase.CHAIN, Function.identity(), Function.identity());
+        chain.engine = new Engine(chain.blockKVStore, chain.txKVStore, chain.utxoKVStore, chainStore, chain.key);
+        ECPrivateKey secondAccount = new ECPrivateKey();
+
+        this.verifiedAdvance(chain, 1);
+        Block genesis = chain.blockKVStore.get(chain.engine.getLatestBlockHash());
+        assertEquals(chain.engine.getStateRoot(), genesis.getGlobalStateRootHash());
+        Transaction input = genesis.getTxs().getFirst();
+        Transaction send = input.spend(chain.key, secondAccount.getPublicKey().getHash(), 5);
+        chain.engine.submitTransaction(send);
+        this.verifiedAdvance(chain, 2);
+        Bytes32 root = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getGlobalStateRootHash();
+        assertEquals(chain.engine.getStateRoot(), root);
+        assertNotEquals(genesis.getGlobalStateRootHash(), root);
+
+        // the trie holds exactly the utxo set, and older roots stay readable
+        GlobalState state = new GlobalState(chainStore);
+        Bytes spent = Engine.spentKey(input.getTransactionHash(), 0);
+        assertTrue(state.get(root, spent).isEmpty());
+        assertEquals(input.getOutputList().getFirst().asBytes(), state.get(genesis.getGlobalStateRootHash(), spent).get());
+        assertEquals(send.getOutputList().getFirst().asBytes(),
+                state.get(root, Engine.spentKey(send.getTransactionHash(), 0)).get());
+
+        // an engine that lost its chain store replays the state along with the index
+        Engine restarted = new Engine(chain.blockKVStore, chain.txKVStore, chain.utxoKVStore, chain.key);
+        assertEquals(root, restarted.getStateRoot());
+        restarted.advance();
+        assertEquals(2, restarted.getHeight());
+    }
+
+    @Test
+    void balances() throws Exception {
+        TestChain chain = new TestChain();
+        ECPrivateKey secondAccount = new ECPrivateKey();
+        Bytes32 first = chain.key.getPublicKey().getHash();
+        Bytes32 second = secondAccount.getPublicKey().getHash();
+
+        this.verifiedAdvance(chain, 1);
+        assertEquals(10, chain.engine.getBalance(first));
+        Transaction input = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().getFirst();
+        Transaction send = input.spend(chain.key, second, 4);
+        chain.engine.submitTransaction(send);
+        // pending transactions don't count yet
+        assertEquals(0, chain.engine.getBalance(second));
+        this.verifiedAdvance(chain, 2);
+
+        // the coinbase of the second block reuses the first one's outpoint, which send spent in the same block
+        assertEquals(6, chain.engine.getBalance(first));
+        assertEquals(4, chain.engine.getBalance(second));
+        assertEquals(List.of(new AddressIndex.Coin(send.getTransactionHash(), 0, 4)),
+                chain.engine.getUnspentOutputs(second));
+
+        // stores without a chain index get the address index rebuilt from the utxo set
+        Engine restarted = new Engine(chain.blockKVStore, chain.txKVStore, chain.utxoKVStore, chain.key);
+        assertEquals(6, restarted.getBalance(first));
+        assertEquals(chain.engine.getUnspentOutputs(second), restarted.getUnspentOutputs(second));
+    }
+
+    @Test
+    void rescanWithFilters() throws Exception {
+        TestChain chain = new TestChain();
+        ECPrivateKey wallet = new ECPrivateKey();
+        Bytes32 walletHash = wallet.getPublicKey().getHash();
+        for (int i = 1; i <= 5; i++) this.verifiedAdvance(chain, i);
+        Transaction input = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().getFirst();
+        Transaction send = input.spend(chain.key, walletHash, 3);
+        chain.engine.submitTransaction(send);
+        this.verifiedAdvance(chain, 6);
+        Bytes32 paid = chain.engine.getLatestBlockHash();
+        for (int i = 7; i <= 9; i++) this.verifiedAdvance(chain, i);
+
+        assertTrue(chain.engine.getBlockFilter(5).match(chain.key.getPublicKey().getHash()));
+        List<Block> found = chain.engine.findBlocks(0, chain.engine.getHeight(), List.of(walletHash));
+        assertEquals(List.of(paid), found.stream().map(block -> block.getHash(false)).toList());
+        // spends show up through the outpoint
+        Bytes outpoint = Bytes.concatenate(send.getTransactionHash(), Bytes.ofUnsignedInt(0));
+        assertEquals(0, chain.engine.findBlocks(0, 9, List.of(outpoint)).size());
+        assertEquals(1, chain.engine.findBlocks(5, 100, List.of(walletHash, outpoint)).size());
+    }
+
+    @Test
+    void deferredFlushNeedsChainStore() {
+        TestChain chain = new TestChain();
+        // the in-memory chain store is gone on restart, along with the record of what was flushed
+        assertThrows(IllegalStateException.class, () -> chain.engine.setUtxoFlushInterval(10));
+        chain.engine.setUtxoFlushInterval(1);
+        Engine persistent = new Engine(chain.blockKVStore, chain.txKVStore, chain.utxoKVStore,
+                chain.stores.open(RocksDatabase.CHAIN, Function.identity(), Function.identity()), chain.key);
+        persistent.setUtxoFlushInterval(10);
+    }
+
+    @Test
+    void reorganizeToHeavierBranch() throws Exception {
+        TestChain chain = new TestChain();
+        TestChain competitor = new TestChain();
+        Bytes32 receiver = new ECPrivateKey().getPublicKey().getHash();
+        this.verifiedAdvance(chain, 1);
+        Block genesis = chain.blockKVStore.get(chain.engine.getLatestBlockHash());
+        assertTrue(competitor.engine.submitBlock(genesis));
+        Transaction send = genesis.getTxs().getFirst().spend(chain.key, receiver, 5);
+        chain.engine.submitTransaction(send);
+        this.verifiedAdvance(chain, 2);
+        Bytes32 replaced = chain.engine.getLatestBlockHash();
+        assertEquals(5, chain.engine.getBalance(receiver));
+
+        competitor.engine.advance();
+        Block first = competitor.blockKVStore.get(competitor.engine.getLatestBlockHash());
+        competitor.engine.advance();
+        Block second = competitor.blockKVStore.get(competitor.engine.getLatestBlockHash());
+        // equal work keeps the branch seen first
+        assertFalse(chain.engine.submitBlock(first));
+        assertEquals(replaced, chain.engine.getLatestBlockHash());
+        assertTrue(chain.engine.submitBlock(second));
+
+        assertEquals(second.getHash(false), chain.engine.getLatestBlockHash());
+        assertEquals(first.getHash(false), chain.engine.getBlockHashAtHeight(1));
+        assertEquals(2, chain.engine.getHeight());
+        assertEquals(competitor.engine.getStateRoot(), chain.engine.getStateRoot());
+        assertEquals(competitor.utxoKVStore.entries(Bytes.of()), chain.utxoKVStore.entries(Bytes.of()));
+        assertEquals(0, chain.engine.getBalance(receiver));
+        assertEquals(10, chain.engine.getBalance(chain.key.getPublicKey().getHash()));
+        // the disconnected payment is pending again and confirms on the new branch
+        chain.engine.advance();
+        assertEquals(5, chain.engine.getBalance(receiver));
+        assertTrue(chain.engine.submitBlock(second));
+    }
+
+    @Test
+    void invalidBranchIsRolledBack() throws Exception {
+        TestChain chain = new TestChain();
+        TestChain competitor = new TestChain();
+        Bytes32 receiver = new ECPrivateKey().getPublicKey().getHash();
+        this.verifiedAdvance(chain, 1);
+        Block genesis = chain.blockKVStore.get(chain.engine.getLatestBlockHash());
+        competitor.engine.submitBlock(genesis);
+        this.verifiedAdvance(chain, 2);
+        Bytes32 tip = chain.engine.getLatestBlockHash();
+        Bytes32 stateRoot = chain.engine.getStateRoot();
+        Map<Bytes, TransactionOutput> utxos = chain.utxoKVStore.entries(Bytes.of());
+
+        Transaction coinbase = genesis.getTxs().getFirst();
+        competitor.engine.submitTransaction(coinbase.spend(chain.key, receiver, 5));
+        competitor.engine.advance();
+        Block valid = competitor.blockKVStore.get(competitor.engine.getLatestBlockHash());
+        // spends the genesis coinbase a second time
+        Block doubleSpend = new BlockProposer(competitor.key).proposeBlock(
+                valid.getHash(false), List.of(coinbase.spend(chain.key, receiver, 6)));
+
+        assertFalse(chain.engine.submitBlock(valid));
+        assertThrows(IllegalArgumentException.class, () -> chain.engine.submitBlock(doubleSpend));
+        assertEquals(tip, chain.engine.getLatestBlockHash());
+        assertEquals(stateRoot, chain.engine.getStateRoot());
+        assertEquals(utxos, chain.utxoKVStore.entries(Bytes.of()));
+        assertEquals(0, chain.engine.getBalance(receiver));
+
+        // remembered: blocks built on it are turned away without trying the branch again
+        Block descendant = new BlockProposer(competitor.key).proposeBlock(doubleSpend.getHash(false), List.of());
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> chain.engine.submitBlock(descendant));
+        assertEquals("Block " + descendant.getHash(false) + " is on an invalid branch", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> chain.engine.submitBlock(doubleSpend));
+        assertEquals(tip, chain.engine.getLatestBlockHash());
+        // the valid part of the branch can still win
+        competitor.engine.advance();
+        assertTrue(chain.engine.submitBlock(competitor.blockKVStore.get(competitor.engine.getLatestBlockHash())));
+        assertEquals(5, chain.engine.getBalance(receiver));
+    }
+
+    @Test
+    void malformedBlock() throws Exception {
+        TestChain chain = new TestChain();
+        this.verifiedAdvance(chain, 1);
+        Block block = chain.blockKVStore.get(chain.engine.getLatestBlockHash());
+        Block unsigned = Block.buildUnsignedFromTxList(block.getHash(false), block.getGlobalStateRootHash(), List.of());
+        assertThrows(IllegalArgumentException.class, () -> chain.engine.submitBlock(unsigned));
+        Block orphan = new BlockProposer(chain.key).proposeBlock(Bytes32.random(), List.of());
+        assertThrows(IllegalArgumentException.class, () -> chain.engine.submitBlock(orphan));
+    }
+
+    @Test
+    void snapshotBootstrap(@TempDir Path dir) throws Exception {
+        TestChain chain = new TestChain();
+        ECPrivateKey secondAccount = new ECPrivateKey();
+        Bytes32 second = secondAccount.getPublicKey().getHash();
+        this.verifiedAdvance(chain, 1);
+        Transaction input = chain.blockKVStore.get(chain.engine.getLatestBlockHash()).getTxs().getFirst();
+        chain.engine.submitTransaction(input.spend(chain.key, second, 4));
+        this.verifiedAdvance(chain, 2);
+        this.verifiedAdvance(chain, 3);
+        Bytes32 base = chain.engine.getBlockHashAtHeight(1);
+        Bytes32 baseRoot = chain.blockKVStore.get(base).getGlobalStateRootHash();
+        for (int i = 4; i <= 6; i++) this.verifiedAdvance(chain, i);
+
+        // taken behind the tip, so the later blocks get rolled back first
+        Path file = dir.resolve("utxos.snapshot");
+        chain.engine.exportSnapshot(base, file);
+        TestChain fresh = new TestChain();
+        fresh.engine.importSnapshot(file, base);
+        assertEquals(base, fresh.engine.getLatestBlockHash());
+        assertEquals(1, fresh.engine.getHeight());
+        assertEquals(baseRoot, fresh.engine.getStateRoot());
+        assertEquals(4, fresh.engine.getBalance(second));
+
+        // validation carries on from the snapshot block
+        for (long height = 2; height <= chain.engine.getHeight(); height++) {
+            assertTrue(fresh.engine.submitBlock(chain.blockKVStore.get(chain.engine.getBlockHashAtHeight(height))));
+        }
+        assertEquals(chain.engine.getLatestBlockHash(), fresh.engine.getLatestBlockHash());
+        assertEquals(chain.engine.getStateRoot(), fresh.engine.getStateRoot());
+        assertEquals(chain.utxoKVStore.entries(Bytes.of()), fresh.utxoKVStore.entries(Bytes.of()));
+        assertEquals(chain.engine.getUnspentOutputs(second), fresh.engine.getUnspentOutputs(second));
+        assertEquals(1, fresh.engine.findBlocks(0, 10, List.of(second)).size());
+    }
+
+    @Test
+    void snapshotExportRunsAlongsideNewBlocks(@TempDir Path dir) throws Exception {
+        TestChain chain = new TestChain();
+        for (int i = 1; i <= 3; i++) this.verifiedAdvance(chain, i);
+        Bytes32 base = chain.engine.getLatestBlockHash();
+        Path file = dir.resolve("utxos.snapshot");
+        // the export reads the trie at the block's root, blocks keep landing on top meanwhile
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                try {
+                    chain.engine.advance();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+        chain.engine.exportSnapshot(base, file);
+        producer.join();
+        assertEquals(12, chain.engine.getHeight());
+
+        TestChain fresh = new TestChain();
+        fresh.engine.importSnapshot(file, base);
+        assertEquals(chain.blockKVStore.get(base).getGlobalStateRootHash(), fresh.engine.getStateRoot());
+    }
+
+    @Test
+    void snapshotIsCheckedAgainstTheBlock(@TempDir Path dir) throws Exception {
+        TestChain chain = new TestChain();
+        this.verifiedAdvance(chain, 1);
+        this.verifiedAdvance(chain, 2);
+        Bytes32 tip = chain.engine.getLatestBlockHash();
+        Path file = dir.resolve("utxos.snapshot");
+        chain.engine.exportSnapshot(tip, file);
+
+        TestChain fresh = new TestChain();
+        assertThrows(IllegalArgumentException.class, () -> fresh.engine.importSnapshot(file, Bytes32.random()));
+        // a chunk with a valid hash but the wrong contents only fails the state root
+        Block block = chain.blockKVStore.get(tip);
+        Map<Bytes, TransactionOutput> forged = chain.utxoKVStore.entries(Bytes.of());
+        forged.put(Bytes.concatenate(Bytes32.random(), Bytes.ofUnsignedInt(0)), new TransactionOutput(Bytes32.random(), 99));
+        UtxoSnapshot.write(file, block, 1, forged, UtxoSnapshot.DEFAULT_CHUNK_SIZE);
+        assertThrows(IllegalArgumentException.class, () -> fresh.engine.importSnapshot(file, tip));
+        assertTrue(fresh.utxoKVStore.entries(Bytes.of()).isEmpty());
+        assertNull(fresh.engine.getLatestBlockHash());
+        // and a truncated file fails before anything is kept
+        chain.engine.exportSnapshot(tip, file);
+        byte[] raw = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(raw, raw.length - 10));
+        assertThrows(IOException.class, () -> fresh.engine.importSnapshot(file, tip));
+        assertTrue(fresh.utxoKVStore.entries(Bytes.of()).isEmpty());
+    }
+
     void verifiedAdvance(TestChain chain, int expectedHeight) {
         try {
             chain.engine.advance();
@@ -0,0 +1,70 @@
+package org.blockchain.consensus;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionInput;
+import org.blockchain.model.TransactionOutput;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MempoolTest {
+
+    @Test
+    void indexes() throws IOException {
+        ECPrivateKey key = new ECPrivateKey();
+        ECPrivateKey other = new ECPrivateKey();
+        Transaction coinbase = Transaction.payCoinbaseTo(key.getPublicKey().getHash());
+        Transaction parent = coinbase.spend(key, other.getPublicKey().getHash(), 5);
+        Transaction child = parent.spend(other, key.getPublicKey().getHash(), 5);
+
+        Mempool mempool = new Mempool();
+        mempool.add(parent, parent.getTransactionHash());
+        mempool.add(child, child.getTransactionHash());
+        assertEquals(2, mempool.size());
+        assertTrue(mempool.contains(parent.getTransactionHash()));
+        assertEquals(child, mempool.get(child.getTransactionHash()));
+        assertEquals(parent.getTransactionHash(), mempool.getSpender(coinbase.getTransactionHash(), 0));
+        assertEquals(child.getTransactionHash(), mempool.getSpender(parent.getTransactionHash(), 0));
+        assertNull(mempool.getSpender(parent.getTransactionHash(), 1));
+        assertEquals(List.of(parent, child), mempool.getTransactions());
+
+        Transaction conflict = coinbase.spend(key, key.getPublicKey().getHash(), 3);
+        assertThrows(IllegalStateException.class, () -> mempool.add(conflict, conflict.getTransactionHash()));
+        assertThrows(IllegalStateException.class, () -> mempool.add(parent, parent.getTransactionHash()));
+    }
+
+    @Test
+    void removeConfirmedEvictsConflicts() throws IOException {
+        ECPrivateKey key = new ECPrivateKey();
+        ECPrivateKey other = new ECPrivateKey();
+        Transaction coinbase = Transaction.payCoinbaseTo(key.getPublicKey().getHash());
+        Transaction parent = coinbase.spend(key, other.getPublicKey().getHash(), 5);
+        Transaction child = parent.spend(other, key.getPublicKey().getHash(), 5);
+        Transaction conflict = coinbase.spend(key, key.getPublicKey().getHash(), 3);
+
+        Mempool mempool = new Mempool();
+        mempool.add(parent, parent.getTransactionHash());
+        mempool.add(child, child.getTransactionHash());
+        mempool.removeConfirmed(List.of(conflict));
+        assertEquals(0, mempool.size());
+        assertNull(mempool.getSpender(coinbase.getTransactionHash(), 0));
+        assertNull(mempool.getSpender(parent.getTransactionHash(), 0));
+    }
+
+    @Test
+    void manyPending() throws IOException {
+        Mempool mempool = new Mempool();
+        for (int i = 0; i < 100_000; i++) {
+            Transaction tx = new Transaction(
+                    List.of(new TransactionInput(Bytes32.random(), 0, new byte[0], new byte[33])),
+                    List.of(new TransactionOutput(Bytes32.random(), 1)));
+            mempool.add(tx, Bytes32.random());
+        }
+        assertEquals(100_000, mempool.size());
+    }
+}
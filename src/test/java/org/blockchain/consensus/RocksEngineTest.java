@@ -0,0 +1,37 @@
+package org.blockchain.consensus;
+
+import org.blockchain.storage.RocksDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.RocksDBException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// the whole engine suite again, with every chain on its own rocksdb
+class RocksEngineTest extends EngineTest {
+    @TempDir
+    Path root;
+
+    private final List<RocksDatabase> databases = new ArrayList<>();
+
+    @Override
+    Stores newStores() {
+        try {
+            RocksDatabase db = new RocksDatabase(Files.createTempDirectory(this.root, "chain"));
+            this.databases.add(db);
+            return db::open;
+        } catch (IOException | RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @AfterEach
+    void close() {
+        for (RocksDatabase db : this.databases) db.close();
+        this.databases.clear();
+    }
+}
@@ -0,0 +1,80 @@
+package org.blockchain.consensus;
+
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.crypto.SignatureCache;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionInput;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignatureVerifierTest {
+
+    private List<Transaction> payments(int count) {
+        List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ECPrivateKey key = new ECPrivateKey();
+            Transaction coinbase = Transaction.payCoinbaseTo(key.getPublicKey().getHash());
+            txs.add(coinbase);
+            txs.add(coinbase.spendAllTo(key, new ECPrivateKey().getPublicKey().getHash()));
+        }
+        return txs;
+    }
+
+    private Transaction tampered(Transaction tx, Transaction signatureDonor) {
+        TransactionInput input = tx.getInputs()[0];
+        TransactionInput forged = new TransactionInput(
+                input.getTxHash(), input.getTxOutIdx(), signatureDonor.getInputs()[0].getSignature(),
+                input.getPublicKeyBytes());
+        return new Transaction(List.of(forged), List.of(tx.getOutputs()));
+    }
+
+    @Test
+    void sequential() {
+        List<Transaction> txs = payments(4);
+        SignatureVerifier verifier = new SignatureVerifier();
+        assertTrue(verifier.verify(txs));
+        txs.set(3, tampered(txs.get(3), txs.get(1)));
+        assertFalse(verifier.verify(txs));
+    }
+
+    @Test
+    void forkJoin() {
+        List<Transaction> txs = payments(16);
+        SignatureVerifier verifier = new SignatureVerifier(ForkJoinPool.commonPool());
+        assertTrue(verifier.verify(txs));
+        txs.set(7, tampered(txs.get(7), txs.get(1)));
+        assertFalse(verifier.verify(txs));
+    }
+
+    @Test
+    void virtualThreads() {
+        List<Transaction> txs = payments(16);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            SignatureVerifier verifier = new SignatureVerifier(executor);
+            assertTrue(verifier.verify(txs));
+            txs.set(txs.size() - 1, tampered(txs.getLast(), txs.get(1)));
+            assertFalse(verifier.verify(txs));
+        }
+    }
+
+    @Test
+    void cachesValidSignatures() {
+        List<Transaction> txs = payments(2);
+        SignatureCache cache = new SignatureCache();
+        SignatureVerifier verifier = new SignatureVerifier(null, cache);
+        assertTrue(verifier.verify(txs.get(1)));
+        assertEquals(1, cache.size());
+        assertTrue(verifier.verify(txs));
+        assertEquals(2, cache.size());
+
+        assertFalse(verifier.verify(tampered(txs.get(3), txs.get(1))));
+        assertEquals(2, cache.size());
+    }
+}
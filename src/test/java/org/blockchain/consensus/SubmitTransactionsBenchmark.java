@@ -0,0 +1,53 @@
+package org.blockchain.consensus;
+
+import org.blockchain.Benchmark;
+import org.blockchain.Benchmarks;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.blockchain.storage.MemoryTreeKVStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SubmitTransactionsBenchmark {
+    private final ECPrivateKey key = new ECPrivateKey();
+
+    // a fresh engine with count transactions, each spending the one before it, starting from the coinbase
+    private List<Transaction> spendChain(Engine engine, int count) throws Exception {
+        engine.advance();
+        Transaction previous = Block.fromBytes(engine.getRawBlock(engine.getLatestBlockHash())).getTxs().getFirst();
+        List<Transaction> txs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            previous = previous.spendAllTo(this.key, this.key.getPublicKey().getHash());
+            txs.add(previous);
+        }
+        return txs;
+    }
+
+    private Engine newEngine() {
+        return new Engine(new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes),
+                new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes),
+                new MemoryTreeKVStore<>(TransactionOutput::asBytes, TransactionOutput::fromBytes), this.key);
+    }
+
+    @Benchmark
+    void batchSubmissionThroughput() throws Exception {
+        int count = 4000;
+        Engine looped = this.newEngine();
+        Engine batched = this.newEngine();
+        List<Transaction> loopTxs = this.spendChain(looped, count);
+        List<Transaction> batchTxs = this.spendChain(batched, count);
+
+        double oneByOne = Benchmarks.perSecond(count, () -> {
+            for (Transaction tx : loopTxs) looped.submitTransaction(tx);
+        });
+        double batch = Benchmarks.perSecond(count, () -> {
+            for (Engine.SubmitResult result : batched.submitTransactions(batchTxs)) assertTrue(result.isAccepted());
+        });
+        Benchmarks.report("submit: %.0f tx/s one by one, %.0f tx/s as a batch", oneByOne, batch);
+    }
+}
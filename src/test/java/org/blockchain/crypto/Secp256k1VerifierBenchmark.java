@@ -0,0 +1,40 @@
+package org.blockchain.crypto;
+
+import org.blockchain.Benchmark;
+import org.blockchain.Benchmarks;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Secp256k1VerifierBenchmark {
+    @Benchmark
+    void verificationRate() throws Exception {
+        int keys = 64;
+        int rounds = 50;
+        byte[][] pubkeys = new byte[keys][];
+        byte[][] sigs = new byte[keys][];
+        byte[] hash = new byte[32];
+        for (int i = 0; i < keys; i++) {
+            ECPrivateKey key = new ECPrivateKey();
+            pubkeys[i] = key.getPublicKey().asBytes();
+            sigs[i] = key.sign(hash);
+        }
+        Secp256k1Verifier verifier = new Secp256k1Verifier(Secp256k1Verifier.DEFAULT_CACHE_SIZE);
+        for (int i = 0; i < keys; i++) {
+            Secp256k1VerifierTest.genericVerify(pubkeys[i], sigs[i], hash);
+            verifier.verify(pubkeys[i], sigs[i], hash);
+        }
+
+        double generic = Benchmarks.perSecond((long) keys * rounds, () -> {
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < keys; i++) assertTrue(Secp256k1VerifierTest.genericVerify(pubkeys[i], sigs[i], hash));
+            }
+        });
+        double fast = Benchmarks.perSecond((long) keys * rounds, () -> {
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < keys; i++) assertTrue(verifier.verify(pubkeys[i], sigs[i], hash));
+            }
+        });
+        Benchmarks.report("generic: %.0f verifications/s, secp256k1: %.0f verifications/s (%.1fx)",
+                generic, fast, fast / generic);
+    }
+}
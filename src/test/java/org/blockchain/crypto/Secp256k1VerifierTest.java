@@ -0,0 +1,77 @@
+package org.blockchain.crypto;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Secp256k1VerifierTest {
+
+    @Test
+    public void testMatchesGenericVerifier() throws IOException {
+        Secp256k1Verifier verifier = new Secp256k1Verifier(16);
+        for (int i = 0; i < 20; i++) {
+            ECPrivateKey key = new ECPrivateKey();
+            byte[] hash = new byte[32];
+            hash[0] = (byte) i;
+            byte[] sig = key.sign(hash);
+            byte[] pubkey = key.getPublicKey().asBytes();
+            assertTrue(verifier.verify(pubkey, sig, hash));
+            assertEquals(genericVerify(pubkey, sig, hash), verifier.verify(pubkey, sig, hash));
+
+            byte[] otherHash = hash.clone();
+            otherHash[31] ^= 1;
+            assertFalse(verifier.verify(pubkey, sig, otherHash));
+            assertFalse(verifier.verify(new ECPrivateKey().getPublicKey().asBytes(), sig, hash));
+        }
+    }
+
+    @Test
+    public void testRejectsMalformed() throws IOException {
+        ECPrivateKey key = new ECPrivateKey();
+        byte[] hash = new byte[32];
+        byte[] sig = key.sign(hash);
+        byte[] pubkey = key.getPublicKey().asBytes();
+        Secp256k1Verifier verifier = new Secp256k1Verifier(16);
+
+        assertFalse(verifier.verify(pubkey, new byte[0], hash));
+        assertFalse(verifier.verify(pubkey, Arrays.copyOf(sig, sig.length - 1), hash));
+        assertFalse(verifier.verify(pubkey, Arrays.copyOf(sig, sig.length + 1), hash));
+        byte[] badTag = sig.clone();
+        badTag[0] = 0x31;
+        assertFalse(verifier.verify(pubkey, badTag, hash));
+        byte[] badKey = pubkey.clone();
+        badKey[0] = 0x05;
+        assertFalse(verifier.verify(badKey, sig, hash));
+    }
+
+    @Test
+    public void testParseDer() throws IOException {
+        byte[] sig = new ECPrivateKey().sign(new byte[32]);
+        ASN1Sequence seq = ASN1Sequence.getInstance(sig);
+        BigInteger[] rs = Secp256k1Verifier.parseDer(sig);
+        assertNotNull(rs);
+        assertEquals(ASN1Integer.getInstance(seq.getObjectAt(0)).getValue(), rs[0]);
+        assertEquals(ASN1Integer.getInstance(seq.getObjectAt(1)).getValue(), rs[1]);
+        // a padded integer is valid BER but not DER
+        assertNull(Secp256k1Verifier.parseDer(new byte[]{0x30, 0x07, 0x02, 0x02, 0x00, 0x01, 0x02, 0x01, 0x01}));
+    }
+
+    // the previous path: ASN.1 decoding and a generic ECDSASigner over a freshly decoded point
+    static boolean genericVerify(byte[] pubkey, byte[] signature, byte[] hash) {
+        ASN1Sequence sig = ASN1Sequence.getInstance(signature);
+        BigInteger r = ASN1Integer.getInstance(sig.getObjectAt(0)).getValue();
+        BigInteger s = ASN1Integer.getInstance(sig.getObjectAt(1)).getValue();
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, new ECPublicKeyParameters(
+                ECParams.CURVE.getCurve().decodePoint(pubkey), ECParams.DOMAIN));
+        return signer.verifySignature(hash, r, s);
+    }
+}
@@ -0,0 +1,25 @@
+package org.blockchain.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SignatureCacheTest {
+
+    @Test
+    public void testBounded() {
+        SignatureCache cache = new SignatureCache(2);
+        byte[] hash = "hash".getBytes();
+        byte[] pubkey = new byte[33];
+        cache.add(hash, pubkey, new byte[]{1});
+        cache.add(hash, pubkey, new byte[]{2});
+        assertTrue(cache.contains(hash, pubkey, new byte[]{1}));
+        assertFalse(cache.contains("other".getBytes(), pubkey, new byte[]{1}));
+
+        cache.add(hash, pubkey, new byte[]{3});
+        assertEquals(2, cache.size());
+        assertFalse(cache.contains(hash, pubkey, new byte[]{1}));
+        assertTrue(cache.contains(hash, pubkey, new byte[]{2}));
+        assertTrue(cache.contains(hash, pubkey, new byte[]{3}));
+    }
+}
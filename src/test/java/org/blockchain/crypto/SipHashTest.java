@@ -0,0 +1,22 @@
+package org.blockchain.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SipHashTest {
+
+    @Test
+    public void testReferenceVectors() {
+        // key 00..0f and messages 00..(n-1) from the SipHash paper
+        byte[] key = new byte[16];
+        for (int i = 0; i < key.length; i++) key[i] = (byte) i;
+        byte[] message = new byte[15];
+        for (int i = 0; i < message.length; i++) message[i] = (byte) i;
+        SipHash sipHash = SipHash.fromKey(key);
+        assertEquals(0x726fdb47dd0e0e31L, sipHash.hash(new byte[0]));
+        assertEquals(0xa129ca6149be45e5L, sipHash.hash(message));
+        assertEquals(0x93f5f5799a932462L, sipHash.hash(message, 0, 8));
+        assertEquals(sipHash.hash(message, 0, 8), sipHash.hash(new byte[]{9, 0, 1, 2, 3, 4, 5, 6, 7}, 1, 8));
+    }
+}
@@ -0,0 +1,117 @@
+package org.blockchain.model;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.crypto.ECPrivateKey;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCodecTest {
+
+    private Block blockWithLargeTransaction(byte version) throws IOException {
+        ECPrivateKey key = new ECPrivateKey();
+        Transaction coinbase = Transaction.payCoinbaseTo(key.getPublicKey().getHash());
+        List<TransactionOutput> outputs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) outputs.add(new TransactionOutput(Bytes32.random(), i));
+        Transaction large = new Transaction(coinbase.spendAllTo(key, Bytes32.random()).getInputList(), outputs);
+        assertTrue(large.asBytes().size() > 255);
+        List<Transaction> txs = List.of(coinbase, large);
+        Block unsigned = new Block(
+                version, Block.getRootHashForTransactionList(txs), Bytes32.ZERO, Bytes32.random(),
+                new byte[0], new byte[0], txs);
+        return unsigned.signed(key);
+    }
+
+    @Test
+    void varInt() {
+        ByteBuffer buffer = ByteBuffer.allocate(BlockCodec.MAX_VARINT_SIZE * 5);
+        long[] values = {0, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE};
+        int expectedSize = 0;
+        for (long value : values) {
+            BlockCodec.writeVarInt(buffer, value);
+            expectedSize += BlockCodec.varIntSize(value);
+        }
+        assertEquals(expectedSize, buffer.position());
+        buffer.flip();
+        for (long value : values) assertEquals(value, BlockCodec.readVarInt(buffer));
+        assertEquals(1, BlockCodec.varIntSize(127));
+        assertEquals(2, BlockCodec.varIntSize(128));
+    }
+
+    @Test
+    void largeTransactionsRoundTrip() throws IOException {
+        Block block = blockWithLargeTransaction(Block.VERSION);
+        assertEquals(BlockCodec.encodedSize(block, false), block.asBytes().size());
+        Block decoded = Block.fromBytes(block.asBytes());
+        assertEquals(block, decoded);
+        assertEquals(block.getHash(), decoded.getHash());
+        assertTrue(decoded.isSignatureValid());
+        assertEquals(block.getTxs().get(1).getTransactionHash(), decoded.getTxs().get(1).getTransactionHash());
+    }
+
+    @Test
+    void legacyVersionKeepsItsEncoding() throws IOException {
+        ECPrivateKey key = new ECPrivateKey();
+        List<Transaction> txs = List.of(Transaction.payCoinbaseTo(key.getPublicKey().getHash()));
+        Block legacy = new Block(
+                BlockCodec.LEGACY_VERSION, Block.getRootHashForTransactionList(txs), Bytes32.ZERO, Bytes32.ZERO,
+                new byte[0], new byte[0], txs).signed(key);
+        // 1 version byte, 3 hashes, a 4 byte count, a 1 byte length per tx and per signature field
+        int expected = 1 + 96 + 4 + 1 + txs.getFirst().asBytes().size()
+                + 1 + legacy.getSignature().length + 1 + legacy.getSignerPubkey().length;
+        assertEquals(expected, legacy.asBytes().size());
+        Block decoded = Block.fromBytes(legacy.asBytes());
+        assertEquals(BlockCodec.LEGACY_VERSION, decoded.getVersion());
+        assertEquals(legacy.getHash(), decoded.getHash());
+        assertTrue(decoded.isSignatureValid());
+    }
+
+    @Test
+    void channelFrames() throws IOException {
+        Block first = blockWithLargeTransaction(Block.VERSION);
+        Block second = blockWithLargeTransaction(Block.VERSION);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (WritableByteChannel channel = Channels.newChannel(out)) {
+            BlockCodec.write(first, channel);
+            BlockCodec.write(second, channel);
+        }
+        try (ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(first, BlockCodec.read(channel));
+            assertEquals(second, BlockCodec.read(channel));
+            assertNull(BlockCodec.read(channel));
+        }
+    }
+
+    @Test
+    void rejectsTrailingAndMissingFields() throws IOException {
+        Block block = blockWithLargeTransaction(Block.VERSION);
+        Bytes raw = block.asBytes();
+        // extra bytes would give the same signed block another hash
+        assertThrows(IllegalArgumentException.class, () -> Block.fromBytes(Bytes.concatenate(raw, Bytes.of(0))));
+        Bytes unsigned = block.asBytes(true);
+        assertThrows(RuntimeException.class, () -> Block.fromBytes(unsigned));
+        Block decoded = Block.fromBytes(Bytes.concatenate(unsigned, Bytes.of(0, 0)));
+        assertEquals(0, decoded.getSignature().length);
+        assertFalse(decoded.isSignatureValid());
+    }
+
+    @Test
+    void transactionCountsFitTheirByte() {
+        List<TransactionOutput> outputs = new ArrayList<>();
+        for (int i = 0; i <= Transaction.MAX_OUTPUTS; i++) outputs.add(new TransactionOutput(Bytes32.random(), 1));
+        List<TransactionInput> inputs = Transaction.payCoinbaseTo(Bytes32.random()).getInputList();
+        assertThrows(IllegalArgumentException.class, () -> new Transaction(inputs, outputs));
+        assertEquals(Transaction.MAX_OUTPUTS, new Transaction(inputs, outputs.subList(1, outputs.size())).getOutputList().size());
+    }
+}
@@ -0,0 +1,65 @@
+package org.blockchain.model;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockFilterTest {
+
+    @Test
+    void matchesEveryItem() {
+        Random random = new Random(7);
+        Bytes32 blockHash = Bytes32.random(random);
+        List<Bytes> items = new ArrayList<>();
+        for (int i = 0; i < 500; i++) items.add(Bytes32.random(random));
+        BlockFilter filter = BlockFilter.build(blockHash, items);
+        assertEquals(500, filter.size());
+        BlockFilter decoded = BlockFilter.fromBytes(blockHash, filter.asBytes());
+        for (Bytes item : items) assertTrue(decoded.match(item));
+        assertTrue(decoded.matchAny(List.of(Bytes32.random(random), items.get(250))));
+        // a P bit remainder and about 2.5 bits of quotient per item
+        assertTrue(filter.asBytes().size() < 500 * (BlockFilter.P + 3) / 8 + 4);
+    }
+
+    @Test
+    void falsePositivesAreRare() {
+        Random random = new Random(11);
+        List<Bytes> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) items.add(Bytes32.random(random));
+        BlockFilter filter = BlockFilter.build(Bytes32.random(random), items);
+        List<Bytes> others = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) others.add(Bytes32.random(random));
+        int matches = 0;
+        for (Bytes other : others) if (filter.match(other)) matches++;
+        assertTrue(matches <= 2, matches + " false positives");
+        // the same filter keyed by another block hashes everything differently
+        assertFalse(BlockFilter.fromBytes(Bytes32.random(random), filter.asBytes()).matchAny(items.subList(0, 1)));
+    }
+
+    @Test
+    void emptyFilter() {
+        BlockFilter filter = BlockFilter.build(Bytes32.random(), List.of());
+        assertEquals(1, filter.asBytes().size());
+        assertFalse(filter.match(Bytes32.random()));
+    }
+
+    @Test
+    void blockItems() throws Exception {
+        Bytes32 owner = Bytes32.random();
+        Bytes32 spentTx = Bytes32.random();
+        Transaction tx = new Transaction(
+                List.of(new TransactionInput(spentTx, 3, new byte[0], new byte[33])),
+                List.of(new TransactionOutput(owner, 5)));
+        Block block = Block.buildUnsignedFromTxList(Bytes32.ZERO, Bytes32.ZERO, List.of(tx));
+        BlockFilter filter = BlockFilter.build(block);
+        assertEquals(2, filter.size());
+        assertTrue(filter.match(owner));
+        assertTrue(filter.match(Bytes.concatenate(spentTx, Bytes.ofUnsignedInt(3))));
+    }
+}
@@ -0,0 +1,74 @@
+package org.blockchain.model;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.crypto.ECPrivateKey;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactBlockTest {
+    private final ECPrivateKey key = new ECPrivateKey();
+
+    private Block block(int spends) throws IOException {
+        Transaction coinbase = Transaction.payCoinbaseTo(this.key.getPublicKey().getHash());
+        List<Transaction> txs = new ArrayList<>(List.of(coinbase));
+        for (int i = 0; i < spends; i++) txs.add(coinbase.spend(this.key, Bytes32.random(), i + 1));
+        return Block.buildUnsignedFromTxList(Bytes32.random(), Bytes32.random(), txs).signed(this.key);
+    }
+
+    @Test
+    void roundtrip() throws IOException {
+        Block block = this.block(3);
+        CompactBlock compact = CompactBlock.fromBytes(CompactBlock.of(block, 7).asBytes());
+        assertEquals(block.getHash(), compact.getBlockHash());
+        assertEquals(4, compact.getTransactionCount());
+        assertEquals(1, compact.getPrefilledCount());
+        Block rebuilt = compact.toBlock(compact.match(block.getTxs().subList(1, 4)));
+        assertEquals(block, rebuilt);
+        assertEquals(block.getHash(), rebuilt.getHash());
+        assertTrue(compact.asBytes().size() < block.asBytes().size() / 2);
+    }
+
+    @Test
+    void match() throws IOException {
+        Block block = this.block(3);
+        CompactBlock compact = CompactBlock.of(block, 1);
+        Transaction unrelated = this.block(1).getTxs().get(1);
+        Transaction[] txs = compact.match(List.of(block.getTxs().get(2), unrelated));
+        assertEquals(block.getTxs().get(0), txs[0]);
+        assertNull(txs[1]);
+        assertEquals(block.getTxs().get(2), txs[2]);
+        assertNull(txs[3]);
+        assertThrows(IllegalArgumentException.class, () -> compact.toBlock(txs));
+    }
+
+    @Test
+    void prefill() throws IOException {
+        Block block = this.block(3);
+        CompactBlock compact = CompactBlock.fromBytes(CompactBlock.of(block, 1, Set.of(2)).asBytes());
+        assertEquals(2, compact.getPrefilledCount());
+        Transaction[] txs = compact.match(List.of());
+        assertEquals(block.getTxs().get(2), txs[2]);
+        assertNull(txs[1]);
+    }
+
+    @Test
+    void saltChangesIds() throws IOException {
+        Block block = this.block(1);
+        Bytes32 txHash = block.getTxs().get(1).getTransactionHash();
+        assertNotEquals(CompactBlock.of(block, 1).shortId(txHash), CompactBlock.of(block, 2).shortId(txHash));
+        assertEquals(0, CompactBlock.of(block, 1).shortId(txHash) >>> 8 * CompactBlock.SHORT_ID_SIZE);
+    }
+
+    @Test
+    void malformed() throws IOException {
+        byte[] raw = CompactBlock.of(this.block(2), 1).asBytes().toArray();
+        assertThrows(RuntimeException.class, () -> CompactBlock.fromBytes(Bytes.wrap(raw, 0, raw.length - 1)));
+    }
+}
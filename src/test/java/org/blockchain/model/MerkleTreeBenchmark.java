@@ -0,0 +1,23 @@
+package org.blockchain.model;
+
+import org.blockchain.Benchmark;
+import org.blockchain.Benchmarks;
+
+import java.util.List;
+
+class MerkleTreeBenchmark {
+    @Benchmark
+    void rootOf10kTransactions() throws Exception {
+        int rounds = 20;
+        List<Transaction> txs = MerkleTreeTest.transactions(10_000);
+        for (Transaction tx : txs) tx.getTransactionHash();
+        for (int i = 0; i < 3; i++) {
+            Block.getRootHashForTransactionList(txs);
+            MerkleTree.root(txs);
+        }
+
+        double trie = Benchmarks.millis(rounds, () -> Block.getRootHashForTransactionList(txs));
+        double tree = Benchmarks.millis(rounds, () -> MerkleTree.root(txs));
+        Benchmarks.report("10k txs root: patricia trie %.2f ms, merkle tree %.2f ms (%.1fx)", trie, tree, trie / tree);
+    }
+}
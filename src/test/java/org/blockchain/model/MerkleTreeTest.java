@@ -0,0 +1,85 @@
+package org.blockchain.model;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.bouncycastle.jcajce.provider.digest.SHA3;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MerkleTreeTest {
+
+    private static Bytes32 node(Bytes32 left, Bytes32 right) {
+        SHA3.DigestSHA3 sha3 = new SHA3.Digest256();
+        sha3.update(MerkleTree.NODE_PREFIX);
+        sha3.update(left.toArrayUnsafe());
+        sha3.update(right.toArrayUnsafe());
+        return Bytes32.wrap(sha3.digest());
+    }
+
+    // hashes level by level with one object per node, the way the flat arrays are meant to behave
+    private static Bytes32 naiveRoot(List<Bytes32> level) {
+        while (level.size() > 1) {
+            List<Bytes32> parent = new ArrayList<>();
+            for (int i = 0; i + 1 < level.size(); i += 2) parent.add(node(level.get(i), level.get(i + 1)));
+            if (level.size() % 2 == 1) parent.add(level.getLast());
+            level = parent;
+        }
+        return level.getFirst();
+    }
+
+    static List<Transaction> transactions(int count) {
+        List<Transaction> txs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            txs.add(new Transaction(
+                    List.of(new TransactionInput(Bytes32.random(), 0, new byte[0], new byte[33])),
+                    List.of(new TransactionOutput(Bytes32.random(), 1))));
+        }
+        return txs;
+    }
+
+    @Test
+    void smallTrees() {
+        Bytes32 a = Bytes32.random();
+        Bytes32 b = Bytes32.random();
+        Bytes32 c = Bytes32.random();
+        assertEquals(Bytes32.ZERO, MerkleTree.root(List.of()));
+        assertEquals(a, MerkleTree.root(a.toArray(), 1));
+        assertEquals(node(a, b), MerkleTree.root(Bytes.concatenate(a, b).toArray(), 2));
+        // c has no sibling and is promoted as is
+        assertEquals(node(node(a, b), c), MerkleTree.root(Bytes.concatenate(a, b, c).toArray(), 3));
+    }
+
+    @Test
+    void matchesNaiveTree() throws IOException {
+        for (int count : new int[]{5, 64, 1023, 1025, 5000}) {
+            List<Transaction> txs = transactions(count);
+            List<Bytes32> hashes = new ArrayList<>();
+            for (Transaction tx : txs) hashes.add(tx.getTransactionHash());
+            assertEquals(naiveRoot(hashes), MerkleTree.root(txs));
+        }
+    }
+
+    @Test
+    void blockVersions() throws IOException {
+        List<Transaction> txs = transactions(3);
+        Block block = Block.buildUnsignedFromTxList(Bytes32.ZERO, Bytes32.ZERO, txs);
+        assertEquals(Block.VERSION, block.getVersion());
+        assertEquals(MerkleTree.root(txs), block.getTransactionsRootHash());
+        assertTrue(block.hasValidTransactionsRoot());
+
+        // earlier versions still validate against their patricia trie root
+        Block legacy = new Block(
+                (byte) 1, Block.getRootHashForTransactionList(txs), Bytes32.ZERO, Bytes32.ZERO,
+                new byte[0], new byte[0], txs);
+        assertTrue(legacy.hasValidTransactionsRoot());
+        Block mismatched = new Block(
+                Block.VERSION, Block.getRootHashForTransactionList(txs), Bytes32.ZERO, Bytes32.ZERO,
+                new byte[0], new byte[0], txs);
+        assertFalse(mismatched.hasValidTransactionsRoot());
+    }
+}
@@ -1,5 +1,6 @@
 package org.blockchain.model;
 
+import org.apache.tuweni.bytes.Bytes;
 import org.apache.tuweni.bytes.Bytes32;
 import org.blockchain.crypto.ECPrivateKey;
 import org.junit.jupiter.api.Test;
@@ -39,4 +40,43 @@ class TransactionTest {
         Transaction payment = coinbase.spendAllTo(privKey, anotherPrivKey.getPublicKey().getHash());
         assertTrue(payment.verifySignatures());
     }
-}
\ No newline at end of file
+
+    @Test
+    void fromBytesKeepsOriginalBytes() throws IOException {
+        ECPrivateKey privKey = new ECPrivateKey();
+        Transaction coinbase = Transaction.payCoinbaseTo(privKey.getPublicKey().getHash());
+        Transaction payment = coinbase.spend(privKey, Bytes32.random(), 4);
+
+        Bytes raw = payment.asBytes();
+        assertSame(raw, payment.asBytes());
+        Transaction decoded = Transaction.fromBytes(raw);
+        assertSame(raw, decoded.asBytes());
+        assertEquals(payment.getTransactionHash(), decoded.getTransactionHash());
+        assertSame(decoded.getTransactionHash(), decoded.getTransactionHash());
+        assertEquals(payment, decoded);
+        assertEquals(2, decoded.getOutputList().size());
+        assertEquals(payment.getInputList(), decoded.getInputList());
+        assertThrows(UnsupportedOperationException.class, () -> decoded.getOutputList().clear());
+        assertTrue(decoded.verifySignatures());
+    }
+
+    @Test
+    void rejectsNonCanonicalEncodings() {
+        ECPrivateKey privKey = new ECPrivateKey();
+        Transaction payment = Transaction.payCoinbaseTo(privKey.getPublicKey().getHash()).spend(privKey, Bytes32.random(), 4);
+        Bytes raw = payment.asBytes();
+
+        // same inputs, outputs and signatures, but another txid if it were accepted
+        Transaction padded = Transaction.fromBytes(Bytes.concatenate(raw, Bytes.of(0)));
+        assertThrows(IllegalArgumentException.class, padded::getInputList);
+        assertThrows(IllegalArgumentException.class, () -> Transaction.fromBytes(raw.slice(0, raw.size() - 1)).getOutputList());
+        // the last output slice claims one byte more than an output takes
+        byte[] longerOutput = Bytes.concatenate(raw, Bytes.of(0)).toArray();
+        longerOutput[raw.size() - TransactionOutput.SIZE - 1]++;
+        assertThrows(IllegalArgumentException.class, () -> Transaction.fromBytes(Bytes.wrap(longerOutput)).getOutputList());
+        // the first input's output index, after the version, the input count, the input's size and the tx hash
+        byte[] negativeIndex = raw.toArray();
+        negativeIndex[1 + 1 + 1 + 32] = (byte) 0x80;
+        assertThrows(IllegalArgumentException.class, () -> Transaction.fromBytes(Bytes.wrap(negativeIndex)).getInputList());
+    }
+}
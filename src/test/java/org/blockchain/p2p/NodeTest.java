@@ -0,0 +1,213 @@
+package org.blockchain.p2p;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.consensus.Engine;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.CompactBlock;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.blockchain.storage.MemoryTreeKVStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.blockchain.model.BlockCodec.MAX_VARINT_SIZE;
+import static org.blockchain.model.BlockCodec.writeVarInt;
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeTest {
+    private final List<Peer> peers = new ArrayList<>();
+
+    private class Peer {
+        final ECPrivateKey key = new ECPrivateKey();
+        final Engine engine = new Engine(
+                new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes),
+                new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes),
+                new MemoryTreeKVStore<>(TransactionOutput::asBytes, TransactionOutput::fromBytes),
+                this.key);
+        final LoopbackTransport transport;
+        final Node node;
+
+        Peer(String id) {
+            this.transport = new LoopbackTransport(id);
+            this.node = new Node(this.engine, this.transport);
+            NodeTest.this.peers.add(this);
+        }
+
+        Block advance() throws Exception {
+            this.engine.advance();
+            Block block = Block.fromBytes(this.engine.getRawBlock(this.engine.getLatestBlockHash()));
+            this.node.announceBlock(block);
+            return block;
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (Peer peer : this.peers) {
+            peer.node.close();
+            peer.transport.close();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) Thread.sleep(5);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static void awaitTip(Peer peer, Bytes32 hash) throws InterruptedException {
+        await(() -> hash.equals(peer.engine.getLatestBlockHash()));
+    }
+
+    @Test
+    void propagation() throws Exception {
+        // a line, so everything c gets was relayed by b
+        Peer a = new Peer("a"), b = new Peer("b"), c = new Peer("c");
+        LoopbackTransport.connect(a.transport, b.transport);
+        LoopbackTransport.connect(b.transport, c.transport);
+        Block genesis = a.advance();
+        awaitTip(c, genesis.getHash());
+
+        Transaction send = genesis.getTxs().getFirst().spend(a.key, new ECPrivateKey().getPublicKey().getHash(), 5);
+        a.node.broadcastTransaction(send);
+        await(() -> c.engine.getMempoolTransactions().size() == 1);
+
+        Block block = a.advance();
+        assertEquals(2, block.getTxs().size());
+        awaitTip(c, block.getHash());
+        // every block was rebuilt from the mempool and the coinbase that came with it
+        for (Peer peer : List.of(b, c)) {
+            assertEquals(2, peer.node.getBlocksReconstructed());
+            assertEquals(0, peer.node.getTransactionsFetched());
+            assertEquals(0, peer.node.getFullBlocksFetched());
+            assertEquals(block.getGlobalStateRootHash(), peer.engine.getStateRoot());
+            assertTrue(peer.engine.getMempoolTransactions().isEmpty());
+        }
+    }
+
+    @Test
+    void missingTransactionIsFetched() throws Exception {
+        Peer a = new Peer("a"), b = new Peer("b");
+        LoopbackTransport.connect(a.transport, b.transport);
+        Block genesis = a.advance();
+        awaitTip(b, genesis.getHash());
+
+        // admitted at a only, b never heard of it
+        a.engine.submitTransaction(genesis.getTxs().getFirst().spend(a.key, b.key.getPublicKey().getHash(), 5));
+        Block block = a.advance();
+        awaitTip(b, block.getHash());
+        assertEquals(1, b.node.getTransactionsFetched());
+        assertEquals(0, b.node.getFullBlocksFetched());
+        assertEquals(2, b.node.getBlocksReconstructed());
+        assertEquals(5, b.engine.getBalance(b.key.getPublicKey().getHash()));
+    }
+
+    @Test
+    void compactBlocksSaveBandwidth() throws Exception {
+        Peer a = new Peer("a"), b = new Peer("b");
+        LoopbackTransport.connect(a.transport, b.transport);
+        Block genesis = a.advance();
+        awaitTip(b, genesis.getHash());
+
+        Transaction previous = genesis.getTxs().getFirst();
+        for (int i = 0; i < 50; i++) {
+            previous = previous.spendAllTo(a.key, a.key.getPublicKey().getHash());
+            a.node.broadcastTransaction(previous);
+        }
+        await(() -> b.engine.getMempoolTransactions().size() == 50);
+
+        long before = a.transport.getBytesSent();
+        Block block = a.advance();
+        awaitTip(b, block.getHash());
+        long relayed = a.transport.getBytesSent() - before;
+        assertEquals(51, block.getTxs().size());
+        assertTrue(relayed < block.asBytes().size() / 4, relayed + " bytes for a " + block.asBytes().size() + " byte block");
+    }
+
+    @Test
+    void unknownParentIsRejected() throws Exception {
+        Peer a = new Peer("a"), b = new Peer("b");
+        Block genesis = a.advance();
+        Block orphan = a.advance();
+        // connected too late for the genesis block, b can't place the second one
+        LoopbackTransport.connect(a.transport, b.transport);
+        a.node.announceBlock(orphan);
+        a.node.announceBlock(genesis);
+        awaitTip(b, genesis.getHash());
+        assertEquals(0, b.engine.getHeight());
+    }
+
+    // a block only a has the transactions of, and a peer m that announces it to b first and never answers
+    private Block announcedBySilentPeer(Peer a, Peer b, LoopbackTransport silent) throws Exception {
+        LoopbackTransport.connect(a.transport, b.transport);
+        LoopbackTransport.connect(silent, b.transport);
+        Block genesis = a.advance();
+        awaitTip(b, genesis.getHash());
+        a.engine.submitTransaction(genesis.getTxs().getFirst().spend(a.key, b.key.getPublicKey().getHash(), 5));
+        a.engine.advance();
+        Block block = Block.fromBytes(a.engine.getRawBlock(a.engine.getLatestBlockHash()));
+        silent.send(b.transport.getId(), new Message(Message.COMPACT_BLOCK, CompactBlock.of(block, 1).asBytes()));
+        await(() -> b.node.getTransactionsFetched() == 1);
+        return block;
+    }
+
+    @Test
+    void unansweredRequestExpires() throws Exception {
+        Peer a = new Peer("a"), b = new Peer("b");
+        LoopbackTransport silent = new LoopbackTransport("m");
+        b.node.setPartialTimeout(Duration.ZERO);
+        Block block = this.announcedBySilentPeer(a, b, silent);
+        // expired by the time a's announcement comes in, which starts over with a
+        a.node.announceBlock(block);
+        awaitTip(b, block.getHash());
+        assertEquals(2, b.node.getTransactionsFetched());
+        assertEquals(0, b.node.getFullBlocksFetched());
+        silent.close();
+    }
+
+    @Test
+    void unansweredRequestFallsBackToAnotherAnnouncer() throws Exception {
+        Peer a = new Peer("a"), b = new Peer("b");
+        LoopbackTransport silent = new LoopbackTransport("m");
+        b.node.setPartialTimeout(Duration.ofMillis(500));
+        Block block = this.announcedBySilentPeer(a, b, silent);
+        // still waiting on m, a is only noted down
+        a.node.announceBlock(block);
+        // nothing else arrives, the expiry clock alone asks a for the whole block
+        awaitTip(b, block.getHash());
+        assertEquals(1, b.node.getTransactionsFetched());
+        assertEquals(1, b.node.getFullBlocksFetched());
+        silent.close();
+    }
+
+    @Test
+    void malformedAnswerFallsBackToTheWholeBlock() throws Exception {
+        Peer a = new Peer("a"), b = new Peer("b");
+        LoopbackTransport silent = new LoopbackTransport("m");
+        Block block = this.announcedBySilentPeer(a, b, silent);
+        // one transaction whose length varint reads back negative
+        ByteBuffer answer = ByteBuffer.allocate(32 + 2 * MAX_VARINT_SIZE);
+        block.getHash().appendTo(answer);
+        writeVarInt(answer, 1);
+        writeVarInt(answer, Long.MIN_VALUE);
+        silent.send("b", new Message(Message.BLOCK_TXS, Bytes.wrap(answer.array(), 0, answer.position())));
+        await(() -> b.node.getFullBlocksFetched() == 1);
+        silent.close();
+
+        // and one that doesn't decode as a transaction
+        Peer c = new Peer("c"), d = new Peer("d");
+        LoopbackTransport other = new LoopbackTransport("n");
+        Block next = this.announcedBySilentPeer(c, d, other);
+        other.send("d", new Message(Message.BLOCK_TXS, Bytes.concatenate(next.getHash(), Bytes.fromHexString("0102ffff"))));
+        await(() -> d.node.getFullBlocksFetched() == 1);
+        other.close();
+    }
+}
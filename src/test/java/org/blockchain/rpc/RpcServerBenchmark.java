@@ -0,0 +1,60 @@
+package org.blockchain.rpc;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.Benchmark;
+import org.blockchain.Benchmarks;
+import org.blockchain.consensus.Engine;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.blockchain.storage.MemoryTreeKVStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.blockchain.rpc.RpcProtocol.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RpcServerBenchmark {
+    // loopback, so this is the server and the framing, no network
+    @Benchmark
+    void throughput() throws Exception {
+        ECPrivateKey key = new ECPrivateKey();
+        Engine engine = new Engine(new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes),
+                new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes),
+                new MemoryTreeKVStore<>(TransactionOutput::asBytes, TransactionOutput::fromBytes), key);
+        engine.advance();
+        int batches = 20_000;
+        int batchSize = 32;
+        Bytes32 tip = engine.getLatestBlockHash();
+        Bytes32 owner = key.getPublicKey().getHash();
+        List<Request> batch = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(i % 2 == 0 ? new Request(GET_BLOCK, tip) : new Request(GET_BALANCE, owner));
+        }
+        try (RpcServer server = new RpcServer(engine); RpcClient client = RpcClient.loopback(server)) {
+            for (int i = 0; i < 1000; i++) client.call(batch);
+            double oneByOne = Benchmarks.perSecond(batches, () -> {
+                for (int i = 0; i < batches; i++) client.call(List.of(batch.getFirst()));
+            });
+            double batched = Benchmarks.perSecond(batches, () -> {
+                for (int i = 0; i < batches / batchSize; i++) client.call(batch);
+            });
+            // a second thread keeps the pipe full while this one drains the answers
+            double pipelined = Benchmarks.perSecond(batches, () -> {
+                Thread sender = Thread.ofVirtual().start(() -> {
+                    try {
+                        for (int i = 0; i < batches / batchSize; i++) client.send(batch);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                for (int i = 0; i < batches / batchSize; i++) assertEquals(batchSize, client.receive().size());
+                sender.join();
+            });
+            Benchmarks.report("calls/s: %.0f one by one, %.0f in batches of %d, %.0f batched and pipelined",
+                    oneByOne, batched, batchSize, pipelined);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.blockchain.rpc;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.consensus.Engine;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.blockchain.storage.KVStore;
+import org.blockchain.storage.MemoryTreeKVStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.blockchain.rpc.RpcProtocol.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RpcServerTest {
+    private KVStore<Block> blocks;
+    private ECPrivateKey key;
+    private Engine engine;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        this.blocks = new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes);
+        this.key = new ECPrivateKey();
+        this.engine = new Engine(this.blocks, new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes),
+                new MemoryTreeKVStore<>(TransactionOutput::asBytes, TransactionOutput::fromBytes), this.key);
+        this.engine.advance();
+    }
+
+    @Test
+    void methods() throws Exception {
+        try (RpcServer server = new RpcServer(this.engine); RpcClient client = RpcClient.loopback(server)) {
+            Bytes32 tip = this.engine.getLatestBlockHash();
+            Block block = this.blocks.get(tip);
+            assertEquals(new RpcClient.Tip(tip, 0), client.getTip());
+            assertEquals(block, client.getBlock(tip));
+            assertNull(client.getBlock(Bytes32.random()));
+
+            Transaction coinbase = block.getTxs().getFirst();
+            Bytes32 owner = this.key.getPublicKey().getHash();
+            assertEquals(coinbase.getOutputList().getFirst(), client.getUtxo(coinbase.getTransactionHash(), 0));
+            assertEquals(10, client.getBalance(owner));
+
+            Bytes32 receiver = Bytes32.random();
+            Transaction send = coinbase.spend(this.key, receiver, 3);
+            assertEquals(send.getTransactionHash(), client.submitTransaction(send));
+            Exception rejected = assertThrows(Exception.class, () -> client.submitTransaction(send));
+            assertEquals("Transaction already in mempool", rejected.getMessage());
+            this.engine.advance();
+            assertEquals(send.getTransactionHash(), client.getTransaction(send.getTransactionHash()).getTransactionHash());
+            assertEquals(3, client.getBalance(receiver));
+            assertEquals(1, client.getTip().height());
+        }
+    }
+
+    @Test
+    void batchesAndBadRequests() throws Exception {
+        try (RpcServer server = new RpcServer(this.engine); RpcClient client = RpcClient.loopback(server)) {
+            Bytes32 tip = this.engine.getLatestBlockHash();
+            List<Response> responses = client.call(List.of(
+                    new Request(GET_TIP, Bytes.EMPTY),
+                    new Request(GET_BLOCK, tip),
+                    new Request(GET_BLOCK, Bytes.of(1, 2, 3)),
+                    new Request((byte) 99, Bytes.EMPTY),
+                    new Request(SUBMIT_TRANSACTION, Bytes.of(7)),
+                    new Request(GET_TX, Bytes32.random())));
+            assertEquals(6, responses.size());
+            assertEquals(OK, responses.get(0).status());
+            // the block goes out exactly as it was stored
+            assertEquals(this.blocks.getRaw(tip), responses.get(1).body());
+            assertEquals(BAD_REQUEST, responses.get(2).status());
+            assertEquals(BAD_REQUEST, responses.get(3).status());
+            assertEquals(ERROR, responses.get(4).status());
+            assertEquals(NOT_FOUND, responses.get(5).status());
+            assertEquals(0, client.call(List.of()).size());
+        }
+    }
+
+    @Test
+    void oversizedResponseOnlyFailsItself() throws Exception {
+        RpcServer server = new RpcServer(this.engine);
+        Bytes32 tip = this.engine.getLatestBlockHash();
+        int block = 5 + this.blocks.getRaw(tip).size();
+        int error = 5 + "Response too large".length();
+        // room for one block, an error and the tip
+        long limit = block + 2 * error + 5 + 40;
+        List<RpcProtocol.Call> responses = server.handle(List.of(
+                new RpcProtocol.Call(GET_BLOCK, tip),
+                new RpcProtocol.Call(GET_BLOCK, tip),
+                new RpcProtocol.Call(GET_TIP, Bytes.EMPTY)), limit);
+        assertEquals(OK, responses.get(0).code());
+        assertEquals(ERROR, responses.get(1).code());
+        assertEquals(OK, responses.get(2).code());
+    }
+
+    @Test
+    void submittedTransactionIsCopiedOutOfTheFrame() throws Exception {
+        Transaction send = this.blocks.get(this.engine.getLatestBlockHash()).getTxs().getFirst()
+                .spend(this.key, Bytes32.random(), 3);
+        byte[] frame = Bytes.concatenate(Bytes.of(1, 2, 3), send.asBytes()).toArray();
+        RpcServer server = new RpcServer(this.engine);
+        Bytes argument = Bytes.wrap(frame, 3, send.asBytes().size());
+        assertEquals(OK, server.handle(List.of(new RpcProtocol.Call(SUBMIT_TRANSACTION, argument))).getFirst().code());
+        // the frame is garbage once answered, the mempool must not be holding on to it
+        Arrays.fill(frame, (byte) 0);
+        assertEquals(send.asBytes(), this.engine.getMempoolTransactions().getFirst().asBytes());
+    }
+
+    @Test
+    void pipelining() throws Exception {
+        try (RpcServer server = new RpcServer(this.engine); RpcClient client = RpcClient.loopback(server)) {
+            Bytes32 tip = this.engine.getLatestBlockHash();
+            List<Integer> ids = new ArrayList<>();
+            for (int i = 0; i < 50; i++) ids.add(client.send(List.of(new Request(GET_BLOCK, i % 2 == 0 ? tip : Bytes32.random()))));
+            for (int i = 0; i < ids.size(); i++) {
+                assertEquals(i % 2 == 0 ? OK : NOT_FOUND, client.receive().getFirst().status());
+            }
+        }
+    }
+
+    @Test
+    void socket() throws Exception {
+        try (RpcServer server = new RpcServer(this.engine)) {
+            InetSocketAddress address = server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (RpcClient first = RpcClient.connect(address); RpcClient second = RpcClient.connect(address)) {
+                assertEquals(this.engine.getLatestBlockHash(), first.getTip().hash());
+                assertEquals(this.engine.getLatestBlockHash(), second.getTip().hash());
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AddressIndexTest {
+
+    @Test
+    void coinsByOwner() {
+        MemoryTreeKVStore<Bytes> store = new MemoryTreeKVStore<>(Function.identity(), Function.identity());
+        AddressIndex index = new AddressIndex(store);
+        Bytes32 alice = Bytes32.random();
+        Bytes32 bob = Bytes32.random();
+        Bytes32 txHash = Bytes32.random();
+        KVBatch batch = new KVBatch();
+        index.add(batch, alice, Bytes.concatenate(txHash, Bytes.ofUnsignedInt(0)), 5);
+        index.add(batch, bob, Bytes.concatenate(txHash, Bytes.ofUnsignedInt(1)), 3);
+        index.add(batch, alice, Bytes.concatenate(txHash, Bytes.ofUnsignedInt(2)), 2);
+        batch.commit();
+
+        assertEquals(7, index.getBalance(alice));
+        assertEquals(List.of(new AddressIndex.Coin(txHash, 0, 5), new AddressIndex.Coin(txHash, 2, 2)),
+                index.getCoins(alice));
+        batch = new KVBatch();
+        index.remove(batch, alice, Bytes.concatenate(txHash, Bytes.ofUnsignedInt(0)));
+        batch.commit();
+        assertEquals(2, index.getBalance(alice));
+        assertEquals(3, index.getBalance(bob));
+        assertEquals(0, index.getBalance(Bytes32.random()));
+        assertTrue(index.getCoins(Bytes32.random()).isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.consensus.BlockProposer;
+import org.blockchain.consensus.Engine;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockFileStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private List<Block> chain(int length) throws Exception {
+        BlockProposer proposer = new BlockProposer(new ECPrivateKey());
+        List<Block> blocks = new ArrayList<>();
+        Bytes32 previous = Bytes32.ZERO;
+        for (int i = 0; i < length; i++) {
+            Block block = proposer.proposeBlock(previous, List.of());
+            blocks.add(block);
+            previous = block.getHash();
+        }
+        return blocks;
+    }
+
+    @Test
+    void putAndGet() throws Exception {
+        List<Block> blocks = this.chain(3);
+        try (BlockFileStore store = new BlockFileStore(dir)) {
+            for (Block block : blocks) assertTrue(store.put(block.getHash(), block));
+            assertFalse(store.put(blocks.getFirst().getHash(), blocks.getFirst()));
+            for (Block block : blocks) {
+                assertEquals(block.asBytes(), store.getRaw(block.getHash()));
+                assertEquals(block.getHash(), store.get(block.getHash()).getHash());
+            }
+            assertNull(store.get(Bytes32.random()));
+            assertEquals(3, store.iter(Bytes.of()).size());
+        }
+    }
+
+    @Test
+    void rollsSegmentsAndReopens() throws Exception {
+        List<Block> blocks = this.chain(10);
+        KVStore<Bytes> index = new MemoryTreeKVStore<>(Function.identity(), Function.identity());
+        long segmentSize = 3L * (36 + blocks.getFirst().asBytes().size());
+        try (BlockFileStore store = new BlockFileStore(dir, index, segmentSize)) {
+            for (Block block : blocks) store.put(block.getHash(), block);
+        }
+        assertTrue(Files.exists(dir.resolve("blk00003.dat")));
+
+        // a fresh index is rebuilt from the segments
+        try (BlockFileStore store = new BlockFileStore(dir)) {
+            for (Block block : blocks) assertEquals(block.asBytes(), store.getRaw(block.getHash()));
+        }
+        // a persisted index is reused as is
+        try (BlockFileStore store = new BlockFileStore(dir, index, segmentSize)) {
+            for (Block block : blocks) assertEquals(block.asBytes(), store.getRaw(block.getHash()));
+        }
+    }
+
+    @Test
+    void dropsTornRecord() throws Exception {
+        List<Block> blocks = this.chain(2);
+        try (BlockFileStore store = new BlockFileStore(dir)) {
+            store.put(blocks.getFirst().getHash(), blocks.getFirst());
+        }
+        Path segment = dir.resolve("blk00000.dat");
+        long complete = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 1, 0, 1, 2, 3}));
+        }
+        try (BlockFileStore store = new BlockFileStore(dir)) {
+            assertEquals(complete, Files.size(segment));
+            assertEquals(1, store.iter(Bytes.of()).size());
+            store.put(blocks.getLast().getHash(), blocks.getLast());
+            assertEquals(blocks.getLast().asBytes(), store.getRaw(blocks.getLast().getHash()));
+        }
+    }
+
+    @Test
+    void transferTo() throws Exception {
+        Block block = this.chain(1).getFirst();
+        try (BlockFileStore store = new BlockFileStore(dir)) {
+            store.put(block.getHash(), block);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(store.transferTo(block.getHash(), Channels.newChannel(out)));
+            assertEquals(block.asBytes(), Bytes.wrap(out.toByteArray()));
+            assertFalse(store.transferTo(Bytes32.random(), Channels.newChannel(out)));
+        }
+    }
+
+    @Test
+    void engineTransfer() throws Exception {
+        try (BlockFileStore blocks = new BlockFileStore(dir)) {
+            KVStore<Transaction> txs = new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes);
+            KVStore<TransactionOutput> utxos = new MemoryTreeKVStore<>(
+                    TransactionOutput::asBytes, TransactionOutput::fromBytes);
+            ECPrivateKey key = new ECPrivateKey();
+            ECPrivateKey secondAccount = new ECPrivateKey();
+            Engine engine = new Engine(blocks, txs, utxos, key);
+
+            engine.advance();
+            Transaction input = blocks.get(engine.getLatestBlockHash()).getTxs().getFirst();
+            engine.submitTransaction(input.spend(key, secondAccount.getPublicKey().getHash(), 5));
+            engine.advance();
+            assertEquals(1, engine.getHeight());
+            assertEquals(2, blocks.get(engine.getLatestBlockHash()).getTxs().size());
+        }
+    }
+}
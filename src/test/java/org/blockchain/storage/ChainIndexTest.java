@@ -0,0 +1,93 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChainIndexTest {
+
+    @Test
+    void connect() {
+        MemoryTreeKVStore<Bytes> store = new MemoryTreeKVStore<>(Function.identity(), Function.identity());
+        ChainIndex index = new ChainIndex(store);
+        assertTrue(index.isEmpty());
+        assertEquals(-1, index.getTipHeight());
+
+        Bytes32 genesis = Bytes32.random();
+        Bytes32 second = Bytes32.random();
+        KVBatch batch = new KVBatch();
+        index.connect(batch, genesis, Bytes32.ZERO);
+        assertTrue(index.isEmpty());
+        batch.commit();
+        batch = new KVBatch();
+        index.connect(batch, second, genesis);
+        batch.commit();
+
+        assertEquals(second, index.getTip());
+        assertEquals(1, index.getTipHeight());
+        assertEquals(genesis, index.getHashAtHeight(0));
+        assertEquals(second, index.getHashAtHeight(1));
+        assertNull(index.getHashAtHeight(2));
+        assertEquals(new ChainIndex.Entry(1, genesis), index.getEntry(second));
+
+        ChainIndex reopened = new ChainIndex(store);
+        assertEquals(second, reopened.getTip());
+        assertEquals(1, reopened.getTipHeight());
+    }
+
+    @Test
+    void sideBranchAndDisconnect() {
+        MemoryTreeKVStore<Bytes> store = new MemoryTreeKVStore<>(Function.identity(), Function.identity());
+        ChainIndex index = new ChainIndex(store);
+        Bytes32 genesis = Bytes32.random();
+        Bytes32 main = Bytes32.random();
+        Bytes32 side = Bytes32.random();
+        KVBatch batch = new KVBatch();
+        index.connect(batch, genesis, Bytes32.ZERO);
+        batch.commit();
+        batch = new KVBatch();
+        index.connect(batch, main, genesis);
+        batch.commit();
+        batch = new KVBatch();
+        assertEquals(new ChainIndex.Entry(1, genesis, 2), index.add(batch, side, genesis));
+        batch.commit();
+
+        assertEquals(main, index.getTip());
+        assertEquals(2, index.getTipWork());
+        assertTrue(index.isOnMainChain(main));
+        assertFalse(index.isOnMainChain(side));
+        assertThrows(IllegalArgumentException.class, () -> index.disconnect(new KVBatch(), side));
+
+        batch = new KVBatch();
+        index.disconnect(batch, main);
+        batch.commit();
+        assertEquals(genesis, index.getTip());
+        assertEquals(0, index.getTipHeight());
+        assertNull(index.getHashAtHeight(1));
+        assertFalse(index.isOnMainChain(main));
+        batch = new KVBatch();
+        index.connect(batch, side, genesis);
+        batch.commit();
+        assertEquals(side, new ChainIndex(store).getTip());
+
+        batch = new KVBatch();
+        index.disconnect(batch, side);
+        batch.commit();
+        batch = new KVBatch();
+        index.disconnect(batch, genesis);
+        batch.commit();
+        assertTrue(index.isEmpty());
+        assertTrue(new ChainIndex(store).isEmpty());
+    }
+
+    @Test
+    void unknownParent() {
+        ChainIndex index = new ChainIndex(new MemoryTreeKVStore<>(Function.identity(), Function.identity()));
+        assertThrows(IllegalArgumentException.class,
+                () -> index.connect(new KVBatch(), Bytes32.random(), Bytes32.random()));
+    }
+}
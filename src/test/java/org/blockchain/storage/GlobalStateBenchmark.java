@@ -0,0 +1,31 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.Benchmark;
+import org.blockchain.Benchmarks;
+
+import java.util.function.Function;
+
+class GlobalStateBenchmark {
+    private static Bytes32 commitRandom(GlobalState state, Bytes32 root, int count) {
+        GlobalState.Update update = state.update(root);
+        for (int i = 0; i < count; i++) update.put(Bytes32.random(), Bytes.ofUnsignedLong(i));
+        KVBatch batch = new KVBatch();
+        update.commit(batch, Bytes32.random());
+        batch.commit();
+        return update.getRootHash();
+    }
+
+    @Benchmark
+    void stateRootPerBlock() throws Exception {
+        int keys = 2_000_000;
+        int blockUpdates = 10_000;
+        GlobalState state = new GlobalState(new MemoryTreeKVStore<>(Function.identity(), Function.identity()));
+        Bytes32[] root = {GlobalState.EMPTY_ROOT};
+        for (int loaded = 0; loaded < keys; loaded += 100_000) root[0] = commitRandom(state, root[0], 100_000);
+
+        double perBlock = Benchmarks.millis(10, () -> root[0] = commitRandom(state, root[0], blockUpdates));
+        Benchmarks.report("%d keys, %d updates per block: %.1f ms per state root", keys, blockUpdates, perBlock);
+    }
+}
@@ -0,0 +1,90 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.hyperledger.besu.ethereum.trie.MerkleTrie;
+import org.hyperledger.besu.ethereum.trie.patricia.SimpleMerklePatriciaTrie;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GlobalStateTest {
+
+    @Test
+    void matchesInMemoryTrie() {
+        MemoryTreeKVStore<Bytes> store = new MemoryTreeKVStore<>(Function.identity(), Function.identity());
+        GlobalState state = new GlobalState(store);
+        MerkleTrie<Bytes, Bytes> expected = new SimpleMerklePatriciaTrie<>(Function.identity());
+        assertEquals(expected.getRootHash(), GlobalState.EMPTY_ROOT);
+
+        List<Bytes> keys = new ArrayList<>();
+        GlobalState.Update update = state.update(GlobalState.EMPTY_ROOT);
+        for (int i = 0; i < 500; i++) {
+            Bytes key = Bytes32.random();
+            keys.add(key);
+            update.put(key, Bytes.ofUnsignedInt(i));
+            expected.put(key, Bytes.ofUnsignedInt(i));
+        }
+        assertEquals(expected.getRootHash(), update.getRootHash());
+        KVBatch batch = new KVBatch();
+        update.commit(batch, Bytes32.random());
+        batch.commit();
+        Bytes32 first = update.getRootHash();
+
+        update = state.update(first);
+        for (int i = 0; i < 100; i++) {
+            update.remove(keys.get(i));
+            expected.remove(keys.get(i));
+        }
+        assertEquals(expected.getRootHash(), update.getRootHash());
+        batch = new KVBatch();
+        update.commit(batch, Bytes32.random());
+        batch.commit();
+        Bytes32 second = update.getRootHash();
+
+        // a cold cache reads every node back from the store, and both roots stay readable
+        GlobalState reopened = new GlobalState(store, 0);
+        assertEquals(Bytes.ofUnsignedInt(0), reopened.get(first, keys.getFirst()).get());
+        assertTrue(reopened.get(second, keys.getFirst()).isEmpty());
+        assertEquals(Bytes.ofUnsignedInt(499), reopened.get(second, keys.getLast()).get());
+    }
+
+    @Test
+    void siblingBlocksStagingTheSameRoot() {
+        MemoryTreeKVStore<Bytes> store = new MemoryTreeKVStore<>(Function.identity(), Function.identity());
+        // no cache, staged nodes are only served from the pending ones
+        GlobalState state = new GlobalState(store, 0);
+        Bytes key = Bytes32.random();
+        List<GlobalState.Update> siblings = new ArrayList<>();
+        List<KVBatch> batches = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            GlobalState.Update update = state.update(GlobalState.EMPTY_ROOT);
+            update.put(key, Bytes.of(1));
+            KVBatch batch = new KVBatch();
+            update.commit(batch, Bytes32.random());
+            siblings.add(update);
+            batches.add(batch);
+        }
+        Bytes32 root = siblings.getFirst().getRootHash();
+        assertEquals(root, siblings.getLast().getRootHash());
+        // dropping one sibling leaves the other's nodes readable until its batch lands
+        siblings.getFirst().discard();
+        assertEquals(Bytes.of(1), state.get(root, key).get());
+        batches.getLast().commit();
+        assertEquals(Bytes.of(1), state.get(root, key).get());
+    }
+
+    @Test
+    void uncommittedChangesAreNotStored() {
+        MemoryTreeKVStore<Bytes> store = new MemoryTreeKVStore<>(Function.identity(), Function.identity());
+        GlobalState state = new GlobalState(store);
+        GlobalState.Update update = state.update(GlobalState.EMPTY_ROOT);
+        for (int i = 0; i < 10; i++) update.put(Bytes32.random(), Bytes32.random());
+        update.getRootHash();
+        assertTrue(store.iter(Bytes.of()).isEmpty());
+    }
+}
@@ -21,4 +21,28 @@ class MemoryTreeKVStoreTest {
         List<Integer> expected = List.of(12, 13);
         assertArrayEquals(vals.toArray(), expected.toArray());
     }
-}
\ No newline at end of file
+
+    @Test
+    void batch() {
+        MemoryTreeKVStore<Integer> first = new MemoryTreeKVStore<>(Bytes::of, Bytes::toInt);
+        MemoryTreeKVStore<Integer> second = new MemoryTreeKVStore<>(Bytes::of, Bytes::toInt);
+        first.put(Bytes.fromHexString("aa"), 1);
+
+        KVBatch batch = new KVBatch()
+                .remove(first, Bytes.fromHexString("aa"))
+                .put(first, Bytes.fromHexString("bb"), 2)
+                .put(second, Bytes.fromHexString("cc"), 3)
+                .remove(second, Bytes.fromHexString("cc"))
+                .put(second, Bytes.fromHexString("dd"), 4);
+        assertEquals(5, batch.size());
+        assertEquals(1, first.get(Bytes.fromHexString("aa")));
+        assertNull(second.get(Bytes.fromHexString("dd")));
+
+        batch.commit();
+        assertNull(first.get(Bytes.fromHexString("aa")));
+        assertEquals(2, first.get(Bytes.fromHexString("bb")));
+        assertNull(second.get(Bytes.fromHexString("cc")));
+        assertEquals(4, second.get(Bytes.fromHexString("dd")));
+        assertEquals(0, batch.size());
+    }
+}
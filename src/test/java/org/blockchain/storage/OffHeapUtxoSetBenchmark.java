@@ -0,0 +1,41 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.Benchmark;
+import org.blockchain.Benchmarks;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OffHeapUtxoSetBenchmark {
+    @Benchmark
+    void tenMillionCoins() throws Exception {
+        int coins = 10_000_000;
+        Runtime runtime = Runtime.getRuntime();
+        Bytes32 owner = Bytes32.random();
+        Bytes32[] txHashes = new Bytes32[coins / 2];
+        for (int i = 0; i < txHashes.length; i++) txHashes[i] = Bytes32.random();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        try (OffHeapUtxoSet set = new OffHeapUtxoSet(coins)) {
+            double adds = Benchmarks.perSecond(coins, () -> {
+                for (Bytes32 txHash : txHashes) {
+                    set.add(txHash, 0, owner, 1);
+                    set.add(txHash, 1, owner, 2);
+                }
+            });
+            long[] total = {0};
+            double gets = Benchmarks.perSecond(txHashes.length, () -> {
+                for (Bytes32 txHash : txHashes) total[0] += set.getAmount(txHash, 1);
+            });
+            assertEquals(2L * txHashes.length, total[0]);
+            double spends = Benchmarks.perSecond(txHashes.length, () -> {
+                for (Bytes32 txHash : txHashes) set.spend(txHash, 0);
+            });
+            System.gc();
+            long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+            Benchmarks.report("%d coins: add %.0f ns, get %.0f ns, spend %.0f ns, %d MB off heap, heap grew %d MB",
+                    coins, 1e9 / adds, 1e9 / gets, 1e9 / spends, set.getCapacity() * OffHeapUtxoSet.SLOT_SIZE >> 20,
+                    (heapAfter - heapBefore) >> 20);
+        }
+    }
+}
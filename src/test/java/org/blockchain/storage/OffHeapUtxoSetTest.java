@@ -0,0 +1,115 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.consensus.Engine;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapUtxoSetTest {
+
+    private static Bytes outpoint(Bytes32 txHash, int idx) {
+        return Bytes.concatenate(txHash, Bytes.ofUnsignedInt(idx));
+    }
+
+    @Test
+    void primitiveAccess() {
+        try (OffHeapUtxoSet set = new OffHeapUtxoSet()) {
+            Bytes32 txHash = Bytes32.random();
+            Bytes32 owner = Bytes32.random();
+            assertTrue(set.add(txHash, 0, owner, 7));
+            assertTrue(set.add(txHash, 1, owner, 3));
+            assertFalse(set.add(txHash, 1, owner, 4));
+            assertEquals(2, set.size());
+            assertTrue(set.contains(txHash, 1));
+            assertEquals(4, set.getAmount(txHash, 1));
+            assertEquals(-1, set.getAmount(txHash, 2));
+            assertTrue(set.isOwnedBy(txHash, 0, owner));
+            assertFalse(set.isOwnedBy(txHash, 0, Bytes32.random()));
+
+            byte[] value = new byte[OffHeapUtxoSet.VALUE_SIZE + 1];
+            assertTrue(set.get(txHash, 0, value, 1));
+            assertEquals(new TransactionOutput(owner, 7), TransactionOutput.fromBytes(Bytes.wrap(value, 1, 41)));
+            assertEquals(new TransactionOutput(owner, 7), set.get(outpoint(txHash, 0)));
+
+            assertTrue(set.spend(txHash, 0));
+            assertFalse(set.spend(txHash, 0));
+            assertNull(set.get(outpoint(txHash, 0)));
+            assertEquals(1, set.size());
+        }
+    }
+
+    @Test
+    void matchesHashMap() {
+        // small table and shared tx hashes, so probe runs get long and deletions shift a lot
+        Random random = new Random(42);
+        List<Bytes32> txHashes = new ArrayList<>();
+        for (int i = 0; i < 300; i++) txHashes.add(Bytes32.random(random));
+        Map<Bytes, TransactionOutput> expected = new HashMap<>();
+        try (OffHeapUtxoSet set = new OffHeapUtxoSet()) {
+            for (int op = 0; op < 50_000; op++) {
+                Bytes key = outpoint(txHashes.get(random.nextInt(txHashes.size())), random.nextInt(8));
+                if (random.nextInt(3) == 0) {
+                    set.remove(key);
+                    expected.remove(key);
+                } else {
+                    TransactionOutput out = new TransactionOutput(Bytes32.random(random), random.nextInt(1000));
+                    assertEquals(!expected.containsKey(key), set.put(key, out));
+                    expected.put(key, out);
+                }
+                if (op % 1000 == 0) assertEquals(expected.size(), set.size());
+            }
+            assertEquals(expected, set.entries(Bytes.of()));
+            for (Map.Entry<Bytes, TransactionOutput> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), set.get(entry.getKey()));
+            }
+            assertTrue(set.getCapacity() > 1024);
+        }
+    }
+
+    @Test
+    void sharedHashPrefixes() {
+        // hashes apart only past their first 8 bytes, the whole outpoint decides where they probe
+        Bytes prefix = Bytes32.random().slice(0, 8);
+        List<Bytes32> txHashes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) txHashes.add(Bytes32.wrap(Bytes.concatenate(prefix, Bytes.random(24))));
+        try (OffHeapUtxoSet set = new OffHeapUtxoSet()) {
+            for (Bytes32 txHash : txHashes) assertTrue(set.add(txHash, 0, txHash, 1));
+            for (int i = 0; i < txHashes.size(); i += 2) assertTrue(set.spend(txHashes.get(i), 0));
+            assertEquals(txHashes.size() / 2, set.size());
+            for (int i = 0; i < txHashes.size(); i++) {
+                assertEquals(i % 2 == 1, set.contains(txHashes.get(i), 0));
+            }
+        }
+    }
+
+    @Test
+    void engineBackend() throws Exception {
+        try (OffHeapUtxoSet utxos = new OffHeapUtxoSet()) {
+            KVStore<Block> blocks = new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes);
+            KVStore<Transaction> txs = new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes);
+            ECPrivateKey key = new ECPrivateKey();
+            ECPrivateKey secondAccount = new ECPrivateKey();
+            Engine engine = new Engine(blocks, txs, utxos, key);
+
+            engine.advance();
+            Transaction input = blocks.get(engine.getLatestBlockHash()).getTxs().getFirst();
+            Transaction send = input.spend(key, secondAccount.getPublicKey().getHash(), 5);
+            engine.submitTransaction(send);
+            engine.advance();
+            assertEquals(5, utxos.getAmount(send.getTransactionHash(), 0));
+            assertTrue(utxos.isOwnedBy(send.getTransactionHash(), 0, secondAccount.getPublicKey().getHash()));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.consensus.Engine;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RocksKVStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void iter() throws Exception {
+        try (RocksDatabase db = new RocksDatabase(dir)) {
+            RocksKVStore<Integer> map = db.open(RocksDatabase.BLOCKS, Bytes::of, Bytes::toInt);
+            map.put(Bytes.fromHexString("cafecafaaa"), 11);
+            map.put(Bytes.fromHexString("cafecafeaa"), 12);
+            map.put(Bytes.fromHexString("cafecafebb"), 13);
+            map.put(Bytes.fromHexString("cafecffeaa"), 14);
+            map.put(Bytes.fromHexString("dddddddddd"), 15);
+            List<Integer> vals = map.iter(Bytes.fromHexString("cafecafe"));
+            List<Integer> expected = List.of(12, 13);
+            assertArrayEquals(vals.toArray(), expected.toArray());
+        }
+    }
+
+    @Test
+    void prefixSeek() throws Exception {
+        try (RocksDatabase db = new RocksDatabase(dir)) {
+            RocksKVStore<TransactionOutput> utxos = db.open(
+                    RocksDatabase.UTXOS, TransactionOutput::asBytes, TransactionOutput::fromBytes);
+            Bytes32 txA = Bytes32.random();
+            Bytes32 txB = Bytes32.random();
+            TransactionOutput out = new TransactionOutput(Bytes32.random(), 7);
+            assertTrue(utxos.put(Bytes.concatenate(txA, Bytes.ofUnsignedInt(0)), out));
+            assertTrue(utxos.put(Bytes.concatenate(txA, Bytes.ofUnsignedInt(1)), out));
+            assertTrue(utxos.put(Bytes.concatenate(txB, Bytes.ofUnsignedInt(0)), out));
+            assertFalse(utxos.put(Bytes.concatenate(txB, Bytes.ofUnsignedInt(0)), out));
+            assertEquals(2, utxos.iter(txA).size());
+            assertEquals(3, utxos.iter(Bytes.of()).size());
+
+            utxos.remove(Bytes.concatenate(txA, Bytes.ofUnsignedInt(0)));
+            assertNull(utxos.get(Bytes.concatenate(txA, Bytes.ofUnsignedInt(0))));
+            assertEquals(out, utxos.get(Bytes.concatenate(txA, Bytes.ofUnsignedInt(1))));
+        }
+    }
+
+    @Test
+    void getAll() throws Exception {
+        try (RocksDatabase db = new RocksDatabase(dir)) {
+            RocksKVStore<Integer> map = db.open(RocksDatabase.BLOCKS, Bytes::of, Bytes::toInt);
+            map.put(Bytes.fromHexString("aa"), 1);
+            map.put(Bytes.fromHexString("bb"), 2);
+            List<Integer> values = map.getAll(List.of(
+                    Bytes.fromHexString("bb"), Bytes.fromHexString("cc"), Bytes.fromHexString("aa")));
+            assertEquals(Arrays.asList(2, null, 1), values);
+            assertTrue(map.getAll(List.of()).isEmpty());
+        }
+    }
+
+    @Test
+    void batchAcrossFamilies() throws Exception {
+        try (RocksDatabase db = new RocksDatabase(dir)) {
+            RocksKVStore<Integer> blocks = db.open(RocksDatabase.BLOCKS, Bytes::of, Bytes::toInt);
+            RocksKVStore<Integer> txs = db.open(RocksDatabase.TRANSACTIONS, Bytes::of, Bytes::toInt);
+            blocks.put(Bytes.fromHexString("aa"), 1);
+            new KVBatch()
+                    .remove(blocks, Bytes.fromHexString("aa"))
+                    .put(blocks, Bytes.fromHexString("bb"), 2)
+                    .put(txs, Bytes.fromHexString("bb"), 3)
+                    .commit();
+            assertNull(blocks.get(Bytes.fromHexString("aa")));
+            assertEquals(2, blocks.get(Bytes.fromHexString("bb")));
+            assertEquals(3, txs.get(Bytes.fromHexString("bb")));
+        }
+    }
+
+    @Test
+    void engineTransfer() throws Exception {
+        try (RocksDatabase db = new RocksDatabase(dir)) {
+            KVStore<Block> blocks = db.open(RocksDatabase.BLOCKS, Block::asBytes, Block::fromBytes);
+            KVStore<Transaction> txs = db.open(
+                    RocksDatabase.TRANSACTIONS, Transaction::asBytes, Transaction::fromBytes);
+            KVStore<TransactionOutput> utxos = db.open(
+                    RocksDatabase.UTXOS, TransactionOutput::asBytes, TransactionOutput::fromBytes);
+            ECPrivateKey key = new ECPrivateKey();
+            ECPrivateKey secondAccount = new ECPrivateKey();
+            Engine engine = new Engine(blocks, txs, utxos, key);
+
+            engine.advance();
+            Transaction input = blocks.get(engine.getLatestBlockHash()).getTxs().getFirst();
+            engine.submitTransaction(input.spend(key, secondAccount.getPublicKey().getHash(), 5));
+            engine.advance();
+            Block latest = blocks.get(engine.getLatestBlockHash());
+            assertEquals(2, latest.getTxs().size());
+            for (Transaction tx : latest.getTxs()) {
+                assertNotNull(txs.get(tx.getTransactionHash()));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.model.TransactionOutput;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UndoIndexTest {
+
+    @Test
+    void roundTrip() {
+        UndoIndex index = new UndoIndex(new MemoryTreeKVStore<>(Function.identity(), Function.identity()));
+        Bytes32 block = Bytes32.random();
+        Bytes32 empty = Bytes32.random();
+        List<UndoIndex.Spent> spent = List.of(
+                new UndoIndex.Spent(Bytes.concatenate(Bytes32.random(), Bytes.ofUnsignedInt(0)),
+                        new TransactionOutput(Bytes32.random(), 7)),
+                new UndoIndex.Spent(Bytes.concatenate(Bytes32.random(), Bytes.ofUnsignedInt(3)),
+                        new TransactionOutput(Bytes32.random(), 1)));
+        KVBatch batch = new KVBatch();
+        index.put(batch, block, spent);
+        index.put(batch, empty, List.of());
+        batch.commit();
+
+        assertEquals(spent, index.get(block));
+        assertEquals(List.of(), index.get(empty));
+        assertTrue(index.contains(empty));
+        assertNull(index.get(Bytes32.random()));
+        batch = new KVBatch();
+        index.remove(batch, block);
+        batch.commit();
+        assertFalse(index.contains(block));
+    }
+}
@@ -0,0 +1,264 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.consensus.Engine;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.hyperledger.besu.ethereum.trie.MerkleTrie;
+import org.hyperledger.besu.ethereum.trie.patricia.SimpleMerklePatriciaTrie;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UtxoCacheTest {
+    // counts what actually reaches the backend
+    static class CountingStore extends KVStore<TransactionOutput> {
+        final MemoryTreeKVStore<TransactionOutput> memory = new MemoryTreeKVStore<>(
+                TransactionOutput::asBytes, TransactionOutput::fromBytes);
+        int writes;
+        int multiReads;
+
+        CountingStore() {
+            super(TransactionOutput::asBytes, TransactionOutput::fromBytes);
+        }
+
+        @Override
+        public TransactionOutput get(Bytes key) {
+            return this.memory.get(key);
+        }
+
+        @Override
+        public List<TransactionOutput> getAll(List<Bytes> keys) {
+            this.multiReads++;
+            return super.getAll(keys);
+        }
+
+        @Override
+        public List<TransactionOutput> iter(Bytes prefix) {
+            return this.memory.iter(prefix);
+        }
+
+        @Override
+        public Map<Bytes, TransactionOutput> entries(Bytes prefix) {
+            return this.memory.entries(prefix);
+        }
+
+        @Override
+        public boolean put(Bytes key, TransactionOutput value) {
+            this.writes++;
+            return this.memory.put(key, value);
+        }
+
+        @Override
+        public void remove(Bytes key) {
+            this.writes++;
+            this.memory.remove(key);
+        }
+
+        @Override
+        protected void writeBatch(List<KVBatch.Operation> operations) {
+            for (KVBatch.Operation operation : operations) {
+                if (operation.isRemove()) {
+                    this.remove(operation.key());
+                } else {
+                    this.put(operation.key(), this.deSerializer.apply(operation.value()));
+                }
+            }
+        }
+    }
+
+    private static Bytes outpoint() {
+        return Bytes.concatenate(Bytes32.random(), Bytes.ofUnsignedInt(0));
+    }
+
+    @Test
+    void createdAndSpentIsNeverWritten() {
+        CountingStore backend = new CountingStore();
+        UtxoCache cache = new UtxoCache(backend);
+        Bytes key = outpoint();
+        TransactionOutput out = new TransactionOutput(Bytes32.random(), 5);
+        assertTrue(cache.add(key, out, false));
+        assertEquals(out, cache.get(key));
+        assertEquals(out, cache.spend(key));
+        assertNull(cache.get(key));
+        assertNull(cache.spend(key));
+        KVBatch batch = new KVBatch();
+        assertEquals(0, cache.flush(batch));
+        batch.commit();
+        assertEquals(0, backend.writes);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void flushWritesSurvivorsAndSpends() {
+        CountingStore backend = new CountingStore();
+        UtxoCache cache = new UtxoCache(backend);
+        Bytes stored = outpoint();
+        Bytes created = outpoint();
+        TransactionOutput out = new TransactionOutput(Bytes32.random(), 5);
+        backend.memory.put(stored, out);
+
+        assertEquals(out, cache.spend(stored));
+        cache.add(created, out, false);
+        assertThrows(IllegalStateException.class, () -> cache.add(created, out, false));
+        // nothing reaches the backend before the batch commits
+        KVBatch batch = new KVBatch();
+        assertEquals(2, cache.flush(batch));
+        assertEquals(0, backend.writes);
+        assertEquals(2, cache.getDirtyCount());
+        batch.commit();
+
+        assertEquals(2, backend.writes);
+        assertEquals(0, cache.getDirtyCount());
+        assertNull(backend.get(stored));
+        assertEquals(out, backend.get(created));
+        // spending a flushed output has to reach the backend as well
+        cache.spend(created);
+        batch = new KVBatch();
+        cache.flush(batch);
+        batch.commit();
+        assertNull(backend.get(created));
+    }
+
+    @Test
+    void spendWhileFlushIsPending() {
+        CountingStore backend = new CountingStore();
+        UtxoCache cache = new UtxoCache(backend);
+        Bytes key = outpoint();
+        cache.add(key, new TransactionOutput(Bytes32.random(), 5), false);
+        KVBatch first = new KVBatch();
+        assertEquals(1, cache.flush(first));
+        // the put is staged, so the spend can't just forget the entry
+        cache.spend(key);
+        KVBatch second = new KVBatch();
+        assertEquals(1, cache.flush(second));
+        first.commit();
+        second.commit();
+        assertNull(backend.get(key));
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getDirtyCount());
+    }
+
+    @Test
+    void getAllReadsMissesAtOnce() {
+        CountingStore backend = new CountingStore();
+        UtxoCache cache = new UtxoCache(backend);
+        Bytes stored = outpoint();
+        Bytes created = outpoint();
+        Bytes spent = outpoint();
+        Bytes missing = outpoint();
+        TransactionOutput out = new TransactionOutput(Bytes32.random(), 5);
+        backend.memory.put(stored, out);
+        backend.memory.put(spent, out);
+        cache.add(created, out, false);
+        cache.spend(spent);
+
+        List<TransactionOutput> outputs = cache.getAll(List.of(missing, stored, created, spent));
+        assertEquals(Arrays.asList(null, out, out, null), outputs);
+        assertEquals(1, backend.multiReads);
+        // what was read is cached now
+        assertEquals(out, cache.getAll(List.of(stored)).getFirst());
+        assertEquals(1, backend.multiReads);
+    }
+
+    @Test
+    void coinbaseOverwrite() {
+        CountingStore backend = new CountingStore();
+        UtxoCache cache = new UtxoCache(backend);
+        Bytes key = outpoint();
+        backend.memory.put(key, new TransactionOutput(Bytes32.random(), 10));
+        TransactionOutput replacement = new TransactionOutput(Bytes32.random(), 10);
+        assertTrue(cache.add(key, replacement, true));
+        // the overwritten outpoint isn't fresh, so spending it has to delete the backend copy
+        cache.spend(key);
+        KVBatch batch = new KVBatch();
+        cache.flush(batch);
+        batch.commit();
+        assertNull(backend.get(key));
+    }
+
+    @Test
+    void evictsCleanEntriesOverBudget() {
+        CountingStore backend = new CountingStore();
+        UtxoCache cache = new UtxoCache(backend, 10L * UtxoCache.ENTRY_SIZE);
+        TransactionOutput out = new TransactionOutput(Bytes32.random(), 1);
+        for (int i = 0; i < 50; i++) cache.add(outpoint(), out, false);
+        // dirty entries are kept until they are flushed
+        assertEquals(50, cache.size());
+        assertTrue(cache.isOverBudget());
+        KVBatch batch = new KVBatch();
+        cache.flush(batch);
+        batch.commit();
+        assertEquals(10, cache.size());
+        assertFalse(cache.isOverBudget());
+        assertEquals(50, cache.iter(Bytes.of()).size());
+    }
+
+    @Test
+    void entriesMergePendingChanges() {
+        CountingStore backend = new CountingStore();
+        UtxoCache cache = new UtxoCache(backend);
+        Bytes stored = outpoint();
+        Bytes created = outpoint();
+        TransactionOutput out = new TransactionOutput(Bytes32.random(), 1);
+        backend.memory.put(stored, out);
+        cache.spend(stored);
+        cache.add(created, out, false);
+        assertEquals(Map.of(created, out), cache.entries(Bytes.of()));
+    }
+
+    @Test
+    void enginePaymentWorkload() throws Exception {
+        CountingStore eager = new CountingStore();
+        CountingStore deferred = new CountingStore();
+        KVStore<Bytes> chainStore = new MemoryTreeKVStore<>(Function.identity(), Function.identity());
+        KVStore<Block> blocks = new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes);
+        ECPrivateKey key = new ECPrivateKey();
+        ECPrivateKey other = new ECPrivateKey();
+        this.payments(eager, key, other, 1, new MemoryTreeKVStore<>(Block::asBytes, Block::fromBytes),
+                new MemoryTreeKVStore<>(Function.identity(), Function.identity()));
+        Engine engine = this.payments(deferred, key, other, 10, blocks, chainStore);
+        assertTrue(deferred.writes * 2 < eager.writes,
+                String.format("%d writes with a 10 block interval, %d flushing every block", deferred.writes, eager.writes));
+
+        // unflushed blocks are replayed from the blocks on restart
+        assertNotEquals(0, (engine.getHeight() + 1) % 10);
+        Engine restarted = new Engine(
+                blocks, new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes), deferred, chainStore, key);
+        assertEquals(engine.getLatestBlockHash(), restarted.getLatestBlockHash());
+        // the state root commits to the whole utxo set, so the backend must match it exactly
+        MerkleTrie<Bytes, Bytes> expected = new SimpleMerklePatriciaTrie<>(Function.identity());
+        for (Map.Entry<Bytes, TransactionOutput> entry : deferred.memory.entries(Bytes.of()).entrySet())
+            expected.put(entry.getKey(), entry.getValue().asBytes());
+        assertEquals(restarted.getStateRoot(), expected.getRootHash());
+    }
+
+    // every block pays the previous change back and forth between two keys
+    private Engine payments(
+            KVStore<TransactionOutput> utxos, ECPrivateKey key, ECPrivateKey other, int flushInterval,
+            KVStore<Block> blocks, KVStore<Bytes> chainStore) throws Exception {
+        Engine engine = new Engine(
+                blocks, new MemoryTreeKVStore<>(Transaction::asBytes, Transaction::fromBytes), utxos, chainStore, key);
+        engine.setUtxoFlushInterval(flushInterval);
+        engine.advance();
+        Transaction last = blocks.get(engine.getLatestBlockHash()).getTxs().getFirst();
+        ECPrivateKey owner = key;
+        for (int i = 0; i < 25; i++) {
+            ECPrivateKey target = owner == key ? other : key;
+            Transaction payment = last.spendAllTo(owner, target.getPublicKey().getHash());
+            engine.submitTransaction(payment);
+            engine.advance();
+            last = payment;
+            owner = target;
+        }
+        return engine;
+    }
+}
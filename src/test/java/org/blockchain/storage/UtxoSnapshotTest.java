@@ -0,0 +1,107 @@
+package org.blockchain.storage;
+
+import org.apache.tuweni.bytes.Bytes;
+import org.apache.tuweni.bytes.Bytes32;
+import org.blockchain.crypto.ECPrivateKey;
+import org.blockchain.model.Block;
+import org.blockchain.model.Transaction;
+import org.blockchain.model.TransactionOutput;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UtxoSnapshotTest {
+    @TempDir
+    Path dir;
+
+    private static Block block() throws Exception {
+        return Block.buildUnsignedFromTxList(Bytes32.random(), Bytes32.random(),
+                List.of(Transaction.payCoinbaseTo(Bytes32.random()))).signed(new ECPrivateKey());
+    }
+
+    private static Map<Bytes, TransactionOutput> utxos(int count) {
+        Map<Bytes, TransactionOutput> utxos = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            utxos.put(Bytes.concatenate(Bytes32.random(), Bytes.ofUnsignedInt(i % 3)),
+                    new TransactionOutput(Bytes32.random(), i));
+        }
+        return utxos;
+    }
+
+    @Test
+    void roundTrip() throws Exception {
+        Block block = block();
+        Map<Bytes, TransactionOutput> utxos = utxos(1000);
+        Path file = this.dir.resolve("snapshot");
+        UtxoSnapshot.write(file, block, 42, utxos, 300);
+
+        Map<Bytes, TransactionOutput> read = new HashMap<>();
+        Bytes previous = null;
+        try (UtxoSnapshot.Reader reader = new UtxoSnapshot.Reader(file)) {
+            assertEquals(block, reader.getHeader().block());
+            assertEquals(42, reader.getHeader().height());
+            assertEquals(1000, reader.getHeader().entryCount());
+            int chunks = 0;
+            for (UtxoSnapshot.Chunk chunk = reader.next(); chunk != null; chunk = reader.next()) {
+                assertEquals(chunks++, chunk.index());
+                for (Map.Entry<Bytes, TransactionOutput> entry : chunk.decode()) {
+                    // sorted, so every node writes the same file
+                    if (previous != null) assertTrue(MemoryTreeKVStore.ORDER.compare(previous, entry.getKey()) < 0);
+                    previous = entry.getKey();
+                    read.put(entry.getKey(), entry.getValue());
+                }
+            }
+            assertEquals(4, chunks);
+        }
+        assertEquals(utxos, read);
+
+        Path copy = this.dir.resolve("copy");
+        UtxoSnapshot.write(copy, block, 42, new HashMap<>(utxos), 300);
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(copy));
+    }
+
+    @Test
+    void corruptChunk() throws Exception {
+        Path file = this.dir.resolve("snapshot");
+        UtxoSnapshot.write(file, block(), 1, utxos(10), UtxoSnapshot.DEFAULT_CHUNK_SIZE);
+        byte[] raw = Files.readAllBytes(file);
+        raw[raw.length - 1] ^= 1;
+        Files.write(file, raw);
+        try (UtxoSnapshot.Reader reader = new UtxoSnapshot.Reader(file)) {
+            UtxoSnapshot.Chunk chunk = reader.next();
+            assertThrows(IllegalArgumentException.class, chunk::decode);
+            assertNull(reader.next());
+        }
+        Files.write(file, new byte[]{'n', 'o', 'p', 'e', 1});
+        assertThrows(IllegalArgumentException.class, () -> new UtxoSnapshot.Reader(file));
+    }
+
+    @Test
+    void writerStreamsInKeyOrder() throws Exception {
+        Path file = this.dir.resolve("snapshot");
+        Bytes output = new TransactionOutput(Bytes32.random(), 1).asBytes();
+        Bytes first = Bytes.concatenate(Bytes32.ZERO, Bytes.ofUnsignedInt(1));
+        try (UtxoSnapshot.Writer writer = new UtxoSnapshot.Writer(file, block(), 7, 2)) {
+            writer.add(first, output);
+            assertThrows(IllegalArgumentException.class, () -> writer.add(first, output));
+            for (int i = 2; i < 7; i++) writer.add(Bytes.concatenate(Bytes32.ZERO, Bytes.ofUnsignedInt(i)), output);
+        }
+        // the count is only known once the last entry is in
+        try (UtxoSnapshot.Reader reader = new UtxoSnapshot.Reader(file)) {
+            assertEquals(6, reader.getHeader().entryCount());
+            assertEquals(7, reader.getHeader().height());
+            int entries = 0;
+            for (UtxoSnapshot.Chunk chunk = reader.next(); chunk != null; chunk = reader.next()) {
+                entries += chunk.decode().size();
+            }
+            assertEquals(6, entries);
+        }
+    }
+}